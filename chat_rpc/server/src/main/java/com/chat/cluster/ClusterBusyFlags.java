@@ -0,0 +1,123 @@
+package com.chat.cluster;
+
+import Chat.ClusterNodePrx;
+import com.chat.core.CallRegistry;
+import com.chat.core.TimerWheel;
+import com.chat.rpc.ChatMetrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps each user's busy flag on the node that owns the user id, so a user in a call held by one
+ * node is busy for calls started on any other. Flags are leases: the node holding the call renews
+ * them every third of {@code leaseMs}, and the flags of a node that went away lapse on their own.
+ */
+public class ClusterBusyFlags implements CallRegistry.BusyFlags {
+    private static final class Lease {
+        private final String callId;
+        private final long expiresAt;
+
+        private Lease(String callId, long expiresAt) {
+            this.callId = callId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ClusterRouter router;
+    private final TimerWheel timers;
+    private final long leaseMs;
+    private final LongAdder unreachable;
+    // Flags this node keeps for the users it owns.
+    private final Map<String, Lease> owned = new ConcurrentHashMap<>();
+    // Flags this node's calls hold, wherever they are kept; renewed until released.
+    private final Map<String, String> held = new ConcurrentHashMap<>();
+
+    public ClusterBusyFlags(ClusterRouter router, TimerWheel timers, long leaseMs, ChatMetrics metrics) {
+        this.router = router;
+        this.timers = timers;
+        this.leaseMs = Math.max(1000, leaseMs);
+        this.unreachable = metrics.counter("chat_cluster_busy_unreachable_total");
+        metrics.gauge("chat_cluster_busy_flags", owned::size);
+        timers.schedule(this::renew, this.leaseMs / 3);
+    }
+
+    /**
+     * An owner that cannot be reached cannot vouch either way, so the user is taken as free.
+     */
+    @Override
+    public boolean claim(String userId, String callId) {
+        String owner = router.ownerOf(userId);
+        if (owner.equals(router.getSelfId())) {
+            if (!claimOwned(userId, callId)) {
+                return false;
+            }
+        } else {
+            try {
+                if (!router.getPeers().get(owner).claimCall(userId, callId)) {
+                    return false;
+                }
+            } catch (com.zeroc.Ice.LocalException ex) {
+                unreachable.increment();
+            }
+        }
+        held.put(userId, callId);
+        return true;
+    }
+
+    @Override
+    public void release(String userId, String callId) {
+        held.remove(userId, callId);
+        String owner = router.ownerOf(userId);
+        if (owner.equals(router.getSelfId())) {
+            releaseOwned(userId, callId);
+        } else {
+            // A release that does not arrive only leaves the flag until its lease lapses.
+            router.getPeers().get(owner).releaseCallAsync(userId, callId);
+        }
+    }
+
+    /**
+     * Takes the flag of a user this node owns; fails while another call holds it.
+     */
+    public boolean claimOwned(String userId, String callId) {
+        long now = System.currentTimeMillis();
+        Lease lease = owned.compute(userId, (key, current) ->
+            current == null || current.callId.equals(callId) || current.expiresAt <= now
+                ? new Lease(callId, now + leaseMs)
+                : current);
+        return lease.callId.equals(callId);
+    }
+
+    /**
+     * Extends a flag the call still holds. A flag already released or lapsed is not brought back,
+     * so a renewal that crosses a release on the wire changes nothing.
+     */
+    public void renewOwned(String userId, String callId) {
+        long now = System.currentTimeMillis();
+        owned.computeIfPresent(userId, (key, current) ->
+            current.callId.equals(callId) && current.expiresAt > now ? new Lease(callId, now + leaseMs) : current);
+    }
+
+    public void releaseOwned(String userId, String callId) {
+        owned.computeIfPresent(userId, (key, current) -> current.callId.equals(callId) ? null : current);
+    }
+
+    private void renew() {
+        try {
+            long now = System.currentTimeMillis();
+            owned.entrySet().removeIf(entry -> entry.getValue().expiresAt <= now);
+            for (Map.Entry<String, String> flag : held.entrySet()) {
+                String owner = router.ownerOf(flag.getKey());
+                if (owner.equals(router.getSelfId())) {
+                    renewOwned(flag.getKey(), flag.getValue());
+                } else {
+                    ClusterNodePrx peer = router.getPeers().get(owner);
+                    peer.renewCallAsync(flag.getKey(), flag.getValue());
+                }
+            }
+        } finally {
+            timers.schedule(this::renew, leaseMs / 3);
+        }
+    }
+}
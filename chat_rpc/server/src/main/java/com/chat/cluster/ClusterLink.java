@@ -0,0 +1,247 @@
+package com.chat.cluster;
+
+import Chat.CallEvent;
+import Chat.CallSignal;
+import Chat.ClusterBatch;
+import Chat.ClusterNodePrx;
+import Chat.EphemeralBatch;
+import Chat.GroupInfo;
+import Chat.MessagePayload;
+import Chat.ReadReceipt;
+import Chat.RoutedCallEvent;
+import Chat.RoutedCallSignal;
+import Chat.RoutedEphemeral;
+import Chat.RoutedMessage;
+import Chat.RoutedReadReceipt;
+import Chat.SubscriberLocation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outgoing batch to one peer. Events accumulate until the batch is full or the periodic
+ * flush fires, then travel as a single {@code ClusterNode.deliver} invocation.
+ *
+ * <p>Only one batch is in flight at a time. A batch that fails goes out again, ahead of anything
+ * queued after it, once a backoff that doubles on every failure has passed. While the peer is
+ * unreachable at most {@code MAX_BACKLOG_BATCHES} batches' worth of events wait; newer ones are
+ * dropped. A batch that timed out may still have been delivered, so peers can see it twice.
+ */
+final class ClusterLink {
+    private static final int MAX_BACKLOG_BATCHES = 16;
+    private static final long MIN_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final String selfId;
+    private final ClusterNodePrx peer;
+    private final int maxBatchSize;
+    private final LongAdder batchesSent;
+    private final LongAdder eventsSent;
+    private final LongAdder failures;
+    private final LongAdder dropped;
+
+    private final List<SubscriberLocation> locations = new ArrayList<>();
+    private final List<RoutedMessage> messages = new ArrayList<>();
+    private final List<RoutedCallEvent> callEvents = new ArrayList<>();
+    private final List<RoutedCallSignal> callSignals = new ArrayList<>();
+    private final List<GroupInfo> groups = new ArrayList<>();
+    private final List<RoutedReadReceipt> readReceipts = new ArrayList<>();
+    private final List<RoutedEphemeral> ephemeral = new ArrayList<>();
+    private int pending;
+    private ClusterBatch retry;
+    private boolean inFlight;
+    private long backoffMs;
+    private long retryAt;
+    private long failingSince;
+
+    ClusterLink(String selfId, ClusterNodePrx peer, int maxBatchSize, LongAdder batchesSent, LongAdder eventsSent,
+                LongAdder failures, LongAdder dropped) {
+        this.selfId = selfId;
+        this.peer = peer;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batchesSent = batchesSent;
+        this.eventsSent = eventsSent;
+        this.failures = failures;
+        this.dropped = dropped;
+    }
+
+    void location(SubscriberLocation location) {
+        synchronized (this) {
+            if (admit()) {
+                locations.add(location);
+            }
+        }
+        pump(false);
+    }
+
+    void message(Collection<String> recipients, MessagePayload payload) {
+        synchronized (this) {
+            if (admit()) {
+                messages.add(new RoutedMessage(recipients.toArray(new String[0]), payload));
+            }
+        }
+        pump(false);
+    }
+
+    void callEvent(Collection<String> recipients, CallEvent event) {
+        synchronized (this) {
+            if (admit()) {
+                callEvents.add(new RoutedCallEvent(recipients.toArray(new String[0]), event));
+            }
+        }
+        // Call signaling is latency sensitive: never wait for the flush tick.
+        pump(true);
+    }
+
+    void callSignal(Collection<String> recipients, CallSignal signal) {
+        synchronized (this) {
+            if (admit()) {
+                callSignals.add(new RoutedCallSignal(recipients.toArray(new String[0]), signal));
+            }
+        }
+        pump(true);
+    }
+
+    void groupCreated(GroupInfo group) {
+        synchronized (this) {
+            if (admit()) {
+                groups.add(group);
+            }
+        }
+        pump(false);
+    }
+
+    void readReceipt(Collection<String> recipients, ReadReceipt receipt) {
+        synchronized (this) {
+            if (admit()) {
+                readReceipts.add(new RoutedReadReceipt(recipients.toArray(new String[0]), receipt));
+            }
+        }
+        pump(false);
+    }
+
+    void ephemeral(Collection<String> recipients, EphemeralBatch batch) {
+        synchronized (this) {
+            if (admit()) {
+                ephemeral.add(new RoutedEphemeral(recipients.toArray(new String[0]), batch));
+            }
+        }
+        pump(false);
+    }
+
+    void flush() {
+        pump(true);
+    }
+
+    /**
+     * When the first of the failures still unresolved happened, or 0 while the peer is reachable.
+     */
+    synchronized long failingSince() {
+        return failingSince;
+    }
+
+    private boolean admit() {
+        if (pending >= maxBatchSize * MAX_BACKLOG_BATCHES) {
+            dropped.increment();
+            return false;
+        }
+        pending++;
+        return true;
+    }
+
+    /**
+     * Sends the next batch unless one is already in flight or the link is backing off: the failed
+     * batch first, otherwise what is queued, when {@code force} is set or a full batch is waiting.
+     */
+    private void pump(boolean force) {
+        ClusterBatch batch;
+        synchronized (this) {
+            if (inFlight || (retry != null && System.currentTimeMillis() < retryAt)) {
+                return;
+            }
+            if (retry != null) {
+                batch = retry;
+                retry = null;
+            } else {
+                batch = force || pending >= maxBatchSize ? take() : null;
+            }
+            if (batch == null) {
+                return;
+            }
+            inFlight = true;
+        }
+        send(batch);
+    }
+
+    /**
+     * Takes up to {@code maxBatchSize} queued events, call traffic first.
+     */
+    private ClusterBatch take() {
+        if (pending == 0) {
+            return null;
+        }
+        int room = maxBatchSize;
+        RoutedCallSignal[] takenSignals = drain(callSignals, new RoutedCallSignal[0], room);
+        room -= takenSignals.length;
+        RoutedCallEvent[] takenEvents = drain(callEvents, new RoutedCallEvent[0], room);
+        room -= takenEvents.length;
+        SubscriberLocation[] takenLocations = drain(locations, new SubscriberLocation[0], room);
+        room -= takenLocations.length;
+        RoutedMessage[] takenMessages = drain(messages, new RoutedMessage[0], room);
+        room -= takenMessages.length;
+        RoutedReadReceipt[] takenReceipts = drain(readReceipts, new RoutedReadReceipt[0], room);
+        room -= takenReceipts.length;
+        GroupInfo[] takenGroups = drain(groups, new GroupInfo[0], room);
+        room -= takenGroups.length;
+        RoutedEphemeral[] takenEphemeral = drain(ephemeral, new RoutedEphemeral[0], room);
+        return new ClusterBatch(
+            selfId, takenLocations, takenMessages, takenEvents, takenSignals, takenGroups, takenReceipts, takenEphemeral);
+    }
+
+    private <T> T[] drain(List<T> queue, T[] empty, int room) {
+        List<T> head = queue.subList(0, Math.min(queue.size(), room));
+        T[] taken = head.toArray(empty);
+        head.clear();
+        pending -= taken.length;
+        return taken;
+    }
+
+    private void send(ClusterBatch batch) {
+        int events = batch.locations.length + batch.messages.length + batch.callEvents.length
+            + batch.callSignals.length + batch.groups.length + batch.readReceipts.length
+            + batch.ephemeral.length;
+        CompletableFuture<Void> delivered;
+        try {
+            delivered = peer.deliverAsync(batch);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            delivered = CompletableFuture.failedFuture(ex);
+        }
+        delivered.whenComplete((ignored, error) -> {
+            synchronized (this) {
+                inFlight = false;
+                if (error != null) {
+                    long now = System.currentTimeMillis();
+                    retry = batch;
+                    backoffMs = Math.min(Math.max(backoffMs * 2, MIN_BACKOFF_MS), MAX_BACKOFF_MS);
+                    retryAt = now + backoffMs;
+                    if (failingSince == 0) {
+                        failingSince = now;
+                    }
+                } else {
+                    backoffMs = 0;
+                    failingSince = 0;
+                }
+            }
+            if (error != null) {
+                failures.increment();
+                return;
+            }
+            batchesSent.increment();
+            eventsSent.add(events);
+            // Whatever queued up behind this batch goes out now instead of waiting for the tick.
+            pump(true);
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package com.chat.cluster;
+
+import com.zeroc.Ice.Properties;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Static cluster membership: node id to Ice endpoints, read from {@code Chat.Cluster.Member.<id>}
+ * properties and/or the file named by {@code Chat.Cluster.MembersFile}.
+ */
+public class ClusterMembership {
+    private static final String MEMBER_PREFIX = "Chat.Cluster.Member.";
+
+    private final String selfId;
+    private final Map<String, String> endpoints;
+
+    public ClusterMembership(String selfId, Map<String, String> endpoints) {
+        this.selfId = selfId;
+        this.endpoints = Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    public static ClusterMembership fromProperties(Properties properties) throws IOException {
+        Map<String, String> members = new TreeMap<>();
+        String file = properties.getProperty("Chat.Cluster.MembersFile");
+        if (!file.isEmpty()) {
+            Path path = Paths.get(file);
+            java.util.Properties fromFile = new java.util.Properties();
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                fromFile.load(reader);
+            }
+            for (String id : fromFile.stringPropertyNames()) {
+                members.put(id.trim(), fromFile.getProperty(id).trim());
+            }
+        }
+        for (Map.Entry<String, String> entry : properties.getPropertiesForPrefix(MEMBER_PREFIX).entrySet()) {
+            members.put(entry.getKey().substring(MEMBER_PREFIX.length()), entry.getValue().trim());
+        }
+        String selfId = properties.getProperty("Chat.Cluster.NodeId");
+        if (!members.isEmpty() && !members.containsKey(selfId)) {
+            throw new IllegalStateException("Chat.Cluster.NodeId '" + selfId + "' is not a cluster member");
+        }
+        return new ClusterMembership(selfId, members);
+    }
+
+    public boolean isClustered() {
+        return endpoints.size() > 1;
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    public String getSelfEndpoints() {
+        return endpoints.get(selfId);
+    }
+
+    public Map<String, String> getEndpoints() {
+        return endpoints;
+    }
+}
@@ -0,0 +1,58 @@
+package com.chat.cluster;
+
+import Chat.ClusterBatch;
+import Chat.ClusterNode;
+import Chat.SubscriberLocation;
+import Chat.UserInfo;
+import com.chat.core.ChatServiceDelegate;
+import com.chat.domain.UserProfile;
+
+/**
+ * Inter-node servant: receives push batches, answers user lookups and keeps the busy flags of
+ * the users this node owns.
+ */
+public class ClusterNodeI implements ClusterNode {
+    private final ChatServiceDelegate delegate;
+    private final ClusterPushForwarder forwarder;
+    private final ClusterBusyFlags busyFlags;
+
+    public ClusterNodeI(ChatServiceDelegate delegate, ClusterPushForwarder forwarder, ClusterBusyFlags busyFlags) {
+        this.delegate = delegate;
+        this.forwarder = forwarder;
+        this.busyFlags = busyFlags;
+    }
+
+    @Override
+    public void deliver(ClusterBatch batch, com.zeroc.Ice.Current current) {
+        forwarder.receive(batch);
+    }
+
+    @Override
+    public UserInfo lookupUser(String userId, com.zeroc.Ice.Current current) {
+        UserProfile profile = userId != null ? delegate.getUsers().get(userId) : null;
+        if (profile == null) {
+            return new UserInfo("", "");
+        }
+        return new UserInfo(profile.getId(), profile.getDisplayName());
+    }
+
+    @Override
+    public SubscriberLocation[] localSubscribers(com.zeroc.Ice.Current current) {
+        return forwarder.localSnapshot();
+    }
+
+    @Override
+    public boolean claimCall(String userId, String callId, com.zeroc.Ice.Current current) {
+        return busyFlags.claimOwned(userId, callId);
+    }
+
+    @Override
+    public void renewCall(String userId, String callId, com.zeroc.Ice.Current current) {
+        busyFlags.renewOwned(userId, callId);
+    }
+
+    @Override
+    public void releaseCall(String userId, String callId, com.zeroc.Ice.Current current) {
+        busyFlags.releaseOwned(userId, callId);
+    }
+}
@@ -0,0 +1,290 @@
+package com.chat.cluster;
+
+import Chat.CallEvent;
+import Chat.CallSignal;
+import Chat.ClusterBatch;
+import Chat.ClusterNodePrx;
+import Chat.EphemeralBatch;
+import Chat.GroupInfo;
+import Chat.MessagePayload;
+import Chat.ReadReceipt;
+import Chat.RoutedCallEvent;
+import Chat.RoutedCallSignal;
+import Chat.RoutedEphemeral;
+import Chat.RoutedMessage;
+import Chat.RoutedReadReceipt;
+import Chat.SubscriberLocation;
+import com.chat.rpc.ChatMetrics;
+import com.chat.rpc.RealtimePushManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks which node each subscribed user is connected to and forwards pushes for users
+ * on other nodes through batched {@link ClusterLink}s. Incoming batches are delivered
+ * locally only, so an event crosses at most one inter-node hop.
+ *
+ * <p>Once a peer's link has been failing for {@code staleAfterMs} its users are taken as offline;
+ * when the link recovers the peer's subscriber table is pulled again.
+ */
+public class ClusterPushForwarder implements RealtimePushManager.RemoteDelivery {
+    private static final long LINK_CHECK_MS = 1000;
+
+    private final ClusterRouter router;
+    private final RealtimePushManager pushManager;
+    private final Map<String, String> locations = new ConcurrentHashMap<>();
+    private final Map<String, ClusterLink> links = new HashMap<>();
+    private final Set<String> forgotten = ConcurrentHashMap.newKeySet();
+    private final long staleAfterMs;
+    private final ScheduledExecutorService flusher;
+    private final LongAdder unroutable;
+    private volatile RealtimePushManager.PresenceListener presenceListener = (userId, online) -> { };
+
+    public ClusterPushForwarder(
+        ClusterRouter router,
+        RealtimePushManager pushManager,
+        int maxBatchSize,
+        long flushIntervalMs,
+        long staleAfterMs,
+        ChatMetrics metrics
+    ) {
+        this.router = router;
+        this.pushManager = pushManager;
+        this.staleAfterMs = staleAfterMs;
+        LongAdder batches = metrics.counter("chat_cluster_batches_sent_total");
+        LongAdder events = metrics.counter("chat_cluster_events_sent_total");
+        LongAdder failures = metrics.counter("chat_cluster_batch_failures_total");
+        LongAdder dropped = metrics.counter("chat_cluster_events_dropped_total");
+        this.unroutable = metrics.counter("chat_cluster_unroutable_total");
+        for (Map.Entry<String, ClusterNodePrx> peer : router.getPeers().entrySet()) {
+            links.put(peer.getKey(), new ClusterLink(
+                router.getSelfId(), peer.getValue(), maxBatchSize, batches, events, failures, dropped));
+        }
+        metrics.gauge("chat_cluster_remote_subscribers", locations::size);
+        metrics.gauge("chat_cluster_stale_locations", this::staleLocations);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::checkLinks, LINK_CHECK_MS, LINK_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pulls the subscriber tables of the peers that are already running.
+     */
+    public void bootstrap() {
+        for (ClusterNodePrx peer : router.getPeers().values()) {
+            peer.localSubscribersAsync().whenComplete((snapshot, error) -> {
+                if (snapshot != null) {
+                    applyLocations(snapshot);
+                }
+            });
+        }
+    }
+
+    /**
+     * Told when a user connects to or leaves another node.
+     */
+    public void setPresenceListener(RealtimePushManager.PresenceListener presenceListener) {
+        this.presenceListener = presenceListener;
+    }
+
+    public void announce(String userId, boolean online) {
+        SubscriberLocation location = new SubscriberLocation(userId, router.getSelfId(), online);
+        for (ClusterLink link : links.values()) {
+            link.location(location);
+        }
+    }
+
+    public SubscriberLocation[] localSnapshot() {
+        List<SubscriberLocation> snapshot = new ArrayList<>();
+        for (String userId : pushManager.localSubscribers()) {
+            snapshot.add(new SubscriberLocation(userId, router.getSelfId(), true));
+        }
+        return snapshot.toArray(new SubscriberLocation[0]);
+    }
+
+    public void receive(ClusterBatch batch) {
+        for (SubscriberLocation update : applyLocations(batch.locations)) {
+            presenceListener.onPresence(update.userId, update.online);
+        }
+        for (RoutedMessage routed : batch.messages) {
+            pushManager.deliverMessage(Arrays.asList(routed.recipients), routed.payload);
+        }
+        for (RoutedCallEvent routed : batch.callEvents) {
+            pushManager.deliverCallEvent(Arrays.asList(routed.recipients), routed.event);
+        }
+        for (RoutedCallSignal routed : batch.callSignals) {
+            pushManager.deliverCallSignal(Arrays.asList(routed.recipients), routed.signal);
+        }
+        for (RoutedReadReceipt routed : batch.readReceipts) {
+            pushManager.deliverReadReceipt(Arrays.asList(routed.recipients), routed.receipt);
+        }
+        for (GroupInfo group : batch.groups) {
+            pushManager.deliverGroupCreated(group);
+        }
+        for (RoutedEphemeral routed : batch.ephemeral) {
+            pushManager.deliverEphemeral(Arrays.asList(routed.recipients), routed.batch);
+        }
+    }
+
+    @Override
+    public void message(Collection<String> recipients, MessagePayload payload) {
+        for (Map.Entry<ClusterLink, List<String>> entry : byLink(recipients).entrySet()) {
+            entry.getKey().message(entry.getValue(), payload);
+        }
+    }
+
+    @Override
+    public void callEvent(Collection<String> recipients, CallEvent event) {
+        for (Map.Entry<ClusterLink, List<String>> entry : byLink(recipients).entrySet()) {
+            entry.getKey().callEvent(entry.getValue(), event);
+        }
+    }
+
+    @Override
+    public void callSignal(Collection<String> recipients, CallSignal signal) {
+        for (Map.Entry<ClusterLink, List<String>> entry : byLink(recipients).entrySet()) {
+            entry.getKey().callSignal(entry.getValue(), signal);
+        }
+    }
+
+    @Override
+    public void groupCreated(GroupInfo group) {
+        for (ClusterLink link : links.values()) {
+            link.groupCreated(group);
+        }
+    }
+
+    @Override
+    public void readReceipt(Collection<String> recipients, ReadReceipt receipt) {
+        for (Map.Entry<ClusterLink, List<String>> entry : byLink(recipients).entrySet()) {
+            entry.getKey().readReceipt(entry.getValue(), receipt);
+        }
+    }
+
+    /**
+     * Typing and presence only go to users known to be connected somewhere; offline members are
+     * skipped without counting as unroutable.
+     */
+    @Override
+    public void ephemeral(Collection<String> recipients, EphemeralBatch batch) {
+        Map<ClusterLink, List<String>> grouped = new HashMap<>();
+        for (String recipient : recipients) {
+            String nodeId = locations.get(recipient);
+            ClusterLink link = nodeId != null ? links.get(nodeId) : null;
+            if (link != null) {
+                grouped.computeIfAbsent(link, key -> new ArrayList<>()).add(recipient);
+            }
+        }
+        for (Map.Entry<ClusterLink, List<String>> entry : grouped.entrySet()) {
+            entry.getKey().ephemeral(entry.getValue(), batch);
+        }
+    }
+
+    public void shutdown() {
+        flusher.shutdownNow();
+        flushAll();
+    }
+
+    /**
+     * Applies location updates and returns the ones that changed whether a user is online.
+     */
+    private List<SubscriberLocation> applyLocations(SubscriberLocation[] updates) {
+        List<SubscriberLocation> changed = new ArrayList<>();
+        for (SubscriberLocation update : updates) {
+            boolean flipped = update.online
+                ? locations.put(update.userId, update.nodeId) == null
+                : locations.remove(update.userId, update.nodeId);
+            if (flipped) {
+                changed.add(update);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the users of peers that have been unreachable too long and re-reads the table of
+     * those that came back.
+     */
+    private void checkLinks() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ClusterLink> link : links.entrySet()) {
+            String nodeId = link.getKey();
+            long failingSince = link.getValue().failingSince();
+            if (failingSince != 0 && now - failingSince >= staleAfterMs && forgotten.add(nodeId)) {
+                forget(nodeId);
+            } else if (failingSince == 0 && forgotten.remove(nodeId)) {
+                resync(nodeId);
+            }
+        }
+    }
+
+    private void forget(String nodeId) {
+        for (Map.Entry<String, String> location : locations.entrySet()) {
+            if (nodeId.equals(location.getValue()) && locations.remove(location.getKey(), nodeId)) {
+                presenceListener.onPresence(location.getKey(), false);
+            }
+        }
+    }
+
+    private void resync(String nodeId) {
+        router.getPeers().get(nodeId).localSubscribersAsync().whenComplete((snapshot, error) -> {
+            if (snapshot == null) {
+                // Try again on the next check.
+                forgotten.add(nodeId);
+                return;
+            }
+            for (SubscriberLocation update : applyLocations(snapshot)) {
+                presenceListener.onPresence(update.userId, update.online);
+            }
+        });
+    }
+
+    /**
+     * Entries pointing at peers whose link is currently failing.
+     */
+    private long staleLocations() {
+        long stale = 0;
+        for (String nodeId : locations.values()) {
+            ClusterLink link = links.get(nodeId);
+            if (link != null && link.failingSince() != 0) {
+                stale++;
+            }
+        }
+        return stale;
+    }
+
+    private Map<ClusterLink, List<String>> byLink(Collection<String> recipients) {
+        Map<ClusterLink, List<String>> grouped = new HashMap<>();
+        for (String recipient : recipients) {
+            String nodeId = locations.get(recipient);
+            ClusterLink link = nodeId != null ? links.get(nodeId) : null;
+            if (link == null) {
+                unroutable.increment();
+                continue;
+            }
+            grouped.computeIfAbsent(link, key -> new ArrayList<>()).add(recipient);
+        }
+        return grouped;
+    }
+
+    private void flushAll() {
+        for (ClusterLink link : links.values()) {
+            link.flush();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.chat.cluster;
+
+import Chat.ChatSessionPrx;
+import Chat.ClusterNodePrx;
+import Chat.UserInfo;
+import com.chat.domain.UserProfile;
+import com.zeroc.Ice.Communicator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decides which node owns a user, group, conversation or call and hands out proxies to
+ * the other members. Ownership follows a {@link ConsistentHashRing} over the static
+ * membership list.
+ */
+public class ClusterRouter {
+    private static final int MAX_ID_ATTEMPTS = 256;
+    private static final long MISS_TTL_MS = 30000;
+    private static final int MAX_MISSES = 10000;
+
+    private final ClusterMembership membership;
+    private final ConsistentHashRing ring;
+    private final Map<String, ChatSessionPrx> sessions = new HashMap<>();
+    private final Map<String, ClusterNodePrx> nodes = new HashMap<>();
+    // Ids the owner did not know, with when that answer expires; insertion order is expiry order.
+    private final LinkedHashMap<String, Long> misses = new LinkedHashMap<>();
+
+    public ClusterRouter(Communicator communicator, ClusterMembership membership, int virtualNodes, int timeoutMs) {
+        this.membership = membership;
+        this.ring = new ConsistentHashRing(membership.getEndpoints().keySet(), virtualNodes);
+        for (Map.Entry<String, String> member : membership.getEndpoints().entrySet()) {
+            if (member.getKey().equals(membership.getSelfId())) {
+                continue;
+            }
+            String endpoints = member.getValue();
+            sessions.put(member.getKey(), ChatSessionPrx.uncheckedCast(
+                communicator.stringToProxy("ChatSession:" + endpoints)).ice_invocationTimeout(timeoutMs));
+            nodes.put(member.getKey(), ClusterNodePrx.uncheckedCast(
+                communicator.stringToProxy("ClusterNode:" + endpoints)).ice_invocationTimeout(timeoutMs));
+        }
+    }
+
+    public String getSelfId() {
+        return membership.getSelfId();
+    }
+
+    public Map<String, ClusterNodePrx> getPeers() {
+        return nodes;
+    }
+
+    public String ownerOf(String key) {
+        return ring.ownerOf(key);
+    }
+
+    public boolean isLocal(String key) {
+        return key == null || membership.getSelfId().equals(ring.ownerOf(key));
+    }
+
+    /**
+     * Key that places both directions of a direct conversation on one node. A group is keyed
+     * by its own id, which is always owned by the node that created and stores it.
+     */
+    public static String conversationKey(String userId, String targetId, String targetType) {
+        if ("group".equals(targetType)) {
+            return targetId;
+        }
+        String a = userId != null ? userId : "";
+        String b = targetId != null ? targetId : "";
+        return a.compareTo(b) <= 0 ? "dm:" + a + "|" + b : "dm:" + b + "|" + a;
+    }
+
+    /**
+     * Mints a random id that this node owns, so new users, groups and calls never need a
+     * cross-node hop at creation time. Takes about one try per cluster member.
+     */
+    public String newLocalId() {
+        String id = UUID.randomUUID().toString();
+        for (int attempt = 0; attempt < MAX_ID_ATTEMPTS && !isLocal(id); attempt++) {
+            id = UUID.randomUUID().toString();
+        }
+        return id;
+    }
+
+    public ChatSessionPrx sessionOn(String nodeId) {
+        return sessions.get(nodeId);
+    }
+
+    public ChatSessionPrx ownerSession(String key) {
+        return sessions.get(ring.ownerOf(key));
+    }
+
+    /**
+     * Resolves a user registered on another node; returns {@code null} when nobody knows it.
+     * Unknown ids are remembered for a while, so unknown or made-up ids do not cost a peer call each.
+     */
+    public UserProfile lookupUser(String userId) {
+        ClusterNodePrx owner = nodes.get(ring.ownerOf(userId));
+        if (owner == null || recentlyMissed(userId)) {
+            return null;
+        }
+        try {
+            UserInfo info = owner.lookupUser(userId);
+            if (info == null || info.id == null || info.id.isEmpty()) {
+                rememberMiss(userId);
+                return null;
+            }
+            return new UserProfile(info.id, info.displayName, "", 0L);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            return null;
+        }
+    }
+
+    private synchronized boolean recentlyMissed(String userId) {
+        long now = System.currentTimeMillis();
+        Iterator<Long> expiries = misses.values().iterator();
+        while (expiries.hasNext() && expiries.next() <= now) {
+            expiries.remove();
+        }
+        return misses.containsKey(userId);
+    }
+
+    private synchronized void rememberMiss(String userId) {
+        misses.remove(userId);
+        misses.put(userId, System.currentTimeMillis() + MISS_TTL_MS);
+        if (misses.size() > MAX_MISSES) {
+            Iterator<String> oldest = misses.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
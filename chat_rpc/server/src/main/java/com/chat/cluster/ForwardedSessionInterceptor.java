@@ -0,0 +1,54 @@
+package com.chat.cluster;
+
+import com.chat.core.ChatServiceDelegate;
+import com.chat.domain.UserProfile;
+import com.zeroc.Ice.DispatchInterceptor;
+import com.zeroc.Ice.OutputStream;
+import com.zeroc.Ice.Request;
+import com.zeroc.Ice.UserException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Sits in front of the {@code ChatSession} on the internal cluster adapter. A forwarding node
+ * sends the caller's profile in the request context, and it is cached here before dispatch, so
+ * the owner does not call back into the forwarding node to resolve the sender. Only peers reach
+ * this adapter, so clients cannot vouch for themselves.
+ */
+public final class ForwardedSessionInterceptor extends DispatchInterceptor {
+    static final String SENDER_ID = "chat.sender.id";
+    static final String SENDER_NAME = "chat.sender.name";
+
+    private final com.zeroc.Ice.Object servant;
+    private final ChatServiceDelegate delegate;
+
+    public ForwardedSessionInterceptor(com.zeroc.Ice.Object servant, ChatServiceDelegate delegate) {
+        this.servant = servant;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Context naming {@code sender} for a forwarded call; empty when the profile is not known.
+     */
+    static Map<String, String> senderContext(UserProfile sender) {
+        if (sender == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> context = new HashMap<>(2);
+        context.put(SENDER_ID, sender.getId());
+        context.put(SENDER_NAME, sender.getDisplayName() != null ? sender.getDisplayName() : "");
+        return context;
+    }
+
+    @Override
+    public CompletionStage<OutputStream> dispatch(Request request) throws UserException {
+        Map<String, String> context = request.getCurrent().ctx;
+        String id = context != null ? context.get(SENDER_ID) : null;
+        if (id != null && !id.isEmpty()) {
+            delegate.rememberRemoteUser(new UserProfile(id, context.getOrDefault(SENDER_NAME, ""), "", 0L));
+        }
+        return servant.ice_dispatch(request);
+    }
+}
@@ -0,0 +1,373 @@
+package com.chat.cluster;
+
+import Chat.CallEvent;
+import Chat.CallRejectedException;
+import Chat.ChatSession;
+import Chat.ChatSessionPrx;
+import Chat.GroupInfo;
+import Chat.HistoryPage;
+import Chat.MessagePayload;
+import Chat.OverloadedException;
+import Chat.RealtimePushPrx;
+import Chat.SessionInfo;
+import Chat.UnreadEntry;
+import Chat.UserInfo;
+import com.chat.domain.UserProfile;
+import com.chat.rpc.ChatSessionI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Client-facing servant on a clustered node. Operations on data owned by this node run on the
+ * local {@link ChatSessionI}; everything else is forwarded to the owner's cluster endpoint,
+ * where it executes (and fans out) exactly as a local call would. Push subscriptions always
+ * stay on the node holding the client's WebSocket. Forwarded calls carry the caller's profile
+ * (see {@link ForwardedSessionInterceptor}) so the owner does not have to call back to resolve it.
+ */
+public class RoutingChatSession implements ChatSession {
+    private static final int RETRY_AFTER_MS = 1000;
+
+    private final ChatSessionI local;
+    private final ClusterRouter router;
+    private final Function<String, UserProfile> knownUsers;
+
+    public RoutingChatSession(ChatSessionI local, ClusterRouter router, Function<String, UserProfile> knownUsers) {
+        this.local = local;
+        this.router = router;
+        this.knownUsers = knownUsers;
+    }
+
+    @Override
+    public SessionInfo registerUser(String desiredName, com.zeroc.Ice.Current current) throws OverloadedException {
+        return local.registerUser(desiredName, current);
+    }
+
+    @Override
+    public SessionInfo resumeSession(String userId, String token, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        if (router.isLocal(userId)) {
+            return local.resumeSession(userId, token, current);
+        }
+        return router.ownerSession(userId).resumeSession(userId, token);
+    }
+
+    @Override
+    public UserInfo[] findUsersByName(String displayName, com.zeroc.Ice.Current current) throws OverloadedException {
+        List<UserInfo> matches = new ArrayList<>(Arrays.asList(local.findUsersByName(displayName, current)));
+        for (Map.Entry<String, ?> peer : router.getPeers().entrySet()) {
+            try {
+                matches.addAll(Arrays.asList(router.sessionOn(peer.getKey()).findUsersByName(displayName)));
+            } catch (com.zeroc.Ice.LocalException ex) {
+                // A node that is down simply contributes no matches.
+            }
+        }
+        return matches.toArray(new UserInfo[0]);
+    }
+
+    @Override
+    public GroupInfo createGroup(String userId, String name, String[] members, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        return local.createGroup(userId, name, members, current);
+    }
+
+    @Override
+    public void sendText(
+        String userId,
+        String toId,
+        String toType,
+        String text,
+        String clientMsgId,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, toId, toType);
+        if (router.isLocal(key)) {
+            local.sendText(userId, toId, toType, text, clientMsgId, current);
+            return;
+        }
+        try {
+            owner(key, userId).sendText(userId, toId, toType, text, clientMsgId);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("message", key);
+        }
+    }
+
+    @Override
+    public void sendAudio(
+        String userId,
+        String toId,
+        String toType,
+        byte[] audioData,
+        String mimeType,
+        String clientMsgId,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, toId, toType);
+        if (router.isLocal(key)) {
+            local.sendAudio(userId, toId, toType, audioData, mimeType, clientMsgId, current);
+            return;
+        }
+        try {
+            owner(key, userId).sendAudio(userId, toId, toType, audioData, mimeType, clientMsgId);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("audio", key);
+        }
+    }
+
+    @Override
+    public MessagePayload[] getHistory(String userId, String targetId, String targetType, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            return local.getHistory(userId, targetId, targetType, current);
+        }
+        try {
+            return owner(key, userId).getHistory(userId, targetId, targetType);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("history", key);
+        }
+    }
+
+    @Override
+    public MessagePayload[] getHistoryPage(
+        String userId,
+        String targetId,
+        String targetType,
+        long beforeTs,
+        String beforeId,
+        int limit,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            return local.getHistoryPage(userId, targetId, targetType, beforeTs, beforeId, limit, current);
+        }
+        try {
+            return owner(key, userId).getHistoryPage(userId, targetId, targetType, beforeTs, beforeId, limit);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("history", key);
+        }
+    }
+
+    @Override
+    public HistoryPage getHistoryCompact(
+        String userId,
+        String targetId,
+        String targetType,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            return local.getHistoryCompact(userId, targetId, targetType, current);
+        }
+        try {
+            return owner(key, userId).getHistoryCompact(userId, targetId, targetType);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("history", key);
+        }
+    }
+
+    @Override
+    public HistoryPage getHistoryPageCompact(
+        String userId,
+        String targetId,
+        String targetType,
+        long beforeTs,
+        String beforeId,
+        int limit,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            return local.getHistoryPageCompact(userId, targetId, targetType, beforeTs, beforeId, limit, current);
+        }
+        try {
+            return owner(key, userId).getHistoryPageCompact(userId, targetId, targetType, beforeTs, beforeId, limit);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("history", key);
+        }
+    }
+
+    @Override
+    public void markRead(
+        String userId,
+        String targetId,
+        String targetType,
+        long upToSeq,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            local.markRead(userId, targetId, targetType, upToSeq, current);
+            return;
+        }
+        try {
+            owner(key, userId).markRead(userId, targetId, targetType, upToSeq);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("read", key);
+        }
+    }
+
+    /**
+     * Read cursors live with their conversations, so the summary is gathered from every node.
+     */
+    @Override
+    public UnreadEntry[] getUnreadSummary(String userId, com.zeroc.Ice.Current current) throws OverloadedException {
+        List<UnreadEntry> entries = new ArrayList<>(Arrays.asList(local.getUnreadSummary(userId, current)));
+        for (Map.Entry<String, ?> peer : router.getPeers().entrySet()) {
+            try {
+                entries.addAll(Arrays.asList(router.sessionOn(peer.getKey()).getUnreadSummary(userId)));
+            } catch (com.zeroc.Ice.LocalException ex) {
+                // Conversations on a node that is down are left out until it comes back.
+            }
+        }
+        return entries.toArray(new UnreadEntry[0]);
+    }
+
+    /**
+     * Runs where the conversation lives, since only that node knows the group's members.
+     */
+    @Override
+    public void setTyping(
+        String userId,
+        String targetId,
+        String targetType,
+        boolean typing,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            local.setTyping(userId, targetId, targetType, typing, current);
+            return;
+        }
+        try {
+            owner(key, userId).setTyping(userId, targetId, targetType, typing);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("typing", key);
+        }
+    }
+
+    @Override
+    public long subscribePush(String userId, RealtimePushPrx client, com.zeroc.Ice.Current current) {
+        return local.subscribePush(userId, client, current);
+    }
+
+    @Override
+    public void unsubscribePush(String userId, RealtimePushPrx client, com.zeroc.Ice.Current current) {
+        local.unsubscribePush(userId, client, current);
+    }
+
+    /**
+     * The delivery window lives on the node holding the client's push subscription, which is this one.
+     */
+    @Override
+    public void ackPush(String userId, long upToDeliverySeq, com.zeroc.Ice.Current current) {
+        local.ackPush(userId, upToDeliverySeq, current);
+    }
+
+    @Override
+    public CallEvent startCall(String userId, String targetId, String targetType, com.zeroc.Ice.Current current)
+        throws OverloadedException, CallRejectedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            return local.startCall(userId, targetId, targetType, current);
+        }
+        try {
+            return owner(key, userId).startCall(userId, targetId, targetType);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("call", key);
+        }
+    }
+
+    @Override
+    public CallEvent acceptCall(String userId, String callId, com.zeroc.Ice.Current current)
+        throws OverloadedException, CallRejectedException {
+        if (router.isLocal(callId)) {
+            return local.acceptCall(userId, callId, current);
+        }
+        try {
+            return owner(callId, userId).acceptCall(userId, callId);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("call", callId);
+        }
+    }
+
+    @Override
+    public CallEvent rejectCall(String userId, String callId, com.zeroc.Ice.Current current)
+        throws OverloadedException, CallRejectedException {
+        if (router.isLocal(callId)) {
+            return local.rejectCall(userId, callId, current);
+        }
+        try {
+            return owner(callId, userId).rejectCall(userId, callId);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("call", callId);
+        }
+    }
+
+    @Override
+    public CallEvent endCall(String userId, String targetId, String targetType, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        String key = ClusterRouter.conversationKey(userId, targetId, targetType);
+        if (router.isLocal(key)) {
+            return local.endCall(userId, targetId, targetType, current);
+        }
+        try {
+            return owner(key, userId).endCall(userId, targetId, targetType);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw unavailable("call", key);
+        }
+    }
+
+    @Override
+    public void sendOffer(String userId, String callId, String sdp, com.zeroc.Ice.Current current)
+        throws CallRejectedException {
+        if (router.isLocal(callId)) {
+            local.sendOffer(userId, callId, sdp, current);
+            return;
+        }
+        try {
+            owner(callId, userId).sendOffer(userId, callId, sdp);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw new CallRejectedException("owner node " + router.ownerOf(callId) + " unavailable");
+        }
+    }
+
+    @Override
+    public void sendAnswer(String userId, String callId, String sdp, com.zeroc.Ice.Current current)
+        throws CallRejectedException {
+        if (router.isLocal(callId)) {
+            local.sendAnswer(userId, callId, sdp, current);
+            return;
+        }
+        try {
+            owner(callId, userId).sendAnswer(userId, callId, sdp);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw new CallRejectedException("owner node " + router.ownerOf(callId) + " unavailable");
+        }
+    }
+
+    @Override
+    public void sendCandidate(String userId, String callId, String candidate, com.zeroc.Ice.Current current)
+        throws CallRejectedException {
+        if (router.isLocal(callId)) {
+            local.sendCandidate(userId, callId, candidate, current);
+            return;
+        }
+        try {
+            owner(callId, userId).sendCandidate(userId, callId, candidate);
+        } catch (com.zeroc.Ice.LocalException ex) {
+            throw new CallRejectedException("owner node " + router.ownerOf(callId) + " unavailable");
+        }
+    }
+
+    private ChatSessionPrx owner(String key, String userId) {
+        return router.ownerSession(key).ice_context(ForwardedSessionInterceptor.senderContext(knownUsers.apply(userId)));
+    }
+
+    private OverloadedException unavailable(String operation, String key) {
+        return new OverloadedException(operation, "owner node " + router.ownerOf(key) + " unavailable", RETRY_AFTER_MS);
+    }
+}
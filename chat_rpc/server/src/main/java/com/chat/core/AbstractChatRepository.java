@@ -0,0 +1,467 @@
+package com.chat.core;
+
+import com.chat.domain.Message;
+import com.chat.domain.UserProfile;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parts every file-based backend shares: the append-only user log, voice notes stored as
+ * plain files under {@code audio/} so the HTTP server can stream them, and the compressed
+ * {@link ArchiveStore} that retention compaction moves old history into. Backends only
+ * manage their hot tier.
+ *
+ * <p>Locks held across file IO are {@link ReentrantLock}s, not monitors: on JDK 21 a virtual
+ * thread that blocks inside {@code synchronized} pins its carrier thread. Monitors remain only
+ * around short in-memory sections.
+ */
+abstract class AbstractChatRepository implements ChatRepository {
+    private static final int MAX_PAGE_SIZE = 500;
+
+    protected final Path dataDir;
+    protected final Path audioDir;
+    private final Path usersFile;
+    private final ReentrantLock usersLock = new ReentrantLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final String audioBaseUrl;
+    private final ArchiveStore archive;
+
+    protected AbstractChatRepository(Path dataDir, String audioBaseUrl) throws IOException {
+        this.dataDir = dataDir;
+        this.audioDir = dataDir.resolve("audio");
+        this.usersFile = dataDir.resolve("users.log");
+        this.audioBaseUrl = audioBaseUrl;
+        Files.createDirectories(dataDir);
+        Files.createDirectories(audioDir);
+        this.archive = new ArchiveStore(dataDir.resolve("archive"));
+    }
+
+    /**
+     * Hot messages grouped by {@link #conversationKey}, each list oldest first.
+     */
+    protected abstract Map<String, List<Message>> hotConversations();
+
+    /**
+     * Drops the given messages from the hot tier, durably.
+     */
+    protected abstract void removeHot(Set<String> messageIds) throws IOException;
+
+    /**
+     * Files making up the hot tier, for {@link #storageReport()}.
+     */
+    protected abstract List<Path> hotFiles();
+
+    /**
+     * Walks the conversation newest first, hot tier then archive. Messages stamped with the
+     * cursor's millisecond are stored in arrival order, so those met before the cursor message
+     * itself are newer than it and skipped; the rest of that millisecond belongs to the page.
+     */
+    @Override
+    public List<Message> getHistoryPage(
+        String userId,
+        String targetId,
+        String targetType,
+        long beforeTs,
+        String beforeId,
+        int limit
+    ) throws IOException {
+        if (!"user".equals(targetType) && !"group".equals(targetType)) {
+            return new ArrayList<>();
+        }
+        long before = beforeTs > 0 ? beforeTs : Long.MAX_VALUE;
+        PageCursor cursor = new PageCursor(before, beforeTs > 0 ? beforeId : null);
+        int wanted = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<Message> newestFirst = new ArrayList<>(wanted);
+        Set<String> seen = new HashSet<>();
+
+        List<Message> hot = getHistory(userId, targetId, targetType);
+        for (int i = hot.size() - 1; i >= 0 && newestFirst.size() < wanted; i--) {
+            Message message = hot.get(i);
+            if (cursor.precedes(message) && seen.add(message.getId())) {
+                newestFirst.add(message);
+            }
+        }
+
+        List<ArchiveStore.Member> members = archive.members(conversationKey(userId, targetId, targetType));
+        for (int m = members.size() - 1; m >= 0 && newestFirst.size() < wanted; m--) {
+            ArchiveStore.Member member = members.get(m);
+            if (member.minTs > before) {
+                continue;
+            }
+            List<Message> archived = archive.read(member);
+            for (int i = archived.size() - 1; i >= 0 && newestFirst.size() < wanted; i--) {
+                Message message = archived.get(i);
+                if (cursor.precedes(message) && seen.add(message.getId())) {
+                    newestFirst.add(resolveAudio(message));
+                }
+            }
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    /**
+     * Expires history past the policy's age/count limits (reclaiming its audio files) and moves
+     * surviving messages older than the hot horizon into a new archive segment. Archive members
+     * are only rewritten for conversations that actually lose archived messages.
+     */
+    @Override
+    public CompactionResult compact(RetentionPolicy policy, long now) throws IOException {
+        compactionLock.lock();
+        try {
+            Map<String, List<Message>> hot = hotConversations();
+            Set<String> keys = new HashSet<>(hot.keySet());
+            keys.addAll(archive.keys());
+
+            Map<String, List<Message>> toArchive = new LinkedHashMap<>();
+            List<ArchiveStore.Member> replaced = new ArrayList<>();
+            Set<String> leavingHot = new HashSet<>();
+            List<Message> expired = new ArrayList<>();
+            long hotCutoff = policy.getHotAgeMs() > 0 ? now - policy.getHotAgeMs() : Long.MIN_VALUE;
+
+            for (String key : keys) {
+                RetentionPolicy.Limits limits = policy.limitsFor(key.startsWith("group:") ? "group" : "user");
+                long ageCutoff = limits.getMaxAgeMs() > 0 ? now - limits.getMaxAgeMs() : Long.MIN_VALUE;
+                List<Message> hotMessages = hot.getOrDefault(key, Collections.emptyList());
+                List<ArchiveStore.Member> members = archive.members(key);
+
+                int total = hotMessages.size();
+                boolean archiveExpires = false;
+                for (ArchiveStore.Member member : members) {
+                    total += member.count;
+                    archiveExpires |= member.minTs < ageCutoff;
+                }
+                int excess = limits.getMaxMessages() > 0 ? Math.max(0, total - limits.getMaxMessages()) : 0;
+                archiveExpires |= excess > 0 && !members.isEmpty();
+
+                List<Message> candidates = new ArrayList<>();
+                Set<String> hotIds = new HashSet<>();
+                if (archiveExpires) {
+                    for (ArchiveStore.Member member : members) {
+                        candidates.addAll(archive.read(member));
+                    }
+                    replaced.addAll(members);
+                }
+                for (Message message : hotMessages) {
+                    hotIds.add(message.getId());
+                    candidates.add(message);
+                }
+                candidates.sort((a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+
+                Set<String> seen = new HashSet<>();
+                int dropped = 0;
+                List<Message> archivedHere = new ArrayList<>();
+                for (Message message : candidates) {
+                    if (!seen.add(message.getId())) {
+                        continue;
+                    }
+                    boolean inHot = hotIds.contains(message.getId());
+                    if (dropped < excess || message.getTimestamp() < ageCutoff) {
+                        dropped++;
+                        expired.add(message);
+                        if (inHot) {
+                            leavingHot.add(message.getId());
+                        }
+                    } else if (!inHot) {
+                        archivedHere.add(message);
+                    } else if (message.getTimestamp() < hotCutoff) {
+                        archivedHere.add(message);
+                        leavingHot.add(message.getId());
+                    }
+                }
+                if (!archivedHere.isEmpty()) {
+                    toArchive.put(key, archivedHere);
+                }
+            }
+
+            archive.commit(archive.writeSegment(toArchive), replaced);
+            if (!leavingHot.isEmpty()) {
+                removeHot(leavingHot);
+            }
+
+            int audioFiles = 0;
+            long audioBytes = 0;
+            for (Message message : expired) {
+                Path file = audioFile(message);
+                if (file != null && Files.exists(file)) {
+                    long size = Files.size(file);
+                    if (Files.deleteIfExists(file)) {
+                        audioFiles++;
+                        audioBytes += size;
+                    }
+                }
+            }
+            int archived = 0;
+            for (Map.Entry<String, List<Message>> entry : toArchive.entrySet()) {
+                for (Message message : entry.getValue()) {
+                    archived += leavingHot.contains(message.getId()) ? 1 : 0;
+                }
+            }
+            return new CompactionResult(archived, expired.size(), audioFiles, audioBytes);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    @Override
+    public StorageReport storageReport() throws IOException {
+        long hotMessages = 0;
+        for (List<Message> conversation : hotConversations().values()) {
+            hotMessages += conversation.size();
+        }
+        long[] hot = measure(hotFiles());
+        long[] cold = measure(listFiles(archive.getDir()));
+        long[] audio = measure(listFiles(audioDir));
+        long[] users = measure(Collections.singletonList(usersFile));
+        return new StorageReport()
+            .add("hot", hot[0], hot[1], hotMessages)
+            .add("archive", cold[0], cold[1], archive.messageCount())
+            .add("audio", audio[0], audio[1], 0)
+            .add("users", users[0], users[1], 0);
+    }
+
+    @Override
+    public void saveUser(UserProfile profile) throws IOException {
+        usersLock.lock();
+        try (FileChannel channel = LogChatRepository.openAppend(usersFile)) {
+            LogChatRepository.append(channel, profile.toJSON());
+        } finally {
+            usersLock.unlock();
+        }
+    }
+
+    /**
+     * A log still holding plaintext session tokens from before they were hashed is rewritten
+     * with hashes only.
+     */
+    @Override
+    public List<UserProfile> loadUsers() throws IOException {
+        if (Files.notExists(usersFile)) {
+            return new ArrayList<>();
+        }
+        Map<String, UserProfile> latest = new LinkedHashMap<>();
+        boolean plaintextTokens = false;
+        usersLock.lock();
+        try {
+            for (String line : Files.readAllLines(usersFile, StandardCharsets.UTF_8)) {
+                JSONObject record = LogChatRepository.parse(line);
+                if (record == null) {
+                    continue;
+                }
+                plaintextTokens |= record.has("token");
+                try {
+                    UserProfile profile = UserProfile.fromJSON(record);
+                    latest.put(profile.getId(), profile);
+                } catch (JSONException ex) {
+                    // An incomplete record; the rest of the log is intact.
+                }
+            }
+            if (plaintextTokens) {
+                Path rewritten = usersFile.resolveSibling("users.log.rewrite");
+                try (FileChannel out = FileChannel.open(
+                    rewritten, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (UserProfile profile : latest.values()) {
+                        LogChatRepository.append(out, profile.toJSON());
+                    }
+                    out.force(true);
+                }
+                Files.move(rewritten, usersFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            usersLock.unlock();
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    @Override
+    public Path getAudioDir() {
+        return audioDir;
+    }
+
+    @Override
+    public String saveAudio(byte[] audio, String mimeType) throws IOException {
+        String extension = mimeTypeToExtension(mimeType);
+        String fileName = String.format("audio-%s.%s", UUID.randomUUID(), extension);
+        Path filePath = audioDir.resolve(fileName);
+        Files.write(filePath, audio);
+        if (audioBaseUrl != null) {
+            return audioBaseUrl + fileName;
+        }
+        String base64 = Base64.getEncoder().encodeToString(audio);
+        String resolvedMime = mimeType != null ? mimeType : "audio/webm";
+        return String.format("data:%s;base64,%s", resolvedMime, base64);
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Key shared by both directions of a direct conversation, or by all messages of a group.
+     */
+    protected static String conversationKey(String userId, String targetId, String targetType) {
+        if ("group".equals(targetType)) {
+            return "group:" + targetId;
+        }
+        return userId.compareTo(targetId) <= 0 ? "dm:" + userId + "|" + targetId : "dm:" + targetId + "|" + userId;
+    }
+
+    protected static String conversationKey(Message message) {
+        return conversationKey(message.getFrom(), message.getTo(), message.getToType());
+    }
+
+    /**
+     * Parses a stored message, re-pointing audio at the current media URL (or a data URI).
+     */
+    protected Message messageFromJSON(JSONObject obj) throws IOException {
+        return resolveAudio(Message.fromJSON(obj));
+    }
+
+    /**
+     * Re-points a stored voice note at the current media URL (or a data URI); other kinds pass through.
+     */
+    protected Message resolveAudio(Message message) throws IOException {
+        if (!"audio".equals(message.getKind())) {
+            return message;
+        }
+        return Message.audio(
+            message.getId(),
+            message.getFrom(),
+            message.getFromName(),
+            message.getTo(),
+            message.getToType(),
+            resolveMediaRef(message.getMediaPath(), message.getMediaMime()),
+            message.getMediaMime(),
+            message.getTimestamp()
+        ).withSeq(message.getSeq());
+    }
+
+    /**
+     * The file under {@code audio/} a voice note points to, or {@code null} for inline data URIs.
+     */
+    private Path audioFile(Message message) {
+        String stored = message.getMediaPath();
+        if (!"audio".equals(message.getKind()) || stored == null || stored.startsWith("data:")) {
+            return null;
+        }
+        String fileName = stored.substring(stored.lastIndexOf('/') + 1);
+        if (fileName.isEmpty() || fileName.startsWith(".")) {
+            return null;
+        }
+        Path file = audioDir.resolve(fileName).normalize();
+        return file.startsWith(audioDir.normalize()) ? file : null;
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        if (Files.notExists(dir)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static long[] measure(List<Path> files) throws IOException {
+        long count = 0;
+        long bytes = 0;
+        for (Path file : files) {
+            if (Files.exists(file)) {
+                count++;
+                bytes += Files.size(file);
+            }
+        }
+        return new long[] {count, bytes};
+    }
+
+    private String resolveMediaRef(String stored, String mimeType) throws IOException {
+        if (stored == null || stored.startsWith("data:")) {
+            return stored;
+        }
+        String fileName = stored.substring(stored.lastIndexOf('/') + 1);
+        Path candidate = audioDir.resolve(fileName).normalize();
+        if (audioBaseUrl != null && Files.exists(candidate)) {
+            return audioBaseUrl + fileName;
+        }
+        if (!stored.contains("://")) {
+            Path legacy = Paths.get(stored);
+            if (!Files.exists(legacy)) {
+                legacy = dataDir.resolve(stored).normalize();
+            }
+            if (Files.exists(legacy)) {
+                candidate = legacy;
+            }
+        }
+        if (Files.exists(candidate)) {
+            byte[] bytes = Files.readAllBytes(candidate);
+            return String.format("data:%s;base64,%s", mimeType, Base64.getEncoder().encodeToString(bytes));
+        }
+        return stored;
+    }
+
+    private String mimeTypeToExtension(String mimeType) {
+        if (mimeType == null) {
+            return "webm";
+        }
+        if (mimeType.contains("/")) {
+            String subtype = mimeType.substring(mimeType.indexOf('/') + 1);
+            int params = subtype.indexOf(';');
+            return (params >= 0 ? subtype.substring(0, params) : subtype).trim();
+        }
+        return "bin";
+    }
+
+    /**
+     * Position of a history page request: before the message {@code id} stamped {@code ts}, or
+     * strictly before {@code ts} when there is no id.
+     */
+    private static final class PageCursor {
+        private final long ts;
+        private final String id;
+        private boolean passed;
+
+        PageCursor(long ts, String id) {
+            this.ts = ts;
+            this.id = id == null ? "" : id;
+        }
+
+        /**
+         * Whether {@code message}, met while walking newest first, belongs before the cursor.
+         */
+        boolean precedes(Message message) {
+            long timestamp = message.getTimestamp();
+            if (timestamp != ts) {
+                return timestamp < ts;
+            }
+            if (id.isEmpty()) {
+                return false;
+            }
+            if (passed) {
+                return true;
+            }
+            if (id.equals(message.getId())) {
+                passed = true;
+            }
+            return false;
+        }
+    }
+}
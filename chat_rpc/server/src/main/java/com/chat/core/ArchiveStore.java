@@ -0,0 +1,259 @@
+package com.chat.core;
+
+import com.chat.domain.Message;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Cold tier: GZIP segment files under {@code archive/}. Each compaction pass writes one segment
+ * holding one gzip member per conversation, so a history page decompresses only the members
+ * of the conversation it needs. {@code archive/index.json} maps conversations to members and
+ * is replaced atomically; segments are deleted once no member in them is live.
+ */
+class ArchiveStore {
+    static final class Member {
+        final String segment;
+        final String key;
+        final long offset;
+        final int length;
+        final long minTs;
+        final long maxTs;
+        final int count;
+
+        Member(String segment, String key, long offset, int length, long minTs, long maxTs, int count) {
+            this.segment = segment;
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.minTs = minTs;
+            this.maxTs = maxTs;
+            this.count = count;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("segment", segment);
+            json.put("key", key);
+            json.put("offset", offset);
+            json.put("length", length);
+            json.put("minTs", minTs);
+            json.put("maxTs", maxTs);
+            json.put("count", count);
+            return json;
+        }
+
+        static Member fromJSON(JSONObject json) {
+            return new Member(
+                json.getString("segment"),
+                json.getString("key"),
+                json.getLong("offset"),
+                json.getInt("length"),
+                json.getLong("minTs"),
+                json.getLong("maxTs"),
+                json.getInt("count")
+            );
+        }
+    }
+
+    private final Path dir;
+    private final Path indexFile;
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private volatile Map<String, List<Member>> byKey = Collections.emptyMap();
+
+    ArchiveStore(Path dir) throws IOException {
+        this.dir = dir;
+        this.indexFile = dir.resolve("index.json");
+        Files.createDirectories(dir);
+        if (Files.exists(indexFile)) {
+            JSONArray array = new JSONArray(new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8));
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                members.add(Member.fromJSON(array.getJSONObject(i)));
+            }
+            byKey = group(members);
+        }
+    }
+
+    Set<String> keys() {
+        return byKey.keySet();
+    }
+
+    /**
+     * Members of a conversation, oldest first.
+     */
+    List<Member> members(String key) {
+        return byKey.getOrDefault(key, Collections.emptyList());
+    }
+
+    /**
+     * Decompresses one member. Messages keep the media reference they were archived with.
+     */
+    List<Message> read(Member member) throws IOException {
+        segmentsLock.readLock().lock();
+        try (FileChannel channel = FileChannel.open(dir.resolve(member.segment), StandardOpenOption.READ)) {
+            ByteBuffer compressed = ByteBuffer.allocate(member.length);
+            while (compressed.hasRemaining() && channel.read(compressed, member.offset + compressed.position()) > 0) {
+                // keep reading until the whole member is in memory
+            }
+            compressed.flip();
+            List<Message> messages = new ArrayList<>(member.count);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(compressed.array(), 0, compressed.limit())),
+                StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        messages.add(Message.fromJSON(new JSONObject(line)));
+                    }
+                }
+            }
+            return messages;
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a new segment (one gzip member per conversation) and syncs it to disk. The members
+     * only become visible once passed to {@link #commit}.
+     */
+    List<Member> writeSegment(Map<String, List<Message>> conversations) throws IOException {
+        List<Member> written = new ArrayList<>();
+        if (conversations.isEmpty()) {
+            return written;
+        }
+        String segment = String.format("segment-%013d-%s.gz", System.currentTimeMillis(), Long.toHexString(System.nanoTime()));
+        try (FileChannel channel = FileChannel.open(
+            dir.resolve(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long offset = 0;
+            for (Map.Entry<String, List<Message>> entry : conversations.entrySet()) {
+                List<Message> messages = entry.getValue();
+                if (messages.isEmpty()) {
+                    continue;
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                long minTs = Long.MAX_VALUE;
+                long maxTs = Long.MIN_VALUE;
+                try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+                    for (Message message : messages) {
+                        writer.write(message.toJSON().toString());
+                        writer.write('\n');
+                        minTs = Math.min(minTs, message.getTimestamp());
+                        maxTs = Math.max(maxTs, message.getTimestamp());
+                    }
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                written.add(new Member(segment, entry.getKey(), offset, bytes.size(), minTs, maxTs, messages.size()));
+                offset += bytes.size();
+            }
+            channel.force(true);
+        }
+        return written;
+    }
+
+    /**
+     * Publishes {@code added}, drops {@code removed} and deletes segments left without live members.
+     */
+    void commit(Collection<Member> added, Collection<Member> removed) throws IOException {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Set<Member> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        dead.addAll(removed);
+        List<Member> live = new ArrayList<>();
+        for (List<Member> members : byKey.values()) {
+            for (Member member : members) {
+                if (!dead.contains(member)) {
+                    live.add(member);
+                }
+            }
+        }
+        live.addAll(added);
+
+        JSONArray array = new JSONArray();
+        for (Member member : live) {
+            array.put(member.toJSON());
+        }
+        Path tmp = dir.resolve("index.json.tmp");
+        try (FileChannel channel = FileChannel.open(
+            tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            writer.write(array.toString());
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        byKey = group(live);
+
+        Set<String> liveSegments = new HashSet<>();
+        for (Member member : live) {
+            liveSegments.add(member.segment);
+        }
+        segmentsLock.writeLock().lock();
+        try {
+            for (Member member : removed) {
+                if (!liveSegments.contains(member.segment)) {
+                    Files.deleteIfExists(dir.resolve(member.segment));
+                }
+            }
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+    }
+
+    long messageCount() {
+        long count = 0;
+        for (List<Member> members : byKey.values()) {
+            for (Member member : members) {
+                count += member.count;
+            }
+        }
+        return count;
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    private static Map<String, List<Member>> group(List<Member> members) {
+        Map<String, List<Member>> grouped = new HashMap<>();
+        for (Member member : members) {
+            grouped.computeIfAbsent(member.key, key -> new ArrayList<>()).add(member);
+        }
+        for (List<Member> list : grouped.values()) {
+            list.sort((a, b) -> Long.compare(a.minTs, b.minTs));
+        }
+        return grouped;
+    }
+}
@@ -0,0 +1,373 @@
+package com.chat.core;
+
+import com.chat.domain.UserProfile;
+import com.chat.rpc.dto.CallEventData;
+import com.chat.rpc.dto.CallSignalData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory registry of live calls. Tracks each call through
+ * RINGING -> CONNECTING -> ACTIVE -> ENDED, keeps users from being in two calls at once
+ * and expires unanswered or stalled calls from a single {@link TimerWheel}. An active call stays
+ * up only while its participants keep signalling; clients send an empty candidate as a keepalive.
+ * In a group call the first accept moves the call on; the other invitees can still join it until
+ * it ends.
+ */
+public class CallRegistry {
+    public enum State {
+        RINGING,
+        CONNECTING,
+        ACTIVE,
+        ENDED
+    }
+
+    /**
+     * Receives every call event together with the users that must be notified.
+     */
+    public interface Listener {
+        void onCallEvent(CallEventData event, Collection<String> recipients);
+    }
+
+    /**
+     * Busy flags kept outside this registry, so calls held elsewhere also count. The registry
+     * still tracks its own calls; a flag is only claimed once that local check has passed.
+     */
+    public interface BusyFlags {
+        boolean claim(String userId, String callId);
+
+        void release(String userId, String callId);
+    }
+
+    private static final BusyFlags LOCAL_ONLY = new BusyFlags() {
+        @Override
+        public boolean claim(String userId, String callId) {
+            return true;
+        }
+
+        @Override
+        public void release(String userId, String callId) {
+        }
+    };
+
+    public static final class ActiveCall {
+        private final String id;
+        private final UserProfile caller;
+        private final String targetId;
+        private final String targetType;
+        private final Set<String> participants;
+        private final Set<String> joined = ConcurrentHashMap.newKeySet();
+        private final long createdAt;
+        private State state = State.RINGING;
+        private TimerWheel.Timeout timeout;
+
+        private ActiveCall(String id, UserProfile caller, String targetId, String targetType, Set<String> participants) {
+            this.id = id;
+            this.caller = caller;
+            this.targetId = targetId;
+            this.targetType = targetType;
+            this.participants = participants;
+            this.joined.add(caller.getId());
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getCallerId() {
+            return caller.getId();
+        }
+
+        public String getTargetId() {
+            return targetId;
+        }
+
+        public String getTargetType() {
+            return targetType;
+        }
+
+        public synchronized State getState() {
+            return state;
+        }
+
+        public Set<String> getParticipants() {
+            return participants;
+        }
+
+        /**
+         * The caller and every invitee who accepted; the rest are still ringing.
+         */
+        public Set<String> getJoined() {
+            return joined;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    private final Map<String, ActiveCall> calls = new ConcurrentHashMap<>();
+    private final Map<String, String> callByUser = new ConcurrentHashMap<>();
+    private final TimerWheel timers;
+    private final long ringTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long activeTimeoutMs;
+    private volatile Listener listener = (event, recipients) -> { };
+    private volatile Supplier<String> idGenerator = () -> UUID.randomUUID().toString();
+    private volatile BusyFlags busyFlags = LOCAL_ONLY;
+
+    public CallRegistry(TimerWheel timers, long ringTimeoutMs, long idleTimeoutMs, long activeTimeoutMs) {
+        this.timers = timers;
+        this.ringTimeoutMs = ringTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.activeTimeoutMs = activeTimeoutMs;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setIdGenerator(Supplier<String> idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    public void setBusyFlags(BusyFlags busyFlags) {
+        this.busyFlags = busyFlags;
+    }
+
+    /**
+     * Opens a call from {@code caller} to every participant that is not already busy.
+     *
+     * @throws IllegalStateException if the caller is busy or nobody can be reached
+     */
+    public CallEventData start(UserProfile caller, String targetId, String targetType, Collection<String> invitees) {
+        String callId = idGenerator.get();
+        if (!claim(caller.getId(), callId)) {
+            throw new IllegalStateException("busy: caller is already in a call");
+        }
+        Set<String> participants = ConcurrentHashMap.newKeySet();
+        participants.add(caller.getId());
+        for (String invitee : invitees) {
+            if (!invitee.equals(caller.getId()) && claim(invitee, callId)) {
+                participants.add(invitee);
+            }
+        }
+        if (participants.size() == 1) {
+            unclaim(caller.getId(), callId);
+            throw new IllegalStateException("busy: target is already in a call");
+        }
+
+        ActiveCall call = new ActiveCall(callId, caller, targetId, targetType, participants);
+        calls.put(callId, call);
+        synchronized (call) {
+            call.timeout = timers.schedule(() -> expire(callId, State.RINGING, "missed"), ringTimeoutMs);
+        }
+        CallEventData event = event(call, "start", caller);
+        listener.onCallEvent(event, participants);
+        return event;
+    }
+
+    public CallEventData accept(UserProfile user, String callId) {
+        ActiveCall call = requireParticipant(user, callId);
+        synchronized (call) {
+            if (call.state == State.ENDED) {
+                throw new IllegalStateException("call has ended");
+            }
+            if (!call.joined.add(user.getId())) {
+                throw new IllegalStateException("already joined this call");
+            }
+            if (call.state == State.RINGING) {
+                call.state = State.CONNECTING;
+                reschedule(call, () -> expire(callId, State.CONNECTING, "timeout"), idleTimeoutMs);
+            }
+        }
+        CallEventData event = event(call, "accept", user);
+        listener.onCallEvent(event, call.participants);
+        return event;
+    }
+
+    public CallEventData reject(UserProfile user, String callId) {
+        ActiveCall call = requireParticipant(user, callId);
+        return leaveOrFinish(call, user, "reject");
+    }
+
+    /**
+     * Ends the user's current call, if any; returns {@code null} when there is none.
+     */
+    public CallEventData endFor(UserProfile user) {
+        String callId = callByUser.get(user.getId());
+        ActiveCall call = callId != null ? calls.get(callId) : null;
+        if (call == null) {
+            return null;
+        }
+        return leaveOrFinish(call, user, "end");
+    }
+
+    /**
+     * The user's connection closed: drops them from their current call, or ends it, as a hang-up
+     * would. Returns {@code null} when they were not in a call.
+     */
+    public CallEventData leave(UserProfile user) {
+        String callId = callByUser.get(user.getId());
+        ActiveCall call = callId != null ? calls.get(callId) : null;
+        if (call == null) {
+            return null;
+        }
+        return leaveOrFinish(call, user, "disconnect");
+    }
+
+    /**
+     * Validates an offer/answer/candidate and returns the users it must be relayed to. Every signal
+     * pushes back the call's timeout; an empty candidate only does that and is relayed to nobody.
+     */
+    public List<String> relay(CallSignalData signal) {
+        ActiveCall call = calls.get(signal.getCallId());
+        if (call == null || !call.participants.contains(signal.getFrom())) {
+            throw new IllegalStateException("unknown call: " + signal.getCallId());
+        }
+        if (!call.joined.contains(signal.getFrom())) {
+            throw new IllegalStateException("call not accepted yet");
+        }
+        synchronized (call) {
+            if (call.state == State.ENDED || call.state == State.RINGING) {
+                throw new IllegalStateException("call is not connected");
+            }
+            if ("answer".equals(signal.getKind()) && call.state == State.CONNECTING) {
+                call.state = State.ACTIVE;
+            }
+            if (call.state == State.ACTIVE) {
+                reschedule(call, () -> expire(call.id, State.ACTIVE, "lost"), activeTimeoutMs);
+            } else {
+                reschedule(call, () -> expire(call.id, State.CONNECTING, "timeout"), idleTimeoutMs);
+            }
+        }
+        if (isKeepalive(signal)) {
+            return Collections.emptyList();
+        }
+        List<String> recipients = new ArrayList<>(call.joined);
+        recipients.remove(signal.getFrom());
+        return recipients;
+    }
+
+    public ActiveCall find(String callId) {
+        return calls.get(callId);
+    }
+
+    public int activeCount() {
+        return calls.size();
+    }
+
+    private static boolean isKeepalive(CallSignalData signal) {
+        return "candidate".equals(signal.getKind()) && (signal.getPayload() == null || signal.getPayload().isEmpty());
+    }
+
+    private ActiveCall requireParticipant(UserProfile user, String callId) {
+        ActiveCall call = callId != null ? calls.get(callId) : null;
+        if (call == null || !call.participants.contains(user.getId())) {
+            throw new IllegalStateException("unknown call: " + callId);
+        }
+        return call;
+    }
+
+    /**
+     * In a group call with other people left, a callee hanging up only drops out; otherwise the call ends.
+     */
+    private CallEventData leaveOrFinish(ActiveCall call, UserProfile user, String type) {
+        boolean leaving;
+        synchronized (call) {
+            leaving = call.state != State.ENDED
+                && "group".equals(call.targetType)
+                && !call.getCallerId().equals(user.getId())
+                && call.participants.size() > 2;
+            if (leaving) {
+                call.participants.remove(user.getId());
+                call.joined.remove(user.getId());
+            }
+        }
+        if (!leaving) {
+            return finish(call, user, type);
+        }
+        unclaim(user.getId(), call.id);
+        CallEventData event = event(call, "leave", user);
+        List<String> recipients = new ArrayList<>(call.participants);
+        recipients.add(user.getId());
+        listener.onCallEvent(event, recipients);
+        return event;
+    }
+
+    private CallEventData finish(ActiveCall call, UserProfile by, String type) {
+        synchronized (call) {
+            if (call.state == State.ENDED) {
+                return event(call, type, by);
+            }
+            call.state = State.ENDED;
+            if (call.timeout != null) {
+                call.timeout.cancel();
+                call.timeout = null;
+            }
+        }
+        release(call);
+        CallEventData event = event(call, type, by);
+        listener.onCallEvent(event, call.participants);
+        return event;
+    }
+
+    private void expire(String callId, State expected, String type) {
+        ActiveCall call = calls.get(callId);
+        if (call == null) {
+            return;
+        }
+        synchronized (call) {
+            if (call.state != expected) {
+                return;
+            }
+            call.state = State.ENDED;
+            call.timeout = null;
+        }
+        release(call);
+        listener.onCallEvent(event(call, type, call.caller), call.participants);
+    }
+
+    private void release(ActiveCall call) {
+        calls.remove(call.id, call);
+        for (String participant : call.participants) {
+            unclaim(participant, call.id);
+        }
+    }
+
+    private boolean claim(String userId, String callId) {
+        if (callByUser.putIfAbsent(userId, callId) != null) {
+            return false;
+        }
+        if (!busyFlags.claim(userId, callId)) {
+            callByUser.remove(userId, callId);
+            return false;
+        }
+        return true;
+    }
+
+    private void unclaim(String userId, String callId) {
+        if (callByUser.remove(userId, callId)) {
+            busyFlags.release(userId, callId);
+        }
+    }
+
+    private void reschedule(ActiveCall call, Runnable task, long delayMs) {
+        if (call.timeout != null) {
+            call.timeout.cancel();
+        }
+        call.timeout = timers.schedule(task, delayMs);
+    }
+
+    private static CallEventData event(ActiveCall call, String type, UserProfile by) {
+        return new CallEventData(call.id, type, by.getId(), by.getDisplayName(), call.targetId, call.targetType);
+    }
+}
@@ -4,44 +4,128 @@ import com.chat.domain.Group;
 import com.chat.domain.Message;
 import com.chat.domain.UserProfile;
 import com.chat.rpc.dto.CallEventData;
+import com.chat.rpc.dto.CallSignalData;
 import com.chat.rpc.dto.GroupInfoData;
 import com.chat.rpc.dto.MessagePayloadData;
+import com.chat.rpc.dto.SessionInfoData;
+import com.chat.rpc.dto.UnreadEntryData;
 import com.chat.rpc.dto.UserInfoData;
 import java.io.IOException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Contains the business logic and acts as the delegate for the Ice servants.
  */
 public class ChatServiceDelegate {
+    private static final long DUPLICATE_WAIT_MS = 5000;
+
+    private interface Send {
+        MessagePayloadData store() throws IOException;
+    }
+
     private final ChatRepository repository;
+    private final CallRegistry calls;
+    private final ReadTracker reads;
+    private final ClientIdCache sentIds;
     private final Map<String, UserProfile> users = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> usersByName = new ConcurrentHashMap<>();
+    private final Map<String, UserProfile> remoteUsers = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private volatile Supplier<String> idGenerator = () -> UUID.randomUUID().toString();
+    private volatile Function<String, UserProfile> remoteUserResolver = userId -> null;
 
-    public ChatServiceDelegate(ChatRepository repository) {
+    public ChatServiceDelegate(
+        ChatRepository repository,
+        CallRegistry calls,
+        ReadTracker reads,
+        ClientIdCache sentIds
+    ) throws IOException {
         this.repository = repository;
+        this.calls = calls;
+        this.reads = reads;
+        this.sentIds = sentIds;
+        for (UserProfile profile : repository.loadUsers()) {
+            index(profile);
+        }
+    }
+
+    /**
+     * Replaces how user and group ids are minted; clustered nodes only hand out ids they own.
+     */
+    public void setIdGenerator(Supplier<String> idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Looks up users registered on other cluster nodes when they are not known locally.
+     */
+    public void setRemoteUserResolver(Function<String, UserProfile> remoteUserResolver) {
+        this.remoteUserResolver = remoteUserResolver;
     }
 
-    public UserInfoData registerUser(String desiredName) {
-        String id = UUID.randomUUID().toString();
+    public SessionInfoData registerUser(String desiredName) throws IOException {
+        String id = idGenerator.get();
         String displayName = Optional.ofNullable(desiredName)
-            .filter(name -> !name.trim().isEmpty())
+            .map(String::trim)
+            .filter(name -> !name.isEmpty())
             .orElse("User-" + id.substring(0, 6));
-        UserProfile profile = new UserProfile(id, displayName);
-        users.put(id, profile);
-        return new UserInfoData(profile.getId(), profile.getDisplayName());
+        String token = newSessionToken();
+        UserProfile profile = new UserProfile(id, displayName, UserProfile.hashToken(token), System.currentTimeMillis());
+        repository.saveUser(profile);
+        index(profile);
+        return toSession(profile, token);
+    }
+
+    /**
+     * Re-attaches a client to an existing user after a reconnect or server restart.
+     */
+    public SessionInfoData resumeSession(String userId, String token) {
+        UserProfile profile = users.get(userId);
+        if (profile == null || !profile.matchesToken(token)) {
+            throw new IllegalArgumentException("Invalid session for user: " + userId);
+        }
+        return toSession(profile, token);
+    }
+
+    public List<UserInfoData> findUsersByName(String displayName) {
+        if (displayName == null) {
+            return Collections.emptyList();
+        }
+        Set<String> ids = usersByName.get(nameKey(displayName));
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<UserInfoData> result = new ArrayList<>();
+        for (String id : ids) {
+            UserProfile profile = users.get(id);
+            if (profile != null) {
+                result.add(new UserInfoData(profile.getId(), profile.getDisplayName()));
+            }
+        }
+        return result;
     }
 
     public GroupInfoData createGroup(String requesterId, String name, List<String> members) throws IOException {
         ensureUserExists(requesterId);
         List<String> safeMembers = members != null ? members : new ArrayList<>();
-        String groupId = UUID.randomUUID().toString();
+        String groupId = idGenerator.get();
         Set<String> uniqueMembers = new HashSet<>(safeMembers);
         uniqueMembers.add(requesterId);
         Group group = new Group(groupId, name, new ArrayList<>(uniqueMembers));
@@ -49,45 +133,35 @@ public class ChatServiceDelegate {
         return new GroupInfoData(group.getId(), group.getName(), group.getMembers());
     }
 
-    public MessagePayloadData sendText(String userId, String toId, String toType, String text) throws IOException {
-        UserProfile author = ensureUserExists(userId);
-        Message message = Message.text(
-            UUID.randomUUID().toString(),
-            author.getId(),
-            author.getDisplayName(),
-            toId,
-            toType,
-            text,
-            System.currentTimeMillis()
-        );
-        repository.persistMessage(message);
-        return MessagePayloadData.from(message);
+    /**
+     * Stores and returns a text message, or returns {@code null} when {@code clientMsgId} was
+     * already accepted from this user (a retried send).
+     */
+    public MessagePayloadData sendText(
+        String userId,
+        String toId,
+        String toType,
+        String text,
+        String clientMsgId
+    ) throws IOException {
+        return sendOnce(userId, clientMsgId, () -> storeText(userId, toId, toType, text));
     }
 
+    /**
+     * Same contract as {@link #sendText}; the audio is only written once.
+     */
     public MessagePayloadData sendAudio(
         String userId,
         String toId,
         String toType,
         byte[] audio,
-        String mimeType
+        String mimeType,
+        String clientMsgId
     ) throws IOException {
-        UserProfile author = ensureUserExists(userId);
-        String audioPath = repository.saveAudio(audio, mimeType);
-        Message message = Message.audio(
-            UUID.randomUUID().toString(),
-            author.getId(),
-            author.getDisplayName(),
-            toId,
-            toType,
-            audioPath,
-            mimeType,
-            System.currentTimeMillis()
-        );
-        repository.persistMessage(message);
-        return MessagePayloadData.from(message);
+        return sendOnce(userId, clientMsgId, () -> storeAudio(userId, toId, toType, audio, mimeType));
     }
 
-    public List<MessagePayloadData> getHistory(String userId, String targetId, String targetType) {
+    public List<MessagePayloadData> getHistory(String userId, String targetId, String targetType) throws IOException {
         ensureUserExists(userId);
         List<MessagePayloadData> result = new ArrayList<>();
         for (Message message : repository.getHistory(userId, targetId, targetType)) {
@@ -96,6 +170,72 @@ public class ChatServiceDelegate {
         return result;
     }
 
+    /**
+     * Older history, including archived ranges: up to {@code limit} messages before the cursor
+     * {@code (beforeTs, beforeId)}.
+     */
+    public List<MessagePayloadData> getHistoryPage(
+        String userId,
+        String targetId,
+        String targetType,
+        long beforeTs,
+        String beforeId,
+        int limit
+    ) throws IOException {
+        ensureUserExists(userId);
+        List<MessagePayloadData> result = new ArrayList<>();
+        for (Message message : repository.getHistoryPage(userId, targetId, targetType, beforeTs, beforeId, limit)) {
+            result.add(MessagePayloadData.from(message));
+        }
+        return result;
+    }
+
+    /**
+     * Moves the user's read cursor; receipts go out on the tracker's next flush. Group cursors are
+     * only for members, and direct cursors need a known peer.
+     */
+    public boolean markRead(String userId, String targetId, String targetType, long upToSeq) throws IOException {
+        ensureUserExists(userId);
+        if ("group".equals(targetType)) {
+            Group group = repository.findGroup(targetId);
+            if (group == null) {
+                throw new IllegalArgumentException("Unknown group: " + targetId);
+            }
+            if (!group.getMembers().contains(userId)) {
+                throw new IllegalArgumentException("Not a member of group: " + targetId);
+            }
+        } else {
+            ensureUserExists(targetId);
+        }
+        return reads.markRead(userId, targetId, targetType, upToSeq);
+    }
+
+    public List<UnreadEntryData> getUnreadSummary(String userId) throws IOException {
+        ensureUserExists(userId);
+        List<String> groupIds = new ArrayList<>();
+        for (Group group : repository.getGroups().values()) {
+            if (group.getMembers().contains(userId)) {
+                groupIds.add(group.getId());
+            }
+        }
+        return reads.summary(userId, groupIds);
+    }
+
+    /**
+     * Everyone who shares a direct conversation or a group with the user: the audience for
+     * their presence changes.
+     */
+    public Set<String> contactsOf(String userId) {
+        Set<String> contacts = new HashSet<>(reads.directPeers(userId));
+        for (Group group : repository.getGroups().values()) {
+            if (group.getMembers().contains(userId)) {
+                contacts.addAll(group.getMembers());
+            }
+        }
+        contacts.remove(userId);
+        return contacts;
+    }
+
     public GroupInfoData findGroup(String groupId) {
         Group group = repository.findGroup(groupId);
         if (group == null) {
@@ -106,16 +246,83 @@ public class ChatServiceDelegate {
 
     public CallEventData startCall(String userId, String targetId, String targetType) {
         UserProfile caller = ensureUserExists(userId);
-        return new CallEventData("start", caller.getId(), caller.getDisplayName(), targetId, targetType);
+        List<String> invitees;
+        if ("group".equals(targetType)) {
+            Group group = repository.findGroup(targetId);
+            if (group == null) {
+                throw new IllegalArgumentException("Unknown group: " + targetId);
+            }
+            invitees = group.getMembers();
+        } else {
+            invitees = Collections.singletonList(targetId);
+        }
+        return calls.start(caller, targetId, targetType, invitees);
+    }
+
+    public CallEventData acceptCall(String userId, String callId) {
+        return calls.accept(ensureUserExists(userId), callId);
+    }
+
+    public CallEventData rejectCall(String userId, String callId) {
+        return calls.reject(ensureUserExists(userId), callId);
     }
 
     public CallEventData endCall(String userId, String targetId, String targetType) {
         UserProfile caller = ensureUserExists(userId);
-        return new CallEventData("end", caller.getId(), caller.getDisplayName(), targetId, targetType);
+        CallEventData ended = calls.endFor(caller);
+        if (ended != null) {
+            return ended;
+        }
+        return new CallEventData("", "end", caller.getId(), caller.getDisplayName(), targetId, targetType);
+    }
+
+    /**
+     * Takes a user whose connection closed out of their call, if they were in one on this node.
+     */
+    public CallEventData leaveCall(String userId) {
+        UserProfile user = knownUser(userId);
+        return user != null ? calls.leave(user) : null;
+    }
+
+    /**
+     * Checks that an SDP offer/answer or ICE candidate belongs to a live call and returns its recipients.
+     */
+    public List<String> relayCallSignal(CallSignalData signal) {
+        ensureUserExists(signal.getFrom());
+        return calls.relay(signal);
+    }
+
+    /**
+     * Profile of a user this node already knows, registered here or resolved before; never asks peers.
+     */
+    public UserProfile knownUser(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        UserProfile profile = users.get(userId);
+        return profile != null ? profile : remoteUsers.get(userId);
+    }
+
+    /**
+     * Caches a user registered on another node, as vouched for by the peer that forwarded a call.
+     */
+    public void rememberRemoteUser(UserProfile profile) {
+        if (!users.containsKey(profile.getId())) {
+            remoteUsers.putIfAbsent(profile.getId(), profile);
+        }
     }
 
     public UserProfile ensureUserExists(String userId) {
         UserProfile profile = users.get(userId);
+        if (profile == null && userId != null) {
+            profile = remoteUsers.get(userId);
+            if (profile == null) {
+                profile = remoteUserResolver.apply(userId);
+                if (profile != null) {
+                    remoteUsers.put(userId, profile);
+                }
+            }
+        }
         if (profile == null) {
             throw new IllegalArgumentException("Unknown user: " + userId);
         }
@@ -125,5 +332,95 @@ public class ChatServiceDelegate {
     public Map<String, UserProfile> getUsers() {
         return users;
     }
+
+    private MessagePayloadData storeText(String userId, String toId, String toType, String text) throws IOException {
+        UserProfile author = ensureUserExists(userId);
+        Message message = Message.text(
+            UUID.randomUUID().toString(),
+            author.getId(),
+            author.getDisplayName(),
+            toId,
+            toType,
+            text,
+            System.currentTimeMillis()
+        ).withSeq(reads.nextSeq(author.getId(), toId, toType));
+        repository.persistMessage(message);
+        return MessagePayloadData.from(message);
+    }
+
+    private MessagePayloadData storeAudio(
+        String userId,
+        String toId,
+        String toType,
+        byte[] audio,
+        String mimeType
+    ) throws IOException {
+        UserProfile author = ensureUserExists(userId);
+        String audioPath = repository.saveAudio(audio, mimeType);
+        Message message = Message.audio(
+            UUID.randomUUID().toString(),
+            author.getId(),
+            author.getDisplayName(),
+            toId,
+            toType,
+            audioPath,
+            mimeType,
+            System.currentTimeMillis()
+        ).withSeq(reads.nextSeq(author.getId(), toId, toType));
+        repository.persistMessage(message);
+        return MessagePayloadData.from(message);
+    }
+
+    private MessagePayloadData sendOnce(String userId, String clientMsgId, Send send) throws IOException {
+        if (clientMsgId == null || clientMsgId.isEmpty()) {
+            return send.store();
+        }
+        String key = userId + '\n' + clientMsgId;
+        CompletableFuture<MessagePayloadData> mine = new CompletableFuture<>();
+        CompletableFuture<MessagePayloadData> earlier;
+        while ((earlier = sentIds.claim(key, mine)) != null) {
+            try {
+                earlier.get(DUPLICATE_WAIT_MS, TimeUnit.MILLISECONDS);
+                return null;
+            } catch (ExecutionException ex) {
+                // The first attempt failed and released the id; this one takes over.
+            } catch (TimeoutException ex) {
+                throw new IOException("Message " + clientMsgId + " is still being stored");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for message " + clientMsgId);
+            }
+        }
+        try {
+            MessagePayloadData payload = send.store();
+            mine.complete(payload);
+            return payload;
+        } catch (IOException | RuntimeException ex) {
+            sentIds.release(key, mine);
+            mine.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private void index(UserProfile profile) {
+        users.put(profile.getId(), profile);
+        usersByName
+            .computeIfAbsent(nameKey(profile.getDisplayName()), key -> ConcurrentHashMap.newKeySet())
+            .add(profile.getId());
+    }
+
+    private SessionInfoData toSession(UserProfile profile, String token) {
+        return new SessionInfoData(new UserInfoData(profile.getId(), profile.getDisplayName()), token);
+    }
+
+    private String newSessionToken() {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static String nameKey(String displayName) {
+        return displayName.trim().toLowerCase(Locale.ROOT);
+    }
 }
 
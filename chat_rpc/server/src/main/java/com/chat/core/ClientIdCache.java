@@ -0,0 +1,81 @@
+package com.chat.core;
+
+import com.chat.rpc.dto.MessagePayloadData;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client message ids accepted recently, bounded both in count and in age. Each id maps to the
+ * send that claimed it, so a retry that races the original can wait for its outcome instead of
+ * storing the message a second time.
+ */
+public class ClientIdCache {
+    private static final class Claim {
+        final long claimedAt;
+        final CompletableFuture<MessagePayloadData> result;
+
+        Claim(long claimedAt, CompletableFuture<MessagePayloadData> result) {
+            this.claimedAt = claimedAt;
+            this.result = result;
+        }
+    }
+
+    private final int maxEntries;
+    private final long windowMs;
+    private final LinkedHashMap<String, Claim> claims = new LinkedHashMap<>();
+    private final LongAdder duplicates;
+
+    public ClientIdCache(int maxEntries, long windowMs, LongAdder duplicates) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.windowMs = windowMs;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Claims {@code key} for {@code result}.
+     *
+     * @return {@code null} if the key was free, otherwise the outcome of the send that holds it
+     */
+    public synchronized CompletableFuture<MessagePayloadData> claim(
+        String key,
+        CompletableFuture<MessagePayloadData> result
+    ) {
+        long now = System.currentTimeMillis();
+        evict(now);
+        Claim existing = claims.get(key);
+        if (existing != null) {
+            duplicates.increment();
+            return existing.result;
+        }
+        claims.put(key, new Claim(now, result));
+        return null;
+    }
+
+    /**
+     * Frees a key whose send failed, so the client's retry is accepted as new.
+     */
+    public synchronized void release(String key, CompletableFuture<MessagePayloadData> result) {
+        Claim existing = claims.get(key);
+        if (existing != null && existing.result == result) {
+            claims.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return claims.size();
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Claim>> it = claims.entrySet().iterator();
+        while (it.hasNext()) {
+            Claim eldest = it.next().getValue();
+            if (claims.size() < maxEntries && now - eldest.claimedAt < windowMs) {
+                return;
+            }
+            it.remove();
+        }
+    }
+}
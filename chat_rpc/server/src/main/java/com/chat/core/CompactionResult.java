@@ -0,0 +1,40 @@
+package com.chat.core;
+
+/**
+ * Outcome of one {@link ChatRepository#compact} pass.
+ */
+public class CompactionResult {
+    private final int archived;
+    private final int expired;
+    private final int audioFilesDeleted;
+    private final long audioBytesReclaimed;
+
+    public CompactionResult(int archived, int expired, int audioFilesDeleted, long audioBytesReclaimed) {
+        this.archived = archived;
+        this.expired = expired;
+        this.audioFilesDeleted = audioFilesDeleted;
+        this.audioBytesReclaimed = audioBytesReclaimed;
+    }
+
+    public int getArchived() {
+        return archived;
+    }
+
+    public int getExpired() {
+        return expired;
+    }
+
+    public int getAudioFilesDeleted() {
+        return audioFilesDeleted;
+    }
+
+    public long getAudioBytesReclaimed() {
+        return audioBytesReclaimed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("archived=%d expired=%d audioFiles=%d audioBytes=%d",
+            archived, expired, audioFilesDeleted, audioBytesReclaimed);
+    }
+}
@@ -0,0 +1,223 @@
+package com.chat.core;
+
+import com.chat.rpc.dto.EphemeralBatchData;
+import com.chat.rpc.dto.PresenceUpdateData;
+import com.chat.rpc.dto.TypingUpdateData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Presence and typing state, pushed once per tick instead of once per change. Within a tick
+ * every (user, conversation) collapses to its latest state, and only states that differ from
+ * what recipients were last told go out, as a single batch per recipient. Typing that is not
+ * refreshed within the timeout is turned off here, so a client that vanishes mid-sentence does
+ * not leave "typing..." behind. Nothing is persisted.
+ */
+public class EphemeralCoalescer {
+    /**
+     * Receives one batch per recipient per tick.
+     */
+    public interface Listener {
+        void onBatch(String recipient, EphemeralBatchData batch);
+    }
+
+    private static final class Typing {
+        final String userId;
+        final String seenAs;
+        final String targetType;
+        Collection<String> recipients;
+        boolean typing;
+        boolean sent;
+        long refreshedAt;
+
+        Typing(String userId, String seenAs, String targetType) {
+            this.userId = userId;
+            this.seenAs = seenAs;
+            this.targetType = targetType;
+        }
+    }
+
+    private static final class Presence {
+        final boolean online;
+        final long at;
+        final Collection<String> audience;
+
+        Presence(boolean online, long at, Collection<String> audience) {
+            this.online = online;
+            this.at = at;
+            this.audience = audience;
+        }
+    }
+
+    private static final class Outbox {
+        final List<PresenceUpdateData> presence = new ArrayList<>();
+        final List<TypingUpdateData> typing = new ArrayList<>();
+    }
+
+    private final long tickMs;
+    private final long typingTimeoutMs;
+    private final LongSupplier clock;
+    private final Object lock = new Object();
+    private final Map<String, Typing> typing = new HashMap<>();
+    private final Map<String, Presence> pendingPresence = new LinkedHashMap<>();
+    private final Map<String, Boolean> announcedPresence = new HashMap<>();
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final ScheduledExecutorService ticker;
+    private volatile Listener listener = (recipient, batch) -> { };
+
+    public EphemeralCoalescer(long tickMs, long typingTimeoutMs, LongSupplier clock) {
+        this.tickMs = Math.max(10, tickMs);
+        this.typingTimeoutMs = typingTimeoutMs;
+        this.clock = clock;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ephemeral-tick");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start() {
+        ticker.scheduleAtFixedRate(this::tickQuietly, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Records that {@code userId} is or is not typing in a conversation; {@code recipients} are
+     * the other members it should be shown to. Repeating the current state only refreshes it.
+     */
+    public void typing(
+        String userId,
+        String targetId,
+        String targetType,
+        boolean typing,
+        Collection<String> recipients
+    ) {
+        changes.increment();
+        boolean group = "group".equals(targetType);
+        String key = userId + '\n' + (group ? "group" : "dm") + '\n' + targetId;
+        synchronized (lock) {
+            Typing state = this.typing.get(key);
+            if (state == null) {
+                if (!typing) {
+                    return;
+                }
+                state = new Typing(userId, group ? targetId : userId, targetType);
+                this.typing.put(key, state);
+            }
+            state.typing = typing;
+            state.recipients = recipients;
+            state.refreshedAt = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Records a presence change; only the last one of a tick is sent, and only if it differs
+     * from what was announced before.
+     */
+    public void presence(String userId, boolean online, Collection<String> audience) {
+        changes.increment();
+        synchronized (lock) {
+            pendingPresence.put(userId, new Presence(online, clock.getAsLong(), audience));
+        }
+    }
+
+    /**
+     * Emits everything that changed since the previous tick.
+     */
+    public void tick() {
+        Map<String, Outbox> outboxes = new HashMap<>();
+        synchronized (lock) {
+            long now = clock.getAsLong();
+            for (Map.Entry<String, Presence> entry : pendingPresence.entrySet()) {
+                String userId = entry.getKey();
+                Presence presence = entry.getValue();
+                Boolean previous = announcedPresence.put(userId, presence.online);
+                if (previous != null && previous == presence.online) {
+                    continue;
+                }
+                PresenceUpdateData update = new PresenceUpdateData(userId, presence.online, presence.at);
+                for (String recipient : presence.audience) {
+                    if (!recipient.equals(userId)) {
+                        outboxes.computeIfAbsent(recipient, key -> new Outbox()).presence.add(update);
+                    }
+                }
+            }
+            pendingPresence.clear();
+
+            Iterator<Typing> it = typing.values().iterator();
+            while (it.hasNext()) {
+                Typing state = it.next();
+                if (state.typing && now - state.refreshedAt >= typingTimeoutMs) {
+                    state.typing = false;
+                }
+                if (state.typing != state.sent) {
+                    TypingUpdateData update = new TypingUpdateData(
+                        state.userId, state.seenAs, state.targetType, state.typing);
+                    for (String recipient : state.recipients) {
+                        if (!recipient.equals(state.userId)) {
+                            outboxes.computeIfAbsent(recipient, key -> new Outbox()).typing.add(update);
+                        }
+                    }
+                    state.sent = state.typing;
+                }
+                if (!state.typing) {
+                    it.remove();
+                }
+            }
+        }
+        for (Map.Entry<String, Outbox> entry : outboxes.entrySet()) {
+            EphemeralBatchData batch = new EphemeralBatchData(entry.getValue().presence, entry.getValue().typing);
+            updates.add(batch.size());
+            batches.increment();
+            listener.onBatch(entry.getKey(), batch);
+        }
+    }
+
+    private void tickQuietly() {
+        try {
+            tick();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Typing and presence changes reported to the coalescer.
+     */
+    public long changes() {
+        return changes.sum();
+    }
+
+    /**
+     * Updates that reached a recipient, summed over all recipients.
+     */
+    public long updates() {
+        return updates.sum();
+    }
+
+    /**
+     * Push invocations: one per recipient per tick with something to say.
+     */
+    public long batches() {
+        return batches.sum();
+    }
+}
@@ -0,0 +1,86 @@
+package com.chat.core;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from non-negative int keys to long values, with no boxing. Not thread-safe.
+ */
+final class IntLongMap {
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    IntLongMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    long get(int key, long missing) {
+        int slot = find(keys, key);
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    boolean containsKey(int key) {
+        return keys[find(keys, key)] == key;
+    }
+
+    void put(int key, long value) {
+        int slot = find(keys, key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 4 > keys.length * 3) {
+            grow();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Calls {@code visitor} for every entry.
+     */
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    interface Visitor {
+        void visit(int key, long value);
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int find(int[] table, int key) {
+        int mask = table.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (table[slot] != FREE && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
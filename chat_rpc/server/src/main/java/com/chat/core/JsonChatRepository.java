@@ -0,0 +1,176 @@
+package com.chat.core;
+
+import com.chat.domain.Group;
+import com.chat.domain.Message;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Legacy backend: messages and groups kept as whole JSON documents that are rewritten on
+ * every change. Simple to inspect by hand, but each write costs O(total messages).
+ */
+public class JsonChatRepository extends AbstractChatRepository {
+    private final Path messagesFile;
+    private final Path groupsFile;
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final List<Message> messages = new ArrayList<>();
+    private final ReentrantLock messagesLock = new ReentrantLock();
+    private final ReentrantLock groupsLock = new ReentrantLock();
+
+    public JsonChatRepository(Path dataDir, String audioBaseUrl) throws IOException {
+        super(dataDir, audioBaseUrl);
+        this.messagesFile = dataDir.resolve("messages.json");
+        this.groupsFile = dataDir.resolve("groups.json");
+        loadGroups();
+        loadMessages();
+    }
+
+    @Override
+    public List<Message> getHistory(String userId, String targetId, String targetType) {
+        messagesLock.lock();
+        try {
+            List<Message> filtered = new ArrayList<>();
+            for (Message msg : messages) {
+                switch (targetType) {
+                    case "user":
+                        boolean match =
+                            (msg.getFrom().equals(userId) && msg.getTo().equals(targetId)) ||
+                            (msg.getFrom().equals(targetId) && msg.getTo().equals(userId));
+                        if (match) {
+                            filtered.add(msg);
+                        }
+                        break;
+                    case "group":
+                        if ("group".equals(msg.getToType()) && msg.getTo().equals(targetId)) {
+                            filtered.add(msg);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return filtered;
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    public void persistMessage(Message message) throws IOException {
+        messagesLock.lock();
+        try {
+            messages.add(message);
+            saveMessages();
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    public Group saveGroup(Group group) throws IOException {
+        groups.put(group.getId(), group);
+        saveGroups();
+        return group;
+    }
+
+    @Override
+    public Group findGroup(String groupId) {
+        return groups.get(groupId);
+    }
+
+    @Override
+    public Map<String, Group> getGroups() {
+        return groups;
+    }
+
+    @Override
+    protected Map<String, List<Message>> hotConversations() {
+        Map<String, List<Message>> conversations = new HashMap<>();
+        messagesLock.lock();
+        try {
+            for (Message message : messages) {
+                conversations.computeIfAbsent(conversationKey(message), key -> new ArrayList<>()).add(message);
+            }
+        } finally {
+            messagesLock.unlock();
+        }
+        return conversations;
+    }
+
+    @Override
+    protected void removeHot(Set<String> messageIds) throws IOException {
+        messagesLock.lock();
+        try {
+            messages.removeIf(message -> messageIds.contains(message.getId()));
+            saveMessages();
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    protected List<Path> hotFiles() {
+        return Arrays.asList(messagesFile, groupsFile);
+    }
+
+    private void loadMessages() throws IOException {
+        if (Files.notExists(messagesFile)) {
+            return;
+        }
+        String content = new String(Files.readAllBytes(messagesFile), StandardCharsets.UTF_8);
+        JSONArray jsonArray = new JSONArray(content);
+        messages.clear();
+        for (int i = 0; i < jsonArray.length(); i++) {
+            messages.add(messageFromJSON(jsonArray.getJSONObject(i)));
+        }
+    }
+
+    private void saveMessages() throws IOException {
+        JSONArray jsonArray = new JSONArray();
+        for (Message message : messages) {
+            jsonArray.put(message.toJSON());
+        }
+        Files.write(messagesFile, jsonArray.toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void loadGroups() throws IOException {
+        if (Files.notExists(groupsFile)) {
+            return;
+        }
+        String content = new String(Files.readAllBytes(groupsFile), StandardCharsets.UTF_8);
+        JSONObject jsonObject = new JSONObject(content);
+        groups.clear();
+        Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            groups.put(key, Group.fromJSON(jsonObject.getJSONObject(key)));
+        }
+    }
+
+    private void saveGroups() throws IOException {
+        groupsLock.lock();
+        try {
+            JSONObject jsonObject = new JSONObject();
+            for (Map.Entry<String, Group> entry : groups.entrySet()) {
+                jsonObject.put(entry.getKey(), entry.getValue().toJSON());
+            }
+            Files.write(groupsFile, jsonObject.toString(2).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            groupsLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.chat.core;
+
+import com.chat.domain.Group;
+import com.chat.domain.Message;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Log-structured backend: every message and group change is one JSON line appended to
+ * {@code messages.log} / {@code groups.log}, so a write costs a single append no matter how
+ * large the history is. History is served from an in-memory index by conversation that is
+ * rebuilt by replaying the log at startup. On first start it imports the legacy JSON files.
+ */
+public class LogChatRepository extends AbstractChatRepository {
+    private final Path messagesLog;
+    private final Path groupsLog;
+    private FileChannel messagesChannel;
+    private final FileChannel groupsChannel;
+
+    private final Map<String, List<Message>> byConversation = new ConcurrentHashMap<>();
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final ReentrantLock messagesLock = new ReentrantLock();
+    private final ReentrantLock groupsLock = new ReentrantLock();
+
+    public LogChatRepository(Path dataDir, String audioBaseUrl) throws IOException {
+        super(dataDir, audioBaseUrl);
+        this.messagesLog = dataDir.resolve("messages.log");
+        this.groupsLog = dataDir.resolve("groups.log");
+        boolean fresh = Files.notExists(messagesLog) && Files.notExists(groupsLog);
+        this.messagesChannel = openAppend(messagesLog);
+        this.groupsChannel = openAppend(groupsLog);
+        if (fresh) {
+            importLegacyJson();
+        } else {
+            replayGroups();
+            replayMessages();
+        }
+    }
+
+    @Override
+    public List<Message> getHistory(String userId, String targetId, String targetType) {
+        if (!"user".equals(targetType) && !"group".equals(targetType)) {
+            return new ArrayList<>();
+        }
+        List<Message> conversation = byConversation.get(conversationKey(userId, targetId, targetType));
+        if (conversation == null) {
+            return new ArrayList<>();
+        }
+        synchronized (conversation) {
+            return new ArrayList<>(conversation);
+        }
+    }
+
+    @Override
+    public void persistMessage(Message message) throws IOException {
+        messagesLock.lock();
+        try {
+            append(messagesChannel, message.toJSON());
+            index(message);
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    public Group saveGroup(Group group) throws IOException {
+        groupsLock.lock();
+        try {
+            append(groupsChannel, group.toJSON());
+            groups.put(group.getId(), group);
+        } finally {
+            groupsLock.unlock();
+        }
+        return group;
+    }
+
+    @Override
+    public Group findGroup(String groupId) {
+        return groups.get(groupId);
+    }
+
+    @Override
+    public Map<String, Group> getGroups() {
+        return groups;
+    }
+
+    @Override
+    protected Map<String, List<Message>> hotConversations() {
+        Map<String, List<Message>> snapshot = new HashMap<>();
+        for (Map.Entry<String, List<Message>> entry : byConversation.entrySet()) {
+            List<Message> conversation = entry.getValue();
+            synchronized (conversation) {
+                if (!conversation.isEmpty()) {
+                    snapshot.put(entry.getKey(), new ArrayList<>(conversation));
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rewrites {@code messages.log} without the removed records and swaps it in atomically;
+     * appends wait for the swap.
+     */
+    @Override
+    protected void removeHot(Set<String> messageIds) throws IOException {
+        messagesLock.lock();
+        try {
+            Path rewritten = messagesLog.resolveSibling("messages.log.compact");
+            try (FileChannel out = FileChannel.open(
+                rewritten, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (List<Message> conversation : byConversation.values()) {
+                    List<Message> kept;
+                    synchronized (conversation) {
+                        conversation.removeIf(message -> messageIds.contains(message.getId()));
+                        kept = new ArrayList<>(conversation);
+                    }
+                    for (Message message : kept) {
+                        append(out, message.toJSON());
+                    }
+                }
+                out.force(true);
+            }
+            messagesChannel.close();
+            Files.move(rewritten, messagesLog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            messagesChannel = openAppend(messagesLog);
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    protected List<Path> hotFiles() {
+        return Arrays.asList(messagesLog, groupsLog);
+    }
+
+    @Override
+    public void close() throws IOException {
+        messagesLock.lock();
+        try {
+            messagesChannel.close();
+        } finally {
+            messagesLock.unlock();
+        }
+        groupsLock.lock();
+        try {
+            groupsChannel.close();
+        } finally {
+            groupsLock.unlock();
+        }
+    }
+
+    private void index(Message message) {
+        List<Message> conversation = byConversation.computeIfAbsent(conversationKey(message), key -> new ArrayList<>());
+        synchronized (conversation) {
+            conversation.add(message);
+        }
+    }
+
+    private void replayMessages() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(messagesLog, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record = parse(line);
+                if (record != null) {
+                    index(messageFromJSON(record));
+                }
+            }
+        }
+    }
+
+    private void replayGroups() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(groupsLog, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record = parse(line);
+                if (record != null) {
+                    Group group = Group.fromJSON(record);
+                    groups.put(group.getId(), group);
+                }
+            }
+        }
+    }
+
+    private void importLegacyJson() throws IOException {
+        Path groupsFile = dataDir.resolve("groups.json");
+        if (Files.exists(groupsFile)) {
+            JSONObject legacy = new JSONObject(new String(Files.readAllBytes(groupsFile), StandardCharsets.UTF_8));
+            Iterator<String> keys = legacy.keys();
+            while (keys.hasNext()) {
+                saveGroup(Group.fromJSON(legacy.getJSONObject(keys.next())));
+            }
+        }
+        Path messagesFile = dataDir.resolve("messages.json");
+        if (Files.exists(messagesFile)) {
+            JSONArray legacy = new JSONArray(new String(Files.readAllBytes(messagesFile), StandardCharsets.UTF_8));
+            for (int i = 0; i < legacy.length(); i++) {
+                JSONObject record = legacy.getJSONObject(i);
+                append(messagesChannel, record);
+                index(messageFromJSON(record));
+            }
+        }
+    }
+
+    static JSONObject parse(String line) {
+        if (line.isBlank()) {
+            return null;
+        }
+        try {
+            return new JSONObject(line);
+        } catch (JSONException ex) {
+            // A torn trailing record from an interrupted append; the rest of the log is intact.
+            return null;
+        }
+    }
+
+    static void append(FileChannel channel, JSONObject record) throws IOException {
+        append(channel, record.toString() + "\n");
+    }
+
+    private static void append(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Opens a log positioned at its end (writers hold the log's lock), first terminating a torn last record so the next append starts
+     * on a fresh line instead of being glued to the garbage.
+     */
+    static FileChannel openAppend(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        channel.position(size);
+        if (size > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                append(channel, "\n");
+            }
+        }
+        return channel;
+    }
+}
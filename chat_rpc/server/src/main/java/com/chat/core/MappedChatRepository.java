@@ -0,0 +1,503 @@
+package com.chat.core;
+
+import com.chat.domain.Group;
+import com.chat.domain.Message;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Off-heap backend: every message is a binary row appended to memory-mapped segment files under
+ * {@code segments/}, so message bodies live in the page cache instead of the Java heap. The heap
+ * keeps only the row addresses of each conversation, and {@link #getHistory} returns a view that
+ * decodes a row when it is read. Groups use the same {@code groups.log} as the log backend. On
+ * first start it imports {@code messages.log} if present, otherwise the legacy JSON files.
+ *
+ * <p>A row is {@code length | crc32c | ts | seq | kind | id | from | fromName | to | toType |
+ * text-or-media | mime}, strings as a length ({@code -1} for null) plus UTF-8 bytes. The length is
+ * written last and checked against the CRC on replay, so a row torn by a crash ends the segment.
+ * Compaction copies the surviving rows into a new generation of segments and switches over by
+ * rewriting {@code segments/CURRENT}.
+ */
+public class MappedChatRepository extends AbstractChatRepository {
+    static final int FIRST_SEGMENT_BYTES = 64 << 10;
+    static final int SEGMENT_BYTES = 16 << 20;
+    private static final int ROW_HEADER = 8;
+    private static final byte TEXT = 0;
+    private static final byte AUDIO = 1;
+
+    /**
+     * Row addresses ({@code segment << 32 | offset}) of one conversation, oldest first. Slots
+     * below {@code size} never change, so a view can share the array instead of copying it.
+     */
+    private static final class Rows {
+        private long[] addresses = new long[4];
+        private int size;
+
+        synchronized void add(long address) {
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+            }
+            addresses[size++] = address;
+        }
+
+        synchronized long[] addresses() {
+            return addresses;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    /**
+     * One set of segment files and the index into them; compaction replaces it as a whole.
+     */
+    private static final class Generation {
+        final int number;
+        final Map<String, Rows> index = new ConcurrentHashMap<>();
+        final List<Path> files = new ArrayList<>();
+        volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        int tail;
+
+        Generation(int number) {
+            this.number = number;
+        }
+
+        Rows rows(String key) {
+            return index.computeIfAbsent(key, ignored -> new Rows());
+        }
+    }
+
+    private final class RowView extends AbstractList<Message> implements RandomAccess {
+        private final MappedByteBuffer[] segments;
+        private final long[] addresses;
+        private final int size;
+
+        RowView(Generation generation, Rows rows) {
+            synchronized (rows) {
+                this.addresses = rows.addresses();
+                this.size = rows.size();
+            }
+            this.segments = generation.segments;
+        }
+
+        @Override
+        public Message get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            try {
+                return resolveAudio(decode(segments, addresses[index]));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final Path segmentsDir;
+    private final Path groupsLog;
+    private final FileChannel groupsChannel;
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final ReentrantLock messagesLock = new ReentrantLock();
+    private final ReentrantLock groupsLock = new ReentrantLock();
+    private volatile Generation current;
+
+    public MappedChatRepository(Path dataDir, String audioBaseUrl) throws IOException {
+        super(dataDir, audioBaseUrl);
+        this.segmentsDir = dataDir.resolve("segments");
+        this.groupsLog = dataDir.resolve("groups.log");
+        boolean freshGroups = Files.notExists(groupsLog);
+        this.groupsChannel = LogChatRepository.openAppend(groupsLog);
+        if (freshGroups) {
+            importLegacyGroups();
+        } else {
+            replayGroups();
+        }
+        Files.createDirectories(segmentsDir);
+        Path currentFile = segmentsDir.resolve("CURRENT");
+        if (Files.exists(currentFile)) {
+            open(Integer.parseInt(new String(Files.readAllBytes(currentFile), StandardCharsets.UTF_8).trim()));
+        } else {
+            this.current = new Generation(1);
+            importMessages();
+            publish(current);
+        }
+    }
+
+    @Override
+    public List<Message> getHistory(String userId, String targetId, String targetType) {
+        if (!"user".equals(targetType) && !"group".equals(targetType)) {
+            return new ArrayList<>();
+        }
+        Generation generation = current;
+        Rows rows = generation.index.get(conversationKey(userId, targetId, targetType));
+        return rows == null ? new ArrayList<>() : new RowView(generation, rows);
+    }
+
+    @Override
+    public void persistMessage(Message message) throws IOException {
+        byte[] row = encode(message);
+        messagesLock.lock();
+        try {
+            Generation generation = current;
+            generation.rows(conversationKey(message)).add(write(generation, row));
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    public Group saveGroup(Group group) throws IOException {
+        groupsLock.lock();
+        try {
+            LogChatRepository.append(groupsChannel, group.toJSON());
+            groups.put(group.getId(), group);
+        } finally {
+            groupsLock.unlock();
+        }
+        return group;
+    }
+
+    @Override
+    public Group findGroup(String groupId) {
+        return groups.get(groupId);
+    }
+
+    @Override
+    public Map<String, Group> getGroups() {
+        return groups;
+    }
+
+    @Override
+    protected Map<String, List<Message>> hotConversations() {
+        Generation generation = current;
+        Map<String, List<Message>> views = new HashMap<>();
+        for (Map.Entry<String, Rows> entry : generation.index.entrySet()) {
+            RowView view = new RowView(generation, entry.getValue());
+            if (!view.isEmpty()) {
+                views.put(entry.getKey(), view);
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Copies the surviving rows into a new generation, switches {@code CURRENT} to it and drops
+     * the old files. Views handed out earlier keep reading the old mappings.
+     */
+    @Override
+    protected void removeHot(Set<String> messageIds) throws IOException {
+        messagesLock.lock();
+        try {
+            Generation old = current;
+            MappedByteBuffer[] segments = old.segments;
+            Generation next = new Generation(old.number + 1);
+            for (Map.Entry<String, Rows> entry : old.index.entrySet()) {
+                Rows rows = entry.getValue();
+                long[] addresses;
+                int size;
+                synchronized (rows) {
+                    addresses = rows.addresses();
+                    size = rows.size();
+                }
+                for (int i = 0; i < size; i++) {
+                    byte[] row = row(segments, addresses[i]);
+                    if (!messageIds.contains(readId(row))) {
+                        next.rows(entry.getKey()).add(write(next, row));
+                    }
+                }
+            }
+            for (MappedByteBuffer segment : next.segments) {
+                segment.force();
+            }
+            publish(next);
+            current = next;
+            for (Path file : old.files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ex) {
+                    // Still mapped (Windows); the next start removes files of stale generations.
+                }
+            }
+        } finally {
+            messagesLock.unlock();
+        }
+    }
+
+    @Override
+    protected List<Path> hotFiles() {
+        List<Path> files = new ArrayList<>(current.files);
+        files.add(groupsLog);
+        return files;
+    }
+
+    @Override
+    public void close() throws IOException {
+        messagesLock.lock();
+        try {
+            for (MappedByteBuffer segment : current.segments) {
+                segment.force();
+            }
+        } finally {
+            messagesLock.unlock();
+        }
+        groupsLock.lock();
+        try {
+            groupsChannel.close();
+        } finally {
+            groupsLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a row to the generation's last segment, starting a new one when it does not fit.
+     */
+    private long write(Generation generation, byte[] row) throws IOException {
+        MappedByteBuffer[] segments = generation.segments;
+        int needed = ROW_HEADER + row.length;
+        if (segments.length == 0 || generation.tail + needed > segments[segments.length - 1].capacity()) {
+            // Segments start small and double up to SEGMENT_BYTES, so a small data dir stays small.
+            int size = Math.min(SEGMENT_BYTES, FIRST_SEGMENT_BYTES << Math.min(segments.length, 8));
+            segments = addSegment(generation, Math.max(size, needed));
+            generation.tail = 0;
+        }
+        int index = segments.length - 1;
+        MappedByteBuffer segment = segments[index];
+        int offset = generation.tail;
+        CRC32C crc = new CRC32C();
+        crc.update(row);
+        segment.put(offset + ROW_HEADER, row);
+        segment.putInt(offset + 4, (int) crc.getValue());
+        segment.putInt(offset, row.length);
+        generation.tail += needed;
+        return ((long) index << 32) | offset;
+    }
+
+    private MappedByteBuffer[] addSegment(Generation generation, int size) throws IOException {
+        int index = generation.segments.length;
+        Path file = segmentsDir.resolve(String.format("%06d-%06d.seg", generation.number, index));
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        }
+        MappedByteBuffer[] segments = Arrays.copyOf(generation.segments, index + 1);
+        segments[index] = segment;
+        generation.files.add(file);
+        generation.segments = segments;
+        return segments;
+    }
+
+    /**
+     * Maps the generation's segments and rebuilds the index from their rows; files left behind by
+     * other generations are removed.
+     */
+    private void open(int number) throws IOException {
+        Generation generation = new Generation(number);
+        String prefix = String.format("%06d-", number);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(segmentsDir)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(".seg")).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            if (!file.getFileName().toString().startsWith(prefix)) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            MappedByteBuffer[] segments = addSegment(generation, 0);
+            int index = segments.length - 1;
+            MappedByteBuffer segment = segments[index];
+            int offset = 0;
+            while (offset + ROW_HEADER <= segment.capacity()) {
+                int length = segment.getInt(offset);
+                if (length <= 0 || offset + ROW_HEADER + length > segment.capacity()) {
+                    break;
+                }
+                byte[] row = new byte[length];
+                segment.get(offset + ROW_HEADER, row);
+                CRC32C crc = new CRC32C();
+                crc.update(row);
+                if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                    break;
+                }
+                generation.rows(keyOf(row)).add(((long) index << 32) | offset);
+                offset += ROW_HEADER + length;
+            }
+            generation.tail = offset;
+        }
+        this.current = generation;
+    }
+
+    private void publish(Generation generation) throws IOException {
+        Path temp = segmentsDir.resolve("CURRENT.tmp");
+        Files.write(temp, Integer.toString(generation.number).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, segmentsDir.resolve("CURRENT"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void importMessages() throws IOException {
+        Path messagesLog = dataDir.resolve("messages.log");
+        Path messagesFile = dataDir.resolve("messages.json");
+        if (Files.exists(messagesLog)) {
+            try (BufferedReader reader = Files.newBufferedReader(messagesLog, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JSONObject record = LogChatRepository.parse(line);
+                    if (record != null) {
+                        persistMessage(Message.fromJSON(record));
+                    }
+                }
+            }
+        } else if (Files.exists(messagesFile)) {
+            JSONArray legacy = new JSONArray(new String(Files.readAllBytes(messagesFile), StandardCharsets.UTF_8));
+            for (int i = 0; i < legacy.length(); i++) {
+                persistMessage(Message.fromJSON(legacy.getJSONObject(i)));
+            }
+        }
+    }
+
+    private void importLegacyGroups() throws IOException {
+        Path groupsFile = dataDir.resolve("groups.json");
+        if (Files.exists(groupsFile)) {
+            JSONObject legacy = new JSONObject(new String(Files.readAllBytes(groupsFile), StandardCharsets.UTF_8));
+            Iterator<String> keys = legacy.keys();
+            while (keys.hasNext()) {
+                saveGroup(Group.fromJSON(legacy.getJSONObject(keys.next())));
+            }
+        }
+    }
+
+    private void replayGroups() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(groupsLog, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record = LogChatRepository.parse(line);
+                if (record != null) {
+                    Group group = Group.fromJSON(record);
+                    groups.put(group.getId(), group);
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(Message message) {
+        boolean audio = "audio".equals(message.getKind());
+        String[] fields = {
+            message.getId(),
+            message.getFrom(),
+            message.getFromName(),
+            message.getTo(),
+            message.getToType(),
+            audio ? message.getMediaPath() : message.getText(),
+            audio ? message.getMediaMime() : null
+        };
+        byte[][] encoded = new byte[fields.length][];
+        int size = 8 + 8 + 1;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i] == null ? null : fields[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + (encoded[i] == null ? 0 : encoded[i].length);
+        }
+        ByteBuffer row = ByteBuffer.allocate(size);
+        row.putLong(message.getTimestamp());
+        row.putLong(message.getSeq());
+        row.put(audio ? AUDIO : TEXT);
+        for (byte[] field : encoded) {
+            if (field == null) {
+                row.putInt(-1);
+            } else {
+                row.putInt(field.length);
+                row.put(field);
+            }
+        }
+        return row.array();
+    }
+
+    private static Message decode(MappedByteBuffer[] segments, long address) {
+        ByteBuffer row = ByteBuffer.wrap(row(segments, address));
+        long ts = row.getLong();
+        long seq = row.getLong();
+        boolean audio = row.get() == AUDIO;
+        String id = string(row);
+        String from = string(row);
+        String fromName = string(row);
+        String to = string(row);
+        String toType = string(row);
+        String body = string(row);
+        String mime = string(row);
+        Message message = audio
+            ? Message.audio(id, from, fromName, to, toType, body, mime, ts)
+            : Message.text(id, from, fromName, to, toType, body, ts);
+        return message.withSeq(seq);
+    }
+
+    private static byte[] row(MappedByteBuffer[] segments, long address) {
+        MappedByteBuffer segment = segments[(int) (address >>> 32)];
+        int offset = (int) address;
+        byte[] row = new byte[segment.getInt(offset)];
+        segment.get(offset + ROW_HEADER, row);
+        return row;
+    }
+
+    private static String readId(byte[] row) {
+        ByteBuffer buffer = ByteBuffer.wrap(row);
+        buffer.position(8 + 8 + 1);
+        return string(buffer);
+    }
+
+    private static String keyOf(byte[] row) {
+        ByteBuffer buffer = ByteBuffer.wrap(row);
+        buffer.position(8 + 8 + 1);
+        skip(buffer);
+        String from = string(buffer);
+        skip(buffer);
+        String to = string(buffer);
+        String toType = string(buffer);
+        return conversationKey(from, to, toType);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void skip(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.chat.core;
+
+import com.chat.rpc.dto.ReadReceiptData;
+import com.chat.rpc.dto.UnreadEntryData;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Per-conversation sequence numbers and per-user read cursors. Conversations are interned to
+ * small ints so each user's cursors live in an {@link IntLongMap}. {@link #markRead} only moves
+ * the cursor in memory; a periodic flush coalesces everything that changed since the previous
+ * tick into one append to {@code reads.log} and one read receipt per (reader, conversation).
+ */
+public class ReadTracker {
+    /**
+     * Receives coalesced read receipts together with the users that must be notified.
+     */
+    public interface Listener {
+        void onReadReceipt(ReadReceiptData receipt, Collection<String> recipients);
+    }
+
+    /**
+     * Returns the sequence number of the newest stored message of a conversation (0 if none).
+     */
+    public interface HeadLoader {
+        long latestSeq(String userId, String targetId, String targetType) throws IOException;
+    }
+
+    private static final class Conversation {
+        final int id;
+        final String key;
+        final String type;
+        final String first;
+        final String second;
+        long head;
+        volatile boolean headLoaded;
+
+        Conversation(int id, String key, String type, String first, String second) {
+            this.id = id;
+            this.key = key;
+            this.type = type;
+            this.first = first;
+            this.second = second;
+        }
+
+        boolean isGroup() {
+            return "group".equals(type);
+        }
+
+        /**
+         * The target id as {@code userId} addresses this conversation.
+         */
+        String targetFor(String userId) {
+            if (isGroup()) {
+                return first;
+            }
+            return first.equals(userId) ? second : first;
+        }
+    }
+
+    private static final class PendingRead {
+        final String userId;
+        final Conversation conversation;
+        long seq;
+
+        PendingRead(String userId, Conversation conversation, long seq) {
+            this.userId = userId;
+            this.conversation = conversation;
+            this.seq = seq;
+        }
+    }
+
+    private final Path logFile;
+    private final HeadLoader headLoader;
+    private final Function<String, Collection<String>> groupMembers;
+    private final Object lock = new Object();
+    private final Map<String, Conversation> byKey = new HashMap<>();
+    private final List<Conversation> byId = new ArrayList<>();
+    private final Map<String, IntLongMap> cursors = new HashMap<>();
+    private final Map<String, PendingRead> dirtyCursors = new LinkedHashMap<>();
+    private final Map<String, PendingRead> pendingReceipts = new LinkedHashMap<>();
+    private final Map<Integer, Conversation> dirtyHeads = new LinkedHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private volatile Listener listener = (receipt, recipients) -> { };
+    private FileChannel log;
+    private long logRecords;
+
+    public ReadTracker(Path logFile, HeadLoader headLoader, Function<String, Collection<String>> groupMembers)
+        throws IOException {
+        this.logFile = logFile;
+        this.headLoader = headLoader;
+        this.groupMembers = groupMembers;
+        replay();
+        this.log = openLog(logFile);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "read-receipts");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start(long flushIntervalMs) {
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Assigns the next sequence number of a conversation to a message sent by {@code senderId},
+     * whose own cursor moves with it.
+     */
+    public long nextSeq(String senderId, String targetId, String targetType) throws IOException {
+        Conversation conversation = loaded(senderId, targetId, targetType);
+        synchronized (lock) {
+            long seq = ++conversation.head;
+            dirtyHeads.put(conversation.id, conversation);
+            moveCursor(senderId, conversation, seq);
+            if (!conversation.isGroup()) {
+                String peer = conversation.targetFor(senderId);
+                IntLongMap peerCursors = cursorsOf(peer);
+                if (!peerCursors.containsKey(conversation.id)) {
+                    moveCursor(peer, conversation, 0);
+                }
+            }
+            return seq;
+        }
+    }
+
+    /**
+     * Moves the reader's cursor forward (never back, never past the newest message).
+     *
+     * @return whether the cursor moved
+     */
+    public boolean markRead(String userId, String targetId, String targetType, long upToSeq) throws IOException {
+        Conversation conversation = loaded(userId, targetId, targetType);
+        synchronized (lock) {
+            long seq = Math.min(upToSeq, conversation.head);
+            if (seq <= cursorsOf(userId).get(conversation.id, 0)) {
+                return false;
+            }
+            moveCursor(userId, conversation, seq);
+            String pendingKey = userId + '\n' + conversation.id;
+            PendingRead receipt = pendingReceipts.get(pendingKey);
+            if (receipt == null) {
+                pendingReceipts.put(pendingKey, new PendingRead(userId, conversation, seq));
+            } else {
+                receipt.seq = Math.max(receipt.seq, seq);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Unread state of every conversation the user takes part in: direct conversations with at
+     * least one message and the given groups.
+     */
+    public List<UnreadEntryData> summary(String userId, Collection<String> groupIds) throws IOException {
+        Set<Conversation> conversations = new LinkedHashSet<>();
+        synchronized (lock) {
+            IntLongMap userCursors = cursors.get(userId);
+            if (userCursors != null) {
+                userCursors.forEach((id, seq) -> conversations.add(byId.get(id)));
+            }
+        }
+        for (String groupId : groupIds) {
+            conversations.add(intern(userId, groupId, "group"));
+        }
+        List<UnreadEntryData> entries = new ArrayList<>();
+        for (Conversation conversation : conversations) {
+            ensureHead(conversation, userId);
+            synchronized (lock) {
+                if (conversation.head > 0) {
+                    entries.add(new UnreadEntryData(
+                        conversation.targetFor(userId),
+                        conversation.type,
+                        conversation.head,
+                        cursorsOf(userId).get(conversation.id, 0)
+                    ));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Users that share a direct conversation with {@code userId}.
+     */
+    public List<String> directPeers(String userId) {
+        List<String> peers = new ArrayList<>();
+        synchronized (lock) {
+            IntLongMap userCursors = cursors.get(userId);
+            if (userCursors != null) {
+                userCursors.forEach((id, seq) -> {
+                    Conversation conversation = byId.get(id);
+                    if (!conversation.isGroup()) {
+                        peers.add(conversation.targetFor(userId));
+                    }
+                });
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Persists every cursor and head that changed since the last flush and emits one read
+     * receipt per reader and conversation.
+     */
+    public void flush() throws IOException {
+        List<PendingRead> receipts;
+        StringBuilder records = new StringBuilder();
+        int changes;
+        synchronized (lock) {
+            for (Conversation conversation : dirtyHeads.values()) {
+                records.append(headRecord(conversation.key, conversation.head)).append('\n');
+            }
+            for (PendingRead change : dirtyCursors.values()) {
+                records.append(cursorRecord(change.userId, change.conversation.key, change.seq)).append('\n');
+            }
+            changes = dirtyHeads.size() + dirtyCursors.size();
+            receipts = new ArrayList<>(pendingReceipts.values());
+            dirtyCursors.clear();
+            dirtyHeads.clear();
+            pendingReceipts.clear();
+        }
+        if (changes > 0) {
+            synchronized (this) {
+                write(log, records.toString());
+                logRecords += changes;
+                if (logRecords > Math.max(4096, 4L * liveRecords())) {
+                    rewriteLog();
+                }
+            }
+        }
+        for (PendingRead receipt : receipts) {
+            Conversation conversation = receipt.conversation;
+            List<String> recipients = new ArrayList<>();
+            if (conversation.isGroup()) {
+                recipients.addAll(groupMembers.apply(conversation.first));
+            } else {
+                recipients.add(conversation.targetFor(receipt.userId));
+            }
+            recipients.remove(receipt.userId);
+            String targetId = conversation.isGroup() ? conversation.first : receipt.userId;
+            listener.onReadReceipt(
+                new ReadReceiptData(receipt.userId, targetId, conversation.type, receipt.seq), recipients);
+        }
+    }
+
+    public void stop() {
+        flusher.shutdownNow();
+        flushQuietly();
+        synchronized (this) {
+            try {
+                log.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("[READS] Flush failed: " + ex.getMessage());
+        }
+    }
+
+    private Conversation loaded(String userId, String targetId, String targetType) throws IOException {
+        Conversation conversation = intern(userId, targetId, targetType);
+        ensureHead(conversation, userId);
+        return conversation;
+    }
+
+    /**
+     * Reconciles the persisted head with the newest stored message once per process, so a crash
+     * between a message write and the next flush never hands out a sequence number twice.
+     */
+    private void ensureHead(Conversation conversation, String userId) throws IOException {
+        if (conversation.headLoaded) {
+            return;
+        }
+        long latest = headLoader.latestSeq(userId, conversation.targetFor(userId), conversation.type);
+        synchronized (lock) {
+            if (!conversation.headLoaded) {
+                conversation.head = Math.max(conversation.head, latest);
+                conversation.headLoaded = true;
+            }
+        }
+    }
+
+    private Conversation intern(String userId, String targetId, String targetType) {
+        String type = "group".equals(targetType) ? "group" : "user";
+        String key = AbstractChatRepository.conversationKey(userId, targetId, type);
+        synchronized (lock) {
+            return byKey.computeIfAbsent(key, k -> newConversation(k));
+        }
+    }
+
+    private Conversation newConversation(String key) {
+        Conversation conversation;
+        if (key.startsWith("group:")) {
+            conversation = new Conversation(byId.size(), key, "group", key.substring("group:".length()), null);
+        } else {
+            String pair = key.substring("dm:".length());
+            int split = pair.indexOf('|');
+            conversation = new Conversation(byId.size(), key, "user", pair.substring(0, split), pair.substring(split + 1));
+        }
+        byId.add(conversation);
+        return conversation;
+    }
+
+    private IntLongMap cursorsOf(String userId) {
+        return cursors.computeIfAbsent(userId, id -> new IntLongMap(8));
+    }
+
+    private void moveCursor(String userId, Conversation conversation, long seq) {
+        cursorsOf(userId).put(conversation.id, seq);
+        String key = userId + '\n' + conversation.id;
+        PendingRead change = dirtyCursors.get(key);
+        if (change == null) {
+            dirtyCursors.put(key, new PendingRead(userId, conversation, seq));
+        } else {
+            change.seq = seq;
+        }
+    }
+
+    private long liveRecords() {
+        synchronized (lock) {
+            long live = byId.size();
+            for (IntLongMap userCursors : cursors.values()) {
+                live += userCursors.size();
+            }
+            return live;
+        }
+    }
+
+    private void replay() throws IOException {
+        if (Files.notExists(logFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject record;
+                try {
+                    record = new JSONObject(line);
+                } catch (JSONException ex) {
+                    continue;
+                }
+                logRecords++;
+                Conversation conversation = byKey.computeIfAbsent(record.getString("c"), this::newConversation);
+                if (record.has("h")) {
+                    conversation.head = Math.max(conversation.head, record.getLong("h"));
+                } else {
+                    cursorsOf(record.getString("u")).put(conversation.id, record.getLong("s"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the log with a snapshot of the live state once superseded records dominate it.
+     */
+    private void rewriteLog() throws IOException {
+        StringBuilder snapshot = new StringBuilder();
+        synchronized (lock) {
+            for (Conversation conversation : byId) {
+                snapshot.append(headRecord(conversation.key, conversation.head)).append('\n');
+            }
+            for (Map.Entry<String, IntLongMap> entry : cursors.entrySet()) {
+                String userId = entry.getKey();
+                entry.getValue().forEach((id, seq) ->
+                    snapshot.append(cursorRecord(userId, byId.get(id).key, seq)).append('\n'));
+            }
+        }
+        Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(
+            tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, snapshot.toString());
+            out.force(true);
+        }
+        log.close();
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = openLog(logFile);
+        logRecords = liveRecords();
+    }
+
+    private static FileChannel openLog(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        channel.position(size);
+        if (size > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                write(channel, "\n");
+            }
+        }
+        return channel;
+    }
+
+    private static String headRecord(String key, long head) {
+        return new JSONObject().put("c", key).put("h", head).toString();
+    }
+
+    private static String cursorRecord(String userId, String key, long seq) {
+        return new JSONObject().put("u", userId).put("c", key).put("s", seq).toString();
+    }
+
+    private static void write(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.chat.core;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link ChatRepository#compact} on a background thread at a fixed interval.
+ */
+public class RetentionCompactor {
+    private final ChatRepository repository;
+    private final RetentionPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private volatile CompactionResult lastResult;
+
+    public RetentionCompactor(ChatRepository repository, RetentionPolicy policy) {
+        this.repository = repository;
+        this.policy = policy;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storage-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public void start(long initialDelayMs, long intervalMs) {
+        scheduler.scheduleWithFixedDelay(this::runOnce, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public CompactionResult runOnce() {
+        try {
+            CompactionResult result = repository.compact(policy, System.currentTimeMillis());
+            lastResult = result;
+            if (result.getArchived() > 0 || result.getExpired() > 0) {
+                System.out.println("[STORAGE] Compaction " + result);
+            }
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("[STORAGE] Compaction failed: " + ex.getMessage());
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    public CompactionResult getLastResult() {
+        return lastResult;
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,46 @@
+package com.chat.core;
+
+/**
+ * How long history is kept hot and when it expires, separately for direct conversations and
+ * groups. A limit of zero means "no limit".
+ */
+public class RetentionPolicy {
+    public static final class Limits {
+        private final long maxAgeMs;
+        private final int maxMessages;
+
+        public Limits(long maxAgeMs, int maxMessages) {
+            this.maxAgeMs = maxAgeMs;
+            this.maxMessages = maxMessages;
+        }
+
+        public long getMaxAgeMs() {
+            return maxAgeMs;
+        }
+
+        public int getMaxMessages() {
+            return maxMessages;
+        }
+    }
+
+    private final long hotAgeMs;
+    private final Limits direct;
+    private final Limits group;
+
+    /**
+     * @param hotAgeMs messages older than this move to the compressed archive; zero keeps everything hot.
+     */
+    public RetentionPolicy(long hotAgeMs, Limits direct, Limits group) {
+        this.hotAgeMs = hotAgeMs;
+        this.direct = direct;
+        this.group = group;
+    }
+
+    public long getHotAgeMs() {
+        return hotAgeMs;
+    }
+
+    public Limits limitsFor(String targetType) {
+        return "group".equals(targetType) ? group : direct;
+    }
+}
@@ -0,0 +1,76 @@
+package com.chat.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * On-disk footprint of a repository broken down by tier (hot, archive, audio, users).
+ */
+public class StorageReport {
+    public static final class Tier {
+        private final String name;
+        private final long files;
+        private final long bytes;
+        private final long messages;
+
+        public Tier(String name, long files, long bytes, long messages) {
+            this.name = name;
+            this.files = files;
+            this.bytes = bytes;
+            this.messages = messages;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+    }
+
+    private final List<Tier> tiers = new ArrayList<>();
+
+    public StorageReport add(String name, long files, long bytes, long messages) {
+        tiers.add(new Tier(name, files, bytes, messages));
+        return this;
+    }
+
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (Tier tier : tiers) {
+            total += tier.bytes;
+        }
+        return total;
+    }
+
+    public JSONObject toJSON() {
+        JSONArray array = new JSONArray();
+        for (Tier tier : tiers) {
+            JSONObject json = new JSONObject();
+            json.put("tier", tier.name);
+            json.put("files", tier.files);
+            json.put("bytes", tier.bytes);
+            json.put("messages", tier.messages);
+            array.put(json);
+        }
+        JSONObject json = new JSONObject();
+        json.put("tiers", array);
+        json.put("totalBytes", getTotalBytes());
+        return json;
+    }
+}
@@ -16,6 +16,7 @@ public class Message {
     private final String mediaMime;
     private final long timestamp;
     private final String kind;
+    private final long seq;
 
     private Message(
         String id,
@@ -27,7 +28,8 @@ public class Message {
         String mediaPath,
         String mediaMime,
         long timestamp,
-        String kind
+        String kind,
+        long seq
     ) {
         this.id = id;
         this.from = from;
@@ -39,6 +41,7 @@ public class Message {
         this.mediaMime = mediaMime;
         this.timestamp = timestamp;
         this.kind = kind;
+        this.seq = seq;
     }
 
     public static Message text(
@@ -50,7 +53,7 @@ public class Message {
         String text,
         long timestamp
     ) {
-        return new Message(id, from, fromName, to, toType, text, null, null, timestamp, "text");
+        return new Message(id, from, fromName, to, toType, text, null, null, timestamp, "text", 0);
     }
 
     public static Message audio(
@@ -63,7 +66,14 @@ public class Message {
         String mediaMime,
         long timestamp
     ) {
-        return new Message(id, from, fromName, to, toType, null, mediaPath, mediaMime, timestamp, "audio");
+        return new Message(id, from, fromName, to, toType, null, mediaPath, mediaMime, timestamp, "audio", 0);
+    }
+
+    /**
+     * Copy stamped with its position in the conversation (1, 2, 3...); 0 means "not sequenced".
+     */
+    public Message withSeq(long seq) {
+        return new Message(id, from, fromName, to, toType, text, mediaPath, mediaMime, timestamp, kind, seq);
     }
 
     public JSONObject toJSON() {
@@ -75,6 +85,9 @@ public class Message {
         json.put("toType", toType);
         json.put("ts", timestamp);
         json.put("kind", kind);
+        if (seq > 0) {
+            json.put("seq", seq);
+        }
         if (text != null) {
             json.put("text", text);
         }
@@ -95,15 +108,16 @@ public class Message {
         String toType = json.getString("toType");
         long ts = json.getLong("ts");
         String kind = json.optString("kind", "text");
+        long seq = json.optLong("seq", 0);
 
         if ("audio".equals(kind)) {
             String audioPath = json.optString("audioFile", null);
             String mimeType = json.optString("mimeType", "audio/webm");
-            return Message.audio(id, from, fromName, to, toType, audioPath, mimeType, ts);
+            return Message.audio(id, from, fromName, to, toType, audioPath, mimeType, ts).withSeq(seq);
         }
 
         String text = json.optString("text", "");
-        return Message.text(id, from, fromName, to, toType, text, ts);
+        return Message.text(id, from, fromName, to, toType, text, ts).withSeq(seq);
     }
 
     public String getId() {
@@ -145,5 +159,9 @@ public class Message {
     public String getKind() {
         return kind;
     }
+
+    public long getSeq() {
+        return seq;
+    }
 }
 
@@ -1,12 +1,75 @@
 package com.chat.domain;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import org.json.JSONObject;
+
+/**
+ * A registered user. Only a SHA-256 hash of the session token is kept, in memory and in
+ * {@code users.log}; the token itself exists on the client alone.
+ */
 public class UserProfile {
     private final String id;
     private final String displayName;
+    private final String tokenHash;
+    private final long createdAt;
 
-    public UserProfile(String id, String displayName) {
+    public UserProfile(String id, String displayName, String tokenHash, long createdAt) {
         this.id = id;
         this.displayName = displayName;
+        this.tokenHash = tokenHash;
+        this.createdAt = createdAt;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("displayName", displayName);
+        json.put("tokenHash", tokenHash);
+        json.put("ts", createdAt);
+        return json;
+    }
+
+    /**
+     * Also reads records written before tokens were hashed, hashing their plaintext {@code token}.
+     */
+    public static UserProfile fromJSON(JSONObject json) {
+        return new UserProfile(
+            json.getString("id"),
+            json.getString("displayName"),
+            json.has("tokenHash") ? json.getString("tokenHash") : hashToken(json.optString("token", "")),
+            json.optLong("ts", 0L)
+        );
+    }
+
+    /**
+     * The stored form of a session token; empty for an empty token, which then matches nothing.
+     */
+    public static String hashToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return "";
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Constant-time check of a token presented by a client against the stored hash.
+     */
+    public boolean matchesToken(String token) {
+        if (tokenHash.isEmpty() || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+            tokenHash.getBytes(StandardCharsets.UTF_8),
+            hashToken(token).getBytes(StandardCharsets.UTF_8)
+        );
     }
 
     public String getId() {
@@ -16,5 +79,12 @@ public class UserProfile {
     public String getDisplayName() {
         return displayName;
     }
-}
 
+    public String getTokenHash() {
+        return tokenHash;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
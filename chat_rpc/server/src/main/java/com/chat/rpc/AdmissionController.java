@@ -0,0 +1,223 @@
+package com.chat.rpc;
+
+import Chat.OverloadedException;
+import com.zeroc.Ice.ConnectionInfo;
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.IPConnectionInfo;
+import com.zeroc.Ice.Properties;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Per-user rate limits per operation class plus a global cap on concurrent expensive
+ * operations. Rejections surface to clients as {@link OverloadedException} instead of
+ * letting one busy client queue work in front of everybody else.
+ *
+ * <p>Only known users get a bucket of their own; ids the server has never seen share one, so
+ * made-up ids cannot grow the table. Calls made before the client has an id (register, resume,
+ * search) are keyed by the client's address. Buckets that have refilled are swept out.
+ */
+public class AdmissionController {
+    public enum OperationClass {
+        MESSAGE(20, 40, false),
+        AUDIO(2, 5, true),
+        HISTORY(5, 10, true),
+        GROUP(1, 3, false),
+        CALL(2, 5, false),
+        READ(20, 50, false),
+        TYPING(5, 10, false),
+        HANGUP(10, 20, false),
+        SESSION(1, 5, false),
+        LOOKUP(5, 10, false);
+
+        private final double defaultRate;
+        private final int defaultBurst;
+        private final boolean expensive;
+
+        OperationClass(double defaultRate, int defaultBurst, boolean expensive) {
+            this.defaultRate = defaultRate;
+            this.defaultBurst = defaultBurst;
+            this.expensive = expensive;
+        }
+
+        String propertyName() {
+            String name = name().toLowerCase(Locale.ROOT);
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+    }
+
+    /**
+     * Held for the duration of an admitted operation; releases the expensive-operation slot on close.
+     */
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Permit NO_SLOT = () -> { };
+    private static final OperationClass[] CLASSES = OperationClass.values();
+    private static final String UNKNOWN = "?";
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final RateLimiter[] limiters = new RateLimiter[CLASSES.length];
+    private final Map<String, AtomicLong[]> buckets = new ConcurrentHashMap<>();
+    private final Semaphore expensiveSlots;
+    private final int maxExpensive;
+    private final long expensiveWaitMs;
+    private final LongAdder[] admitted = new LongAdder[CLASSES.length];
+    private final LongAdder[] rateLimited = new LongAdder[CLASSES.length];
+    private final LongAdder[] shed = new LongAdder[CLASSES.length];
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private volatile Predicate<String> knownUsers = userId -> true;
+    private volatile String trustedAdapter;
+
+    public AdmissionController(Properties properties, ChatMetrics metrics) {
+        for (OperationClass op : CLASSES) {
+            String prefix = "Chat.Limits." + op.propertyName();
+            double rate = Double.parseDouble(
+                properties.getPropertyWithDefault(prefix + ".Rate", Double.toString(op.defaultRate))
+            );
+            int burst = properties.getPropertyAsIntWithDefault(prefix + ".Burst", op.defaultBurst);
+            limiters[op.ordinal()] = new RateLimiter(rate, burst);
+
+            String label = "{op=\"" + op.name().toLowerCase(Locale.ROOT) + "\"}";
+            admitted[op.ordinal()] = metrics.counter("chat_admission_admitted_total" + label);
+            rateLimited[op.ordinal()] = metrics.counter("chat_admission_rate_limited_total" + label);
+            shed[op.ordinal()] = metrics.counter("chat_admission_shed_total" + label);
+        }
+        this.maxExpensive = properties.getPropertyAsIntWithDefault("Chat.Limits.Expensive.MaxConcurrent", 16);
+        this.expensiveWaitMs = properties.getPropertyAsIntWithDefault("Chat.Limits.Expensive.WaitMs", 50);
+        this.expensiveSlots = new Semaphore(maxExpensive);
+        metrics.gauge("chat_admission_expensive_in_flight", () -> maxExpensive - expensiveSlots.availablePermits());
+        metrics.gauge("chat_admission_expensive_limit", () -> maxExpensive);
+        metrics.gauge("chat_admission_tracked_users", buckets::size);
+    }
+
+    /**
+     * Decides which user ids get a bucket of their own; the rest share one.
+     */
+    public void setKnownUsers(Predicate<String> knownUsers) {
+        this.knownUsers = knownUsers;
+    }
+
+    /**
+     * Calls dispatched on this adapter skip the per-address limits: they come from cluster peers,
+     * which already admitted them for the client.
+     */
+    public void setTrustedAdapter(String adapterName) {
+        this.trustedAdapter = adapterName;
+    }
+
+    public Permit admit(String userId, OperationClass op) throws OverloadedException {
+        return admitKey(userId != null && knownUsers.test(userId) ? userId : UNKNOWN, op);
+    }
+
+    /**
+     * Admits a call that carries no user id yet, keyed by the address the client connects from.
+     */
+    public Permit admitClient(Current current, OperationClass op) throws OverloadedException {
+        if (current != null && current.adapter != null && current.adapter.getName().equals(trustedAdapter)) {
+            admitted[op.ordinal()].increment();
+            return NO_SLOT;
+        }
+        return admitKey(clientKey(current), op);
+    }
+
+    private Permit admitKey(String key, OperationClass op) throws OverloadedException {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        long waitNanos;
+        do {
+            AtomicLong bucket = buckets.computeIfAbsent(key, this::newBuckets)[op.ordinal()];
+            waitNanos = limiters[op.ordinal()].tryAcquire(bucket, now);
+        } while (waitNanos < 0);
+        if (waitNanos > 0) {
+            rateLimited[op.ordinal()].increment();
+            throw new OverloadedException(opName(op), "rate limit exceeded", toRetryMillis(waitNanos));
+        }
+        if (!op.expensive) {
+            admitted[op.ordinal()].increment();
+            return NO_SLOT;
+        }
+        boolean acquired;
+        try {
+            acquired = expensiveSlots.tryAcquire(expensiveWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            shed[op.ordinal()].increment();
+            throw new OverloadedException(opName(op), "server busy", (int) Math.max(expensiveWaitMs, 1));
+        }
+        admitted[op.ordinal()].increment();
+        return expensiveSlots::release;
+    }
+
+    /**
+     * Drops buckets that are full again in every class: recreating one later admits exactly the same.
+     * Each class is retired first, so a call racing the sweep either spends a token before it (and
+     * the bucket is kept) or finds it retired and moves to the fresh bucket.
+     */
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<String, AtomicLong[]> entry : buckets.entrySet()) {
+            if (retire(entry.getValue(), now)) {
+                buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean retire(AtomicLong[] perClass, long now) {
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (!limiters[i].retire(perClass[i], now)) {
+                while (--i >= 0) {
+                    limiters[i].restore(perClass[i]);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String clientKey(Current current) {
+        if (current == null || current.con == null) {
+            return UNKNOWN;
+        }
+        try {
+            for (ConnectionInfo info = current.con.getInfo(); info != null; info = info.underlying) {
+                if (info instanceof IPConnectionInfo) {
+                    return "addr:" + ((IPConnectionInfo) info).remoteAddress;
+                }
+            }
+        } catch (com.zeroc.Ice.LocalException ex) {
+            // The connection is going away; fall back to the shared bucket.
+        }
+        return UNKNOWN;
+    }
+
+    private AtomicLong[] newBuckets(String userId) {
+        AtomicLong[] perClass = new AtomicLong[CLASSES.length];
+        for (OperationClass op : CLASSES) {
+            perClass[op.ordinal()] = limiters[op.ordinal()].newBucket();
+        }
+        return perClass;
+    }
+
+    private static String opName(OperationClass op) {
+        return op.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static int toRetryMillis(long waitNanos) {
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+    }
+}
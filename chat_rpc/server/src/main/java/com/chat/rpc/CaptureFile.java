@@ -0,0 +1,302 @@
+package com.chat.rpc;
+
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.EncodingVersion;
+import com.zeroc.Ice.FormatType;
+import com.zeroc.Ice.InputStream;
+import com.zeroc.Ice.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Binary traffic capture: a header ({@code CHCP}, version, wall-clock start) followed by one
+ * record per dispatched call, in completion order. Arguments and replies are kept as the raw
+ * Ice encapsulations, so a call replays through {@code ice_invoke} without per-operation code.
+ */
+public final class CaptureFile {
+    public static final byte OK = 0;
+    public static final byte USER_EXCEPTION = 1;
+    public static final byte FAILED = 2;
+    static final String AUDIO_OPERATION = "sendAudio";
+    static final String REGISTER_OPERATION = "registerUser";
+    static final String RESUME_OPERATION = "resumeSession";
+    private static final int MAGIC = 0x43484350;
+    private static final short VERSION = 1;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private CaptureFile() {
+    }
+
+    public static final class Record {
+        public final long startNanos;
+        public final long durationNanos;
+        public final int client;
+        public final String operation;
+        public final int mode;
+        public final byte outcome;
+        /** Size of the voice note replaced by a placeholder, or -1 when the arguments are intact. */
+        public final int audioBytes;
+        public final byte[] params;
+        /** Reply of the calls that mint ids; empty otherwise. */
+        public final byte[] reply;
+
+        public Record(
+            long startNanos,
+            long durationNanos,
+            int client,
+            String operation,
+            int mode,
+            byte outcome,
+            int audioBytes,
+            byte[] params,
+            byte[] reply
+        ) {
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.client = client;
+            this.operation = operation;
+            this.mode = mode;
+            this.outcome = outcome;
+            this.audioBytes = audioBytes;
+            this.params = params != null ? params : NO_BYTES;
+            this.reply = reply != null ? reply : NO_BYTES;
+        }
+    }
+
+    /**
+     * Appends records from a background thread so dispatch threads never wait on the disk; when
+     * the queue is full the record is dropped and counted instead.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        private final BlockingQueue<Record> queue;
+        private final Thread thread;
+        private final LongAdder written = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private volatile boolean closed;
+
+        public Writer(Path file, int queueSize) throws IOException {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+            this.thread = new Thread(this::drain, "capture-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void offer(Record record) {
+            if (closed || !queue.offer(record)) {
+                dropped.increment();
+            }
+        }
+
+        public long written() {
+            return written.sum();
+        }
+
+        public long dropped() {
+            return dropped.sum();
+        }
+
+        private void drain() {
+            try {
+                while (!closed || !queue.isEmpty()) {
+                    Record record = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (record == null) {
+                        out.flush();
+                        continue;
+                    }
+                    write(record);
+                    written.increment();
+                }
+                out.flush();
+            } catch (IOException ex) {
+                closed = true;
+                ex.printStackTrace();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(Record record) throws IOException {
+            out.writeLong(record.startNanos);
+            out.writeLong(record.durationNanos);
+            out.writeInt(record.client);
+            out.writeUTF(record.operation);
+            out.writeByte(record.mode);
+            out.writeByte(record.outcome);
+            out.writeInt(record.audioBytes);
+            out.writeInt(record.params.length);
+            out.write(record.params);
+            out.writeInt(record.reply.length);
+            out.write(record.reply);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            try {
+                thread.join(5000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * All records of a capture, sorted by the time their call started.
+     */
+    public static List<Record> read(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a traffic capture");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported capture version " + version);
+            }
+            in.readLong();
+            while (true) {
+                long start;
+                try {
+                    start = in.readLong();
+                } catch (EOFException ex) {
+                    break;
+                }
+                try {
+                    long duration = in.readLong();
+                    int client = in.readInt();
+                    String operation = in.readUTF();
+                    int mode = in.readByte();
+                    byte outcome = in.readByte();
+                    int audioBytes = in.readInt();
+                    byte[] params = new byte[in.readInt()];
+                    in.readFully(params);
+                    byte[] reply = new byte[in.readInt()];
+                    in.readFully(reply);
+                    records.add(new Record(start, duration, client, operation, mode, outcome, audioBytes, params, reply));
+                } catch (EOFException ex) {
+                    // A record cut short when the server stopped; everything before it is intact.
+                    break;
+                }
+            }
+        }
+        records.sort((a, b) -> Long.compare(a.startNanos, b.startNanos));
+        return records;
+    }
+
+    /**
+     * {@code true} for the operations whose reply carries ids later calls refer to.
+     */
+    static boolean mintsIds(String operation) {
+        return REGISTER_OPERATION.equals(operation) || "createGroup".equals(operation) || "startCall".equals(operation);
+    }
+
+    /**
+     * The ids a reply hands out, in a fixed order per operation: user id and the session token's
+     * placeholder for {@code registerUser}, group id for {@code createGroup}, call id for {@code startCall}.
+     */
+    public static List<String> mintedIds(Communicator communicator, String operation, byte[] reply) {
+        if (!mintsIds(operation) || reply.length == 0) {
+            return Collections.emptyList();
+        }
+        InputStream in = new InputStream(communicator, reply);
+        in.startEncapsulation();
+        String first = in.readString();
+        if (!REGISTER_OPERATION.equals(operation)) {
+            return Collections.singletonList(first);
+        }
+        in.readString();
+        return Arrays.asList(first, in.readString());
+    }
+
+    /**
+     * Re-encodes a {@code registerUser} reply or {@code resumeSession} arguments, both of which end
+     * with a session token, with {@code redact} applied to that token.
+     */
+    static byte[] withToken(
+        Communicator communicator,
+        String operation,
+        byte[] encaps,
+        UnaryOperator<String> redact
+    ) {
+        InputStream in = new InputStream(communicator, encaps);
+        EncodingVersion encoding = in.startEncapsulation();
+        List<String> fields = new ArrayList<>();
+        int count = REGISTER_OPERATION.equals(operation) ? 3 : 2;
+        for (int i = 0; i < count; i++) {
+            fields.add(in.readString());
+        }
+        in.endEncapsulation();
+
+        OutputStream out = new OutputStream(communicator);
+        out.startEncapsulation(encoding, FormatType.DefaultFormat);
+        for (int i = 0; i < count - 1; i++) {
+            out.writeString(fields.get(i));
+        }
+        out.writeString(redact.apply(fields.get(count - 1)));
+        out.endEncapsulation();
+        return out.finished();
+    }
+
+    /**
+     * Size of the voice note in {@code sendAudio} arguments.
+     */
+    static int audioSize(Communicator communicator, byte[] params) {
+        InputStream in = new InputStream(communicator, params);
+        in.startEncapsulation();
+        in.readString();
+        in.readString();
+        in.readString();
+        return in.readSize();
+    }
+
+    /**
+     * Re-encodes {@code sendAudio} arguments with a voice note of {@code size} zero bytes: 0 to
+     * store a placeholder, the recorded size to replay it.
+     */
+    public static byte[] withAudio(Communicator communicator, byte[] params, int size) {
+        InputStream in = new InputStream(communicator, params);
+        EncodingVersion encoding = in.startEncapsulation();
+        String userId = in.readString();
+        String toId = in.readString();
+        String toType = in.readString();
+        in.readByteSeq();
+        String mimeType = in.readString();
+        String clientMsgId = in.readString();
+        in.endEncapsulation();
+
+        OutputStream out = new OutputStream(communicator);
+        out.startEncapsulation(encoding, FormatType.DefaultFormat);
+        out.writeString(userId);
+        out.writeString(toId);
+        out.writeString(toType);
+        out.writeByteSeq(new byte[size]);
+        out.writeString(mimeType);
+        out.writeString(clientMsgId);
+        out.endEncapsulation();
+        return out.finished();
+    }
+}
@@ -0,0 +1,224 @@
+package com.chat.rpc;
+
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.DispatchInterceptor;
+import com.zeroc.Ice.OutputStream;
+import com.zeroc.Ice.Properties;
+import com.zeroc.Ice.Request;
+import com.zeroc.Ice.UserException;
+import com.zeroc.IceInternal.Incoming;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sits in front of the client-facing servant and records every call into a {@link CaptureFile}
+ * for {@code com.chat.tools.TrafficReplay}: operation, raw arguments, dispatch time, outcome and
+ * the reply of the calls that mint ids. The arguments are read off the request and the stream
+ * rewound before the servant unmarshals them, so the servant does not see the capture. Calls on
+ * the same connection share a client number, which replay uses to keep their order.
+ *
+ * <p>Session tokens never reach the file: in {@code registerUser} replies and {@code resumeSession}
+ * arguments each token is replaced with a placeholder derived from it and a key drawn for this
+ * capture. The same token always gets the same placeholder, so replay can map it to the token
+ * its own server hands out, but a placeholder cannot be turned back into a token. Message text
+ * is captured as sent.
+ */
+public final class CaptureInterceptor extends DispatchInterceptor implements AutoCloseable {
+    // Reply header: protocol header (14 bytes), request id (4) and reply status (1).
+    private static final int REPLY_HEADER = 19;
+    private static final Field REPLY_STREAM = replyStreamField();
+
+    private final com.zeroc.Ice.Object servant;
+    private final CaptureFile.Writer writer;
+    private final boolean stripAudio;
+    private final long origin = System.nanoTime();
+    private final Map<Connection, Integer> clients = Collections.synchronizedMap(new WeakHashMap<>());
+    private final AtomicInteger nextClient = new AtomicInteger();
+    private final byte[] tokenKey = new byte[16];
+
+    public CaptureInterceptor(com.zeroc.Ice.Object servant, CaptureFile.Writer writer, boolean stripAudio) {
+        this.servant = servant;
+        this.writer = writer;
+        this.stripAudio = stripAudio;
+        new SecureRandom().nextBytes(tokenKey);
+    }
+
+    /**
+     * Reads {@code Chat.Capture.*}.
+     *
+     * @return {@code null} when {@code Chat.Capture.File} is empty, which leaves capture off
+     */
+    public static CaptureInterceptor fromProperties(Properties properties, com.zeroc.Ice.Object servant)
+        throws IOException {
+        String file = properties.getPropertyWithDefault("Chat.Capture.File", "");
+        if (file.isEmpty()) {
+            return null;
+        }
+        CaptureFile.Writer writer = new CaptureFile.Writer(
+            Paths.get(file), properties.getPropertyAsIntWithDefault("Chat.Capture.QueueSize", 65536));
+        return new CaptureInterceptor(
+            servant, writer, properties.getPropertyAsIntWithDefault("Chat.Capture.StripAudio", 1) > 0);
+    }
+
+    @Override
+    public CompletionStage<OutputStream> dispatch(Request request) throws UserException {
+        Current current = request.getCurrent();
+        Incoming incoming = request instanceof Incoming ? (Incoming) request : null;
+        byte[] params = null;
+        if (incoming != null) {
+            incoming.startOver();
+            params = incoming.readParamEncaps();
+            incoming.startOver();
+        }
+        long start = System.nanoTime();
+        CompletionStage<OutputStream> result;
+        try {
+            result = servant.ice_dispatch(request);
+        } catch (UserException ex) {
+            record(current, params, start, CaptureFile.USER_EXCEPTION, null);
+            throw ex;
+        } catch (RuntimeException | Error ex) {
+            record(current, params, start, CaptureFile.FAILED, null);
+            throw ex;
+        }
+        if (result == null) {
+            record(current, params, start, CaptureFile.OK, syncReply(incoming, current.operation));
+            return null;
+        }
+        byte[] captured = params;
+        return result.whenComplete((reply, error) -> record(
+            current, captured, start, outcome(error), error == null ? reply : null));
+    }
+
+    private void record(Current current, byte[] params, long start, byte outcome, OutputStream reply) {
+        long duration = System.nanoTime() - start;
+        try {
+            Communicator communicator = current.adapter.getCommunicator();
+            int audioBytes = -1;
+            if (stripAudio && params != null && CaptureFile.AUDIO_OPERATION.equals(current.operation)) {
+                audioBytes = CaptureFile.audioSize(communicator, params);
+                params = CaptureFile.withAudio(communicator, params, 0);
+            }
+            byte[] minted = CaptureFile.mintsIds(current.operation) ? replyEncaps(reply) : null;
+            if (params != null && CaptureFile.RESUME_OPERATION.equals(current.operation)) {
+                params = CaptureFile.withToken(communicator, current.operation, params, this::redact);
+            }
+            if (minted != null && CaptureFile.REGISTER_OPERATION.equals(current.operation)) {
+                minted = CaptureFile.withToken(communicator, current.operation, minted, this::redact);
+            }
+            writer.offer(new CaptureFile.Record(
+                start - origin,
+                duration,
+                client(current.con),
+                current.operation,
+                current.mode.value(),
+                outcome,
+                audioBytes,
+                params,
+                minted
+            ));
+        } catch (RuntimeException ex) {
+            // Never fail a call because it could not be captured.
+            ex.printStackTrace();
+        }
+    }
+
+    private String redact(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(tokenKey);
+            byte[] hash = digest.digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder placeholder = new StringBuilder("redacted-");
+            for (int i = 0; i < 12; i++) {
+                placeholder.append(String.format("%02x", hash[i]));
+            }
+            return placeholder.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int client(Connection connection) {
+        if (connection == null) {
+            return 0;
+        }
+        return clients.computeIfAbsent(connection, ignored -> nextClient.incrementAndGet());
+    }
+
+    private static byte outcome(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            return CaptureFile.OK;
+        }
+        return error instanceof UserException ? CaptureFile.USER_EXCEPTION : CaptureFile.FAILED;
+    }
+
+    /**
+     * A synchronous servant leaves its reply in the request; Ice 3.7 offers no accessor for it,
+     * so it is read reflectively and only for the calls that mint ids.
+     */
+    private static OutputStream syncReply(Incoming incoming, String operation) {
+        if (incoming == null || REPLY_STREAM == null || !CaptureFile.mintsIds(operation)) {
+            return null;
+        }
+        try {
+            return (OutputStream) REPLY_STREAM.get(incoming);
+        } catch (IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    private static byte[] replyEncaps(OutputStream reply) {
+        if (reply == null) {
+            return null;
+        }
+        ByteBuffer buffer = reply.getBuffer().b.duplicate();
+        buffer.flip();
+        if (buffer.remaining() <= REPLY_HEADER || buffer.get(REPLY_HEADER - 1) != 0) {
+            return null;
+        }
+        buffer.position(REPLY_HEADER);
+        byte[] encaps = new byte[buffer.remaining()];
+        buffer.get(encaps);
+        return encaps;
+    }
+
+    private static Field replyStreamField() {
+        try {
+            Field field = Incoming.class.getDeclaredField("_os");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    public long written() {
+        return writer.written();
+    }
+
+    public long dropped() {
+        return writer.dropped();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
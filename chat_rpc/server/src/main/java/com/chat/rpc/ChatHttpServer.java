@@ -0,0 +1,255 @@
+package com.chat.rpc;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded HTTP server that streams voice notes straight from disk so browsers can
+ * fetch, seek and cache them without routing the bytes through Ice. It also hosts
+ * small operational endpoints such as {@code /metrics}.
+ */
+public class ChatHttpServer {
+    public static final String AUDIO_CONTEXT = "/audio/";
+
+    private static final Pattern SAFE_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private Path audioDir;
+
+    public ChatHttpServer(String host, int port, int threads) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(executor);
+    }
+
+    public void serveAudio(Path audioDir) {
+        this.audioDir = audioDir.toAbsolutePath().normalize();
+        server.createContext(AUDIO_CONTEXT, this::handleAudio);
+    }
+
+    public void addContext(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends a small in-memory response and closes the exchange.
+     */
+    public static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        try {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleAudio(HttpExchange exchange) throws IOException {
+        try {
+            Headers response = exchange.getResponseHeaders();
+            response.set("Access-Control-Allow-Origin", "*");
+            response.set("Access-Control-Expose-Headers", "Content-Length, Content-Range, Accept-Ranges, ETag");
+            String method = exchange.getRequestMethod();
+            if ("OPTIONS".equals(method)) {
+                response.set("Access-Control-Allow-Headers", "Range, If-None-Match");
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            boolean head = "HEAD".equals(method);
+            if (!head && !"GET".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            Path file = resolve(exchange.getRequestURI().getPath());
+            if (file == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long length = attrs.size();
+            String etag = String.format("\"%x-%x\"", length, attrs.lastModifiedTime().toMillis());
+            response.set("ETag", etag);
+            response.set("Cache-Control", CACHE_CONTROL);
+            response.set("Accept-Ranges", "bytes");
+            response.set("Content-Type", contentType(file.getFileName().toString()));
+
+            if (matchesAny(exchange.getRequestHeaders().get("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            long[] bounds = range != null ? parseRange(range, length) : null;
+            if (bounds == UNSATISFIABLE) {
+                response.set("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                status = 206;
+                response.set("Content-Range", String.format("bytes %d-%d/%d", start, end, length));
+            }
+
+            long count = end - start + 1;
+            if (head || count <= 0) {
+                response.set("Content-Length", Long.toString(Math.max(count, 0)));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, count);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                 OutputStream body = exchange.getResponseBody()) {
+                // The exchange only exposes an OutputStream, so this copies through a buffer in
+                // chunks; it is not a zero-copy transfer to the socket.
+                WritableByteChannel target = Channels.newChannel(body);
+                long position = start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long sent = channel.transferTo(position, remaining, target);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Path resolve(String requestPath) {
+        String name = requestPath.substring(AUDIO_CONTEXT.length());
+        if (!SAFE_NAME.matcher(name).matches() || name.startsWith(".")) {
+            return null;
+        }
+        Path file = audioDir.resolve(name).normalize();
+        if (!file.startsWith(audioDir) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Bounds of a single {@code bytes=} range, or {@link #UNSATISFIABLE}. Returns {@code null} for
+     * several ranges, another unit or an invalid range. The header is then ignored and the whole
+     * file is sent with 200, as RFC 9110 allows.
+     */
+    private long[] parseRange(String header, long length) {
+        Matcher matcher = RANGE.matcher(header.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String from = matcher.group(1);
+        String to = matcher.group(2);
+        try {
+            if (from.isEmpty()) {
+                if (to.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(to);
+                if (suffix == 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[] {Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(from);
+            if (!to.isEmpty() && Long.parseLong(to) < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new long[] {start, to.isEmpty() ? length - 1 : Math.min(Long.parseLong(to), length - 1)};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * {@code If-None-Match} with weak comparison, as RFC 9110 requires: a {@code W/} prefix is
+     * ignored on either side and {@code *} matches any file. The header may list several tags
+     * or be repeated.
+     */
+    private static boolean matchesAny(List<String> headers, String etag) {
+        if (headers == null) {
+            return false;
+        }
+        String opaque = withoutWeakPrefix(etag);
+        for (String header : headers) {
+            for (String tag : header.split(",")) {
+                String candidate = tag.trim();
+                if (candidate.equals("*") || withoutWeakPrefix(candidate).equals(opaque)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String withoutWeakPrefix(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private String contentType(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+        switch (extension) {
+            case "webm":
+                return "audio/webm";
+            case "ogg":
+                return "audio/ogg";
+            case "mpeg":
+            case "mp3":
+                return "audio/mpeg";
+            case "wav":
+            case "x-wav":
+                return "audio/wav";
+            case "mp4":
+                return "audio/mp4";
+            default:
+                return "application/octet-stream";
+        }
+    }
+}
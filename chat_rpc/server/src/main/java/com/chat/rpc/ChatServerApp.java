@@ -1,18 +1,55 @@
 package com.chat.rpc;
 
+import com.chat.cluster.ClusterBusyFlags;
+import com.chat.cluster.ClusterMembership;
+import com.chat.cluster.ClusterNodeI;
+import com.chat.cluster.ClusterPushForwarder;
+import com.chat.cluster.ClusterRouter;
+import com.chat.cluster.ForwardedSessionInterceptor;
+import com.chat.cluster.RoutingChatSession;
+import com.chat.core.CallRegistry;
 import com.chat.core.ChatRepository;
 import com.chat.core.ChatServiceDelegate;
+import com.chat.core.ClientIdCache;
+import com.chat.core.CompactionResult;
+import com.chat.core.EphemeralCoalescer;
+import com.chat.core.ReadTracker;
+import com.chat.core.RetentionCompactor;
+import com.chat.core.RetentionPolicy;
+import com.chat.core.TimerWheel;
+import com.chat.domain.Group;
+import com.chat.domain.Message;
 import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.InitializationData;
 import com.zeroc.Ice.ObjectAdapter;
+import com.zeroc.Ice.Properties;
 import com.zeroc.Ice.Util;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
 
 public class ChatServerApp extends com.zeroc.Ice.Application {
+    private final DispatchExecutor dispatcher;
+
+    public ChatServerApp(DispatchExecutor dispatcher) {
+        this.dispatcher = dispatcher;
+    }
 
     public static void main(String[] args) {
         ensureIceConfig();
-        ChatServerApp app = new ChatServerApp();
-        int status = app.main("ChatServer", args);
+        InitializationData initData = new InitializationData();
+        initData.properties = loadProperties(args);
+        DispatchExecutor dispatcher = DispatchExecutor.fromProperties(initData.properties);
+        initData.dispatcher = dispatcher;
+        ChatServerApp app = new ChatServerApp(dispatcher);
+        int status = app.main("ChatServer", args, initData);
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
         System.exit(status);
     }
 
@@ -23,20 +60,210 @@ public class ChatServerApp extends com.zeroc.Ice.Application {
         }
     }
 
+    /**
+     * Ice itself only honors {@code --Ice.Config} and {@code ICE_CONFIG}, so the system property
+     * (one or more comma-separated files, later ones overriding) is loaded here.
+     */
+    private static Properties loadProperties(String[] args) {
+        Properties properties = Util.createProperties(args);
+        if (properties.getProperty("Ice.Config").isEmpty()) {
+            String files = System.getProperty("Ice.Config");
+            for (String file : files.split(",")) {
+                if (Files.exists(Paths.get(file.trim()))) {
+                    properties.load(file.trim());
+                } else {
+                    System.err.println("[CONFIG] " + file.trim() + " not found, using defaults");
+                }
+            }
+            properties.setProperty("Ice.Config", files);
+        }
+        return properties;
+    }
+
     @Override
     public int run(String[] args) {
         Communicator communicator = communicator();
+        ChatHttpServer httpServer = null;
+        RealtimePushManager pushManager = null;
+        TimerWheel timers = null;
+        ClusterPushForwarder forwarder = null;
+        ChatRepository repository = null;
+        RetentionCompactor compactor = null;
+        ReadTracker reads = null;
+        EphemeralCoalescer ephemeral = null;
+        CaptureInterceptor capture = null;
         try {
-            ChatRepository repository = new ChatRepository();
-            ChatServiceDelegate delegate = new ChatServiceDelegate(repository);
-            RealtimePushManager pushManager = new RealtimePushManager();
+            Properties properties = communicator.getProperties();
+            boolean mediaEnabled = properties.getPropertyAsIntWithDefault("Chat.Media.Enabled", 1) > 0;
+            String audioBaseUrl = null;
+            if (mediaEnabled) {
+                String publicUrl = properties.getPropertyWithDefault("Chat.Media.PublicUrl", "http://localhost:10080");
+                audioBaseUrl = stripTrailingSlash(publicUrl) + ChatHttpServer.AUDIO_CONTEXT;
+            }
+
+            boolean metricsEnabled = properties.getPropertyAsIntWithDefault("Chat.Metrics.Enabled", 1) > 0;
+
+            ChatMetrics metrics = new ChatMetrics();
+            if (dispatcher != null) {
+                metrics.gauge("chat_dispatch_in_flight", dispatcher::inFlight);
+                metrics.gauge("chat_dispatch_total", dispatcher::dispatched);
+                System.out.println("[DISPATCH] Ice dispatch on "
+                    + (dispatcher.isVirtual() ? "virtual threads" : "platform threads (this JDK has no virtual threads)"));
+            }
+            pushManager = new RealtimePushManager(properties, metrics);
+            timers = new TimerWheel("call-timers", 100, 512);
+            CallRegistry calls = new CallRegistry(
+                timers,
+                properties.getPropertyAsIntWithDefault("Chat.Calls.RingTimeoutMs", 30000),
+                properties.getPropertyAsIntWithDefault("Chat.Calls.IdleTimeoutMs", 20000),
+                properties.getPropertyAsIntWithDefault("Chat.Calls.ActiveTimeoutMs", 60000)
+            );
+            calls.setListener(pushManager::emitCallEvent);
+            metrics.gauge("chat_calls_active", calls::activeCount);
+
+            String dataDir = properties.getPropertyWithDefault(
+                "Chat.Data.Dir", ChatRepository.DEFAULT_DATA_DIR.toString());
+            repository = ChatRepository.open(
+                properties.getPropertyWithDefault("Chat.Storage.Backend", ChatRepository.DEFAULT_BACKEND),
+                Paths.get(dataDir),
+                audioBaseUrl
+            );
+            compactor = new RetentionCompactor(repository, retentionPolicy(properties));
+            long compactIntervalMs = TimeUnit.SECONDS.toMillis(
+                properties.getPropertyAsIntWithDefault("Chat.Retention.IntervalSec", 3600));
+            if (compactIntervalMs > 0) {
+                compactor.start(Math.min(compactIntervalMs, TimeUnit.MINUTES.toMillis(1)), compactIntervalMs);
+            }
+            ChatRepository history = repository;
+            reads = new ReadTracker(
+                Paths.get(dataDir).resolve("reads.log"),
+                (userId, targetId, targetType) -> {
+                    List<Message> newest = history.getHistoryPage(userId, targetId, targetType, 0, "", 1);
+                    return newest.isEmpty() ? 0 : newest.get(0).getSeq();
+                },
+                groupId -> {
+                    Group group = history.findGroup(groupId);
+                    return group != null ? group.getMembers() : Collections.emptyList();
+                }
+            );
+            reads.setListener(pushManager::emitReadReceipt);
+            reads.start(properties.getPropertyAsIntWithDefault("Chat.Reads.FlushMs", 500));
+            ClientIdCache sentIds = new ClientIdCache(
+                properties.getPropertyAsIntWithDefault("Chat.Dedup.MaxEntries", 100000),
+                TimeUnit.SECONDS.toMillis(properties.getPropertyAsIntWithDefault("Chat.Dedup.WindowSec", 600)),
+                metrics.counter("chat_send_duplicates_total")
+            );
+            metrics.gauge("chat_dedup_ids", sentIds::size);
+            ChatServiceDelegate delegate = new ChatServiceDelegate(repository, calls, reads, sentIds);
+            AdmissionController admission = new AdmissionController(properties, metrics);
+            admission.setKnownUsers(userId -> delegate.knownUser(userId) != null);
+
+            ephemeral = new EphemeralCoalescer(
+                properties.getPropertyAsIntWithDefault("Chat.Ephemeral.TickMs", 250),
+                properties.getPropertyAsIntWithDefault("Chat.Ephemeral.TypingTimeoutMs", 6000),
+                System::currentTimeMillis
+            );
+            ephemeral.setListener(pushManager::emitEphemeral);
+            EphemeralCoalescer presenceSink = ephemeral;
+            RealtimePushManager.PresenceListener presence =
+                (userId, online) -> presenceSink.presence(userId, online, delegate.contactsOf(userId));
+            pushManager.setPresenceListener(presence);
+            metrics.gauge("chat_ephemeral_changes_total", ephemeral::changes);
+            metrics.gauge("chat_ephemeral_updates_total", ephemeral::updates);
+            metrics.gauge("chat_ephemeral_batches_total", ephemeral::batches);
+            ephemeral.start();
 
-            String endpoints = communicator.getProperties()
+            if (mediaEnabled || metricsEnabled) {
+                httpServer = new ChatHttpServer(
+                    properties.getPropertyWithDefault("Chat.Media.Host", "0.0.0.0"),
+                    properties.getPropertyAsIntWithDefault("Chat.Media.Port", 10080),
+                    properties.getPropertyAsIntWithDefault("Chat.Media.Threads", 4)
+                );
+                if (mediaEnabled) {
+                    httpServer.serveAudio(repository.getAudioDir());
+                    System.out.println("[HTTP] Serving voice notes at " + audioBaseUrl);
+                }
+                if (metricsEnabled) {
+                    httpServer.addContext(ChatMetrics.CONTEXT, metrics::handle);
+                    ChatRepository storage = repository;
+                    RetentionCompactor storageCompactor = compactor;
+                    httpServer.addContext("/storage", exchange -> {
+                        JSONObject report = storage.storageReport().toJSON();
+                        CompactionResult last = storageCompactor.getLastResult();
+                        if (last != null) {
+                            report.put("lastCompaction", last.toString());
+                        }
+                        ChatHttpServer.respond(exchange, 200, "application/json", report.toString(2));
+                    });
+                }
+                httpServer.start();
+            }
+
+            String endpoints = properties
                 .getPropertyWithDefault("ChatAdapter.Endpoints", "ws -h 0.0.0.0 -p 10000");
             ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints("ChatAdapter", endpoints);
 
-            ChatSessionI servant = new ChatSessionI(delegate, pushManager);
-            adapter.add(servant, Util.stringToIdentity("ChatSession"));
+            ChatSessionI servant = new ChatSessionI(delegate, pushManager, admission, ephemeral);
+            com.zeroc.Ice.Object clientFacing = servant;
+            ClusterMembership membership = ClusterMembership.fromProperties(properties);
+            if (membership.isClustered()) {
+                ClusterRouter router = new ClusterRouter(
+                    communicator,
+                    membership,
+                    properties.getPropertyAsIntWithDefault("Chat.Cluster.VirtualNodes", 128),
+                    properties.getPropertyAsIntWithDefault("Chat.Cluster.TimeoutMs", 5000)
+                );
+                forwarder = new ClusterPushForwarder(
+                    router,
+                    pushManager,
+                    properties.getPropertyAsIntWithDefault("Chat.Cluster.BatchMaxSize", 256),
+                    properties.getPropertyAsIntWithDefault("Chat.Cluster.BatchDelayMs", 5),
+                    properties.getPropertyAsIntWithDefault("Chat.Cluster.StaleAfterMs", 15000),
+                    metrics
+                );
+                pushManager.setRemoteDelivery(forwarder);
+                ClusterPushForwarder locations = forwarder;
+                pushManager.setPresenceListener((userId, online) -> {
+                    presence.onPresence(userId, online);
+                    locations.announce(userId, online);
+                });
+                forwarder.setPresenceListener(presence);
+                delegate.setIdGenerator(router::newLocalId);
+                delegate.setRemoteUserResolver(router::lookupUser);
+                calls.setIdGenerator(router::newLocalId);
+                ClusterBusyFlags busyFlags = new ClusterBusyFlags(
+                    router, timers, properties.getPropertyAsIntWithDefault("Chat.Cluster.CallLeaseMs", 30000), metrics);
+                calls.setBusyFlags(busyFlags);
+
+                // Forwarded calls can call back into the forwarding node (user lookups), so the cluster
+                // adapter must not share the single-threaded default server pool with ChatAdapter.
+                if (properties.getProperty("ClusterAdapter.ThreadPool.Size").isEmpty()) {
+                    properties.setProperty("ClusterAdapter.ThreadPool.Size", "4");
+                }
+                if (properties.getProperty("ClusterAdapter.ThreadPool.SizeMax").isEmpty()) {
+                    properties.setProperty("ClusterAdapter.ThreadPool.SizeMax", "32");
+                }
+                ObjectAdapter clusterAdapter = communicator.createObjectAdapterWithEndpoints(
+                    "ClusterAdapter", membership.getSelfEndpoints());
+                admission.setTrustedAdapter(clusterAdapter.getName());
+                clusterAdapter.add(
+                    new ForwardedSessionInterceptor(servant, delegate), Util.stringToIdentity("ChatSession"));
+                clusterAdapter.add(new ClusterNodeI(delegate, forwarder, busyFlags), Util.stringToIdentity("ClusterNode"));
+                clusterAdapter.activate();
+
+                clientFacing = new RoutingChatSession(servant, router, delegate::knownUser);
+                forwarder.bootstrap();
+                System.out.println("[CLUSTER] Node " + membership.getSelfId() + " joined "
+                    + membership.getEndpoints().keySet());
+            }
+            capture = CaptureInterceptor.fromProperties(properties, clientFacing);
+            if (capture != null) {
+                metrics.gauge("chat_capture_records_total", capture::written);
+                metrics.gauge("chat_capture_dropped_total", capture::dropped);
+                clientFacing = capture;
+                System.out.println("[CAPTURE] Recording client calls to " + properties.getProperty("Chat.Capture.File"));
+            }
+            adapter.add(clientFacing, Util.stringToIdentity("ChatSession"));
             adapter.activate();
 
             System.out.println("[ICE] Chat RPC server ready. Press Ctrl+C to stop.");
@@ -45,7 +272,63 @@ public class ChatServerApp extends com.zeroc.Ice.Application {
         } catch (Exception ex) {
             ex.printStackTrace();
             return 1;
+        } finally {
+            if (ephemeral != null) {
+                ephemeral.stop();
+            }
+            if (capture != null) {
+                try {
+                    capture.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            if (forwarder != null) {
+                forwarder.shutdown();
+            }
+            if (timers != null) {
+                timers.stop();
+            }
+            if (pushManager != null) {
+                pushManager.shutdown();
+            }
+            if (httpServer != null) {
+                httpServer.stop();
+            }
+            if (compactor != null) {
+                compactor.stop();
+            }
+            if (reads != null) {
+                reads.stop();
+            }
+            if (repository != null) {
+                try {
+                    repository.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
         }
     }
+
+    private static RetentionPolicy retentionPolicy(Properties properties) {
+        return new RetentionPolicy(
+            TimeUnit.DAYS.toMillis(properties.getPropertyAsIntWithDefault("Chat.Retention.HotDays", 0)),
+            retentionLimits(properties, "Direct"),
+            retentionLimits(properties, "Group")
+        );
+    }
+
+    private static RetentionPolicy.Limits retentionLimits(Properties properties, String type) {
+        String prefix = "Chat.Retention." + type;
+        return new RetentionPolicy.Limits(
+            TimeUnit.DAYS.toMillis(properties.getPropertyAsIntWithDefault(prefix + ".MaxAgeDays", 0)),
+            properties.getPropertyAsIntWithDefault(prefix + ".MaxMessages", 0)
+        );
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
 }
 
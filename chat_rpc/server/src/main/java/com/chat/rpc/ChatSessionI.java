@@ -1,42 +1,94 @@
 package com.chat.rpc;
 
 import Chat.CallEvent;
+import Chat.CallRejectedException;
 import Chat.ChatSession;
 import Chat.GroupInfo;
+import Chat.HistoryPage;
 import Chat.MessagePayload;
+import Chat.OverloadedException;
 import Chat.RealtimePushPrx;
+import Chat.SessionInfo;
+import Chat.UnreadEntry;
 import Chat.UserInfo;
 import com.chat.core.ChatServiceDelegate;
-import com.chat.rpc.dto.CallEventData;
+import com.chat.core.EphemeralCoalescer;
+import com.chat.rpc.AdmissionController.OperationClass;
+import com.chat.rpc.AdmissionController.Permit;
+import com.chat.rpc.dto.CallSignalData;
 import com.chat.rpc.dto.GroupInfoData;
 import com.chat.rpc.dto.MessagePayloadData;
+import com.chat.rpc.dto.SessionInfoData;
+import com.chat.rpc.dto.UnreadEntryData;
 import com.chat.rpc.dto.UserInfoData;
+import com.zeroc.Ice.Connection;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatSessionI implements ChatSession {
     private final ChatServiceDelegate delegate;
     private final RealtimePushManager pushManager;
+    private final AdmissionController admission;
+    private final EphemeralCoalescer ephemeral;
+    private final Map<Connection, Map<String, RealtimePushPrx>> subscriptions = new ConcurrentHashMap<>();
 
-    public ChatSessionI(ChatServiceDelegate delegate, RealtimePushManager pushManager) {
+    public ChatSessionI(
+        ChatServiceDelegate delegate,
+        RealtimePushManager pushManager,
+        AdmissionController admission,
+        EphemeralCoalescer ephemeral
+    ) {
         this.delegate = delegate;
         this.pushManager = pushManager;
+        this.admission = admission;
+        this.ephemeral = ephemeral;
     }
 
     @Override
-    public UserInfo registerUser(String desiredName, com.zeroc.Ice.Current current) {
-        UserInfoData data = delegate.registerUser(desiredName);
-        return new UserInfo(data.getId(), data.getDisplayName());
+    public SessionInfo registerUser(String desiredName, com.zeroc.Ice.Current current) throws OverloadedException {
+        Permit permit = admission.admitClient(current, OperationClass.SESSION);
+        try (permit) {
+            return delegate.registerUser(desiredName).toSlice();
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to persist user", ex);
+        }
     }
 
     @Override
-    public GroupInfo createGroup(String userId, String name, String[] members, com.zeroc.Ice.Current current) {
-        try {
+    public SessionInfo resumeSession(String userId, String token, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.SESSION);
+        try (permit) {
+            SessionInfoData data = delegate.resumeSession(userId, token);
+            return data.toSlice();
+        }
+    }
+
+    @Override
+    public UserInfo[] findUsersByName(String displayName, com.zeroc.Ice.Current current) throws OverloadedException {
+        Permit permit = admission.admitClient(current, OperationClass.LOOKUP);
+        try (permit) {
+            List<UserInfoData> matches = delegate.findUsersByName(displayName);
+            UserInfo[] users = new UserInfo[matches.size()];
+            for (int i = 0; i < matches.size(); i++) {
+                users[i] = new UserInfo(matches.get(i).getId(), matches.get(i).getDisplayName());
+            }
+            return users;
+        }
+    }
+
+    @Override
+    public GroupInfo createGroup(String userId, String name, String[] members, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.GROUP);
+        try (permit) {
             GroupInfoData data = delegate.createGroup(userId, name, Arrays.asList(members));
             pushManager.emitGroupCreated(data);
             return data.toSlice();
@@ -51,11 +103,15 @@ public class ChatSessionI implements ChatSession {
         String toId,
         String toType,
         String text,
+        String clientMsgId,
         com.zeroc.Ice.Current current
-    ) {
-        try {
-            MessagePayloadData payload = delegate.sendText(userId, toId, toType, text);
-            broadcastMessage(payload, toType, toId, userId);
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.MESSAGE);
+        try (permit) {
+            MessagePayloadData payload = delegate.sendText(userId, toId, toType, text, clientMsgId);
+            if (payload != null) {
+                broadcastMessage(payload, toType, toId, userId);
+            }
         } catch (IOException ex) {
             throw new RuntimeException("Unable to send text message", ex);
         }
@@ -68,11 +124,15 @@ public class ChatSessionI implements ChatSession {
         String toType,
         byte[] audioData,
         String mimeType,
+        String clientMsgId,
         com.zeroc.Ice.Current current
-    ) {
-        try {
-            MessagePayloadData payload = delegate.sendAudio(userId, toId, toType, audioData, mimeType);
-            broadcastMessage(payload, toType, toId, userId);
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.AUDIO);
+        try (permit) {
+            MessagePayloadData payload = delegate.sendAudio(userId, toId, toType, audioData, mimeType, clientMsgId);
+            if (payload != null) {
+                broadcastMessage(payload, toType, toId, userId);
+            }
         } catch (IOException ex) {
             throw new RuntimeException("Unable to send audio message", ex);
         }
@@ -84,40 +144,247 @@ public class ChatSessionI implements ChatSession {
         String targetId,
         String targetType,
         com.zeroc.Ice.Current current
-    ) {
-        List<MessagePayloadData> history = delegate.getHistory(userId, targetId, targetType);
-        MessagePayload[] payloads = new MessagePayload[history.size()];
-        for (int i = 0; i < history.size(); i++) {
-            payloads[i] = toSliceMessage(history.get(i));
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.HISTORY);
+        try (permit) {
+            List<MessagePayloadData> history = delegate.getHistory(userId, targetId, targetType);
+            MessagePayload[] payloads = new MessagePayload[history.size()];
+            for (int i = 0; i < history.size(); i++) {
+                payloads[i] = history.get(i).toSlice();
+            }
+            return payloads;
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to load history", ex);
+        }
+    }
+
+    @Override
+    public MessagePayload[] getHistoryPage(
+        String userId,
+        String targetId,
+        String targetType,
+        long beforeTs,
+        String beforeId,
+        int limit,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.HISTORY);
+        try (permit) {
+            List<MessagePayloadData> page = delegate.getHistoryPage(userId, targetId, targetType, beforeTs, beforeId, limit);
+            MessagePayload[] payloads = new MessagePayload[page.size()];
+            for (int i = 0; i < page.size(); i++) {
+                payloads[i] = page.get(i).toSlice();
+            }
+            return payloads;
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to load history page", ex);
         }
-        return payloads;
     }
 
     @Override
-    public void subscribePush(String userId, RealtimePushPrx client, com.zeroc.Ice.Current current) {
+    public HistoryPage getHistoryCompact(
+        String userId,
+        String targetId,
+        String targetType,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.HISTORY);
+        try (permit) {
+            return HistoryPageCodec.encode(
+                delegate.getHistory(userId, targetId, targetType), userId, targetId, targetType);
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to load history", ex);
+        }
+    }
+
+    @Override
+    public HistoryPage getHistoryPageCompact(
+        String userId,
+        String targetId,
+        String targetType,
+        long beforeTs,
+        String beforeId,
+        int limit,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.HISTORY);
+        try (permit) {
+            return HistoryPageCodec.encode(
+                delegate.getHistoryPage(userId, targetId, targetType, beforeTs, beforeId, limit), userId, targetId, targetType);
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to load history page", ex);
+        }
+    }
+
+    @Override
+    public void markRead(
+        String userId,
+        String targetId,
+        String targetType,
+        long upToSeq,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.READ);
+        try (permit) {
+            delegate.markRead(userId, targetId, targetType, upToSeq);
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to mark conversation as read", ex);
+        }
+    }
+
+    @Override
+    public UnreadEntry[] getUnreadSummary(String userId, com.zeroc.Ice.Current current) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.READ);
+        try (permit) {
+            List<UnreadEntryData> summary = delegate.getUnreadSummary(userId);
+            UnreadEntry[] entries = new UnreadEntry[summary.size()];
+            for (int i = 0; i < summary.size(); i++) {
+                entries[i] = summary.get(i).toSlice();
+            }
+            return entries;
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to load unread summary", ex);
+        }
+    }
+
+    @Override
+    public void setTyping(
+        String userId,
+        String targetId,
+        String targetType,
+        boolean typing,
+        com.zeroc.Ice.Current current
+    ) throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.TYPING);
+        try (permit) {
+            delegate.ensureUserExists(userId);
+            ephemeral.typing(userId, targetId, targetType, typing, resolveRecipients(targetType, targetId, userId));
+        }
+    }
+
+    @Override
+    public long subscribePush(String userId, RealtimePushPrx client, com.zeroc.Ice.Current current) {
         Objects.requireNonNull(client, "Realtime push proxy cannot be null");
-        pushManager.subscribe(userId, client);
+        long ackedUpTo = pushManager.subscribe(userId, client);
+        if (current.con != null) {
+            track(current.con, userId, client);
+        }
+        return ackedUpTo;
     }
 
     @Override
     public void unsubscribePush(String userId, RealtimePushPrx client, com.zeroc.Ice.Current current) {
+        if (current.con != null) {
+            Map<String, RealtimePushPrx> onConnection = subscriptions.get(current.con);
+            if (onConnection != null) {
+                onConnection.remove(userId);
+            }
+        }
         pushManager.unsubscribe(userId);
     }
 
     @Override
-    public CallEvent startCall(String userId, String targetId, String targetType, com.zeroc.Ice.Current current) {
-        CallEventData data = delegate.startCall(userId, targetId, targetType);
-        Collection<String> recipients = resolveRecipients(targetType, targetId, userId);
-        pushManager.emitCallEvent(data, recipients);
-        return new CallEvent(data.getType(), data.getFrom(), data.getFromName(), data.getTargetId(), data.getTargetType());
+    public void ackPush(String userId, long upToDeliverySeq, com.zeroc.Ice.Current current) {
+        pushManager.ack(userId, upToDeliverySeq);
+    }
+
+    @Override
+    public CallEvent startCall(String userId, String targetId, String targetType, com.zeroc.Ice.Current current)
+        throws OverloadedException, CallRejectedException {
+        Permit permit = admission.admit(userId, OperationClass.CALL);
+        try (permit) {
+            return delegate.startCall(userId, targetId, targetType).toSlice();
+        } catch (IllegalStateException ex) {
+            throw new CallRejectedException(ex.getMessage());
+        }
     }
 
     @Override
-    public CallEvent endCall(String userId, String targetId, String targetType, com.zeroc.Ice.Current current) {
-        CallEventData data = delegate.endCall(userId, targetId, targetType);
-        Collection<String> recipients = resolveRecipients(targetType, targetId, userId);
-        pushManager.emitCallEvent(data, recipients);
-        return new CallEvent(data.getType(), data.getFrom(), data.getFromName(), data.getTargetId(), data.getTargetType());
+    public CallEvent acceptCall(String userId, String callId, com.zeroc.Ice.Current current)
+        throws OverloadedException, CallRejectedException {
+        Permit permit = admission.admit(userId, OperationClass.CALL);
+        try (permit) {
+            return delegate.acceptCall(userId, callId).toSlice();
+        } catch (IllegalStateException ex) {
+            throw new CallRejectedException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public CallEvent rejectCall(String userId, String callId, com.zeroc.Ice.Current current)
+        throws OverloadedException, CallRejectedException {
+        Permit permit = admission.admit(userId, OperationClass.HANGUP);
+        try (permit) {
+            return delegate.rejectCall(userId, callId).toSlice();
+        } catch (IllegalStateException ex) {
+            throw new CallRejectedException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public CallEvent endCall(String userId, String targetId, String targetType, com.zeroc.Ice.Current current)
+        throws OverloadedException {
+        Permit permit = admission.admit(userId, OperationClass.HANGUP);
+        try (permit) {
+            return delegate.endCall(userId, targetId, targetType).toSlice();
+        }
+    }
+
+    @Override
+    public void sendOffer(String userId, String callId, String sdp, com.zeroc.Ice.Current current)
+        throws CallRejectedException {
+        relay(new CallSignalData(callId, userId, "offer", sdp));
+    }
+
+    @Override
+    public void sendAnswer(String userId, String callId, String sdp, com.zeroc.Ice.Current current)
+        throws CallRejectedException {
+        relay(new CallSignalData(callId, userId, "answer", sdp));
+    }
+
+    @Override
+    public void sendCandidate(String userId, String callId, String candidate, com.zeroc.Ice.Current current)
+        throws CallRejectedException {
+        relay(new CallSignalData(callId, userId, "candidate", candidate));
+    }
+
+    /**
+     * A connection has a single close callback, so it is set once and covers every subscription
+     * made over that connection.
+     */
+    private void track(Connection connection, String userId, RealtimePushPrx client) {
+        Map<String, RealtimePushPrx> created = new ConcurrentHashMap<>();
+        Map<String, RealtimePushPrx> onConnection = subscriptions.putIfAbsent(connection, created);
+        if (onConnection == null) {
+            onConnection = created;
+            connection.setCloseCallback(this::connectionClosed);
+        }
+        onConnection.put(userId, client);
+        if (subscriptions.get(connection) != onConnection) {
+            // Closed while this subscription was being added; the callback may not have seen it.
+            disconnected(userId, client);
+        }
+    }
+
+    private void connectionClosed(Connection connection) {
+        Map<String, RealtimePushPrx> onConnection = subscriptions.remove(connection);
+        if (onConnection != null) {
+            onConnection.forEach(this::disconnected);
+        }
+    }
+
+    private void disconnected(String userId, RealtimePushPrx client) {
+        if (pushManager.disconnected(userId, client)) {
+            delegate.leaveCall(userId);
+        }
+    }
+
+    private void relay(CallSignalData signal) throws CallRejectedException {
+        try {
+            pushManager.emitCallSignal(signal, delegate.relayCallSignal(signal));
+        } catch (IllegalStateException ex) {
+            throw new CallRejectedException(ex.getMessage());
+        }
     }
 
     private void broadcastMessage(MessagePayloadData payload, String toType, String toId, String senderId) {
@@ -143,20 +410,5 @@ public class ChatSessionI implements ChatSession {
         }
         return recipients;
     }
-
-    private MessagePayload toSliceMessage(MessagePayloadData data) {
-        return new MessagePayload(
-            data.getId(),
-            data.getFrom(),
-            data.getFromName(),
-            data.getTo(),
-            data.getToType(),
-            data.getKind(),
-            data.getText(),
-            data.getMediaPath(),
-            data.getMediaMime(),
-            data.getTimestamp()
-        );
-    }
 }
 
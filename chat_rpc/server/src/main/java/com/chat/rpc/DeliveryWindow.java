@@ -0,0 +1,134 @@
+package com.chat.rpc;
+
+import Chat.RealtimePushPrx;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Reliable pushes to one subscriber. Every event gets the next delivery sequence number and
+ * stays here until the client acknowledges it (acks are cumulative), so it can be sent again
+ * after a failed invocation or a reconnect. The window is bounded: when it is full the oldest
+ * event is dropped and the client sees a gap in the sequence. A window whose subscriber has been
+ * gone for too long is dropped whole, and the client reloads history when it comes back.
+ */
+final class DeliveryWindow {
+    static final class Pending {
+        final long seq;
+        final PushLane lane;
+        final Function<RealtimePushPrx, CompletableFuture<Void>> send;
+        private int attempts;
+        private long nextAttemptAt;
+
+        private Pending(long seq, PushLane lane, Function<RealtimePushPrx, CompletableFuture<Void>> send) {
+            this.seq = seq;
+            this.lane = lane;
+            this.send = send;
+        }
+    }
+
+    /**
+     * Builds the invocation for an event once its delivery sequence number is known.
+     */
+    interface Event {
+        Function<RealtimePushPrx, CompletableFuture<Void>> bind(long seq);
+    }
+
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    private final int capacity;
+    private final long retransmitMs;
+    private final LongAdder overflowed;
+    private final ArrayDeque<Pending> unacked = new ArrayDeque<>();
+    private long lastSeq;
+    private long detachedAt;
+
+    DeliveryWindow(int capacity, long retransmitMs, LongAdder overflowed) {
+        this.capacity = Math.max(1, capacity);
+        this.retransmitMs = retransmitMs;
+        this.overflowed = overflowed;
+    }
+
+    /**
+     * Numbers and buffers an event. The caller sends it right away; retransmits back off from there.
+     */
+    synchronized Pending append(PushLane lane, Event event) {
+        long seq = ++lastSeq;
+        Pending pending = new Pending(seq, lane, event.bind(seq));
+        if (unacked.size() >= capacity) {
+            unacked.removeFirst();
+            overflowed.increment();
+        }
+        unacked.addLast(pending);
+        schedule(pending, System.currentTimeMillis());
+        return pending;
+    }
+
+    synchronized void ack(long upToSeq) {
+        while (!unacked.isEmpty() && unacked.peekFirst().seq <= upToSeq) {
+            unacked.removeFirst();
+        }
+    }
+
+    /**
+     * Events whose last attempt is older than their backoff, rescheduled as they are returned.
+     */
+    synchronized List<Pending> due(long now) {
+        List<Pending> due = new ArrayList<>();
+        for (Pending pending : unacked) {
+            if (pending.nextAttemptAt <= now) {
+                schedule(pending, now);
+                due.add(pending);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Everything still unacknowledged, for a client that just (re)subscribed.
+     */
+    synchronized List<Pending> replay() {
+        long now = System.currentTimeMillis();
+        for (Pending pending : unacked) {
+            pending.attempts = 0;
+            schedule(pending, now);
+        }
+        return new ArrayList<>(unacked);
+    }
+
+    /**
+     * Highest sequence number the client no longer needs to wait for.
+     */
+    synchronized long ackedUpTo() {
+        return unacked.isEmpty() ? lastSeq : unacked.peekFirst().seq - 1;
+    }
+
+    /**
+     * Starts the expiry clock when nobody is subscribed to this window; repeated calls keep the first time.
+     */
+    synchronized void detach(long now) {
+        if (detachedAt == 0) {
+            detachedAt = now;
+        }
+    }
+
+    synchronized void attach() {
+        detachedAt = 0;
+    }
+
+    synchronized boolean expired(long now, long ttlMs) {
+        return detachedAt != 0 && now - detachedAt >= ttlMs;
+    }
+
+    synchronized int size() {
+        return unacked.size();
+    }
+
+    private void schedule(Pending pending, long now) {
+        pending.nextAttemptAt = now + (retransmitMs << Math.min(pending.attempts, MAX_BACKOFF_SHIFT));
+        pending.attempts++;
+    }
+}
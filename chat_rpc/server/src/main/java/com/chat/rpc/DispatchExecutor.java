@@ -0,0 +1,136 @@
+package com.chat.rpc;
+
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.Properties;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Ice dispatcher ({@code InitializationData.dispatcher}) that runs every servant dispatch and
+ * every AMI completion, push callbacks included, on its own thread instead of Ice's fixed
+ * pool. A servant blocked on disk then holds a cheap virtual thread rather than one of the few
+ * pool threads.
+ *
+ * <p>Virtual threads are looked up reflectively so the server still builds for Java 17; on a
+ * JDK without them the {@code virtual} mode falls back to a cached pool of platform threads.
+ */
+public final class DispatchExecutor implements BiConsumer<Runnable, Connection>, AutoCloseable {
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dispatched = new LongAdder();
+
+    private DispatchExecutor(ExecutorService executor, boolean virtual) {
+        this.executor = executor;
+        this.virtual = virtual;
+    }
+
+    /**
+     * Reads {@code Chat.Dispatch.Mode}.
+     *
+     * @return {@code null} for {@code pool}, which leaves dispatch on Ice's own thread pool
+     */
+    public static DispatchExecutor fromProperties(Properties properties) {
+        String mode = properties.getPropertyWithDefault("Chat.Dispatch.Mode", POOL);
+        switch (mode) {
+            case POOL:
+                return null;
+            case VIRTUAL:
+                return create("ice-dispatch-");
+            default:
+                throw new IllegalArgumentException("Unknown dispatch mode: " + mode);
+        }
+    }
+
+    /**
+     * One virtual thread per task when the JDK supports it, otherwise a cached platform pool.
+     */
+    public static DispatchExecutor create(String threadPrefix) {
+        ThreadFactory factory = virtualThreadFactory(threadPrefix);
+        if (factory != null) {
+            try {
+                Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return new DispatchExecutor((ExecutorService) perTask.invoke(null, factory), true);
+            } catch (ReflectiveOperationException ex) {
+                // Fall through to platform threads.
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return new DispatchExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, threadPrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }), false);
+    }
+
+    /**
+     * A factory for named virtual threads, or {@code null} before JDK 21.
+     */
+    static ThreadFactory virtualThreadFactory(String threadPrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, threadPrefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs a dispatch. Once the executor is closed (communicator shutting down) the remaining
+     * calls run inline on the Ice thread, as they would without a dispatcher.
+     */
+    @Override
+    public void accept(Runnable call, Connection connection) {
+        dispatched.increment();
+        inFlight.incrementAndGet();
+        Runnable tracked = () -> {
+            try {
+                call.run();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+        try {
+            executor.execute(tracked);
+        } catch (RejectedExecutionException ex) {
+            tracked.run();
+        }
+    }
+
+    /**
+     * {@code true} when dispatches really run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long dispatched() {
+        return dispatched.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
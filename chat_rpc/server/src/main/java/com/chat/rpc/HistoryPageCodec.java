@@ -0,0 +1,157 @@
+package com.chat.rpc;
+
+import Chat.HistoryPage;
+import Chat.HistoryParticipant;
+import Chat.HistoryRow;
+import com.chat.rpc.dto.MessagePayloadData;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Converts a page of history to and from {@link HistoryPage}, the compact wire form: senders
+ * (id and display name) and mime types are sent once per page and referenced by index, kind and
+ * conversation type are single bytes, and timestamps and seqs travel as zigzag varint deltas
+ * from the previous row in {@code deltas}. The recipient is implied by the conversation: the
+ * group, or the member of the direct pair who is not the sender. The web client mirrors
+ * {@link #decode} in {@code historyPage.js}.
+ */
+public final class HistoryPageCodec {
+    public static final byte TEXT = 0;
+    public static final byte AUDIO = 1;
+    public static final byte USER = 0;
+    public static final byte GROUP = 1;
+
+    private HistoryPageCodec() {
+    }
+
+    /**
+     * @param messages oldest first, all from the conversation of {@code userId} with {@code targetId}
+     */
+    public static HistoryPage encode(
+        List<MessagePayloadData> messages,
+        String userId,
+        String targetId,
+        String targetType
+    ) {
+        boolean group = "group".equals(targetType);
+        String[] conversation = group ? new String[] {targetId} : new String[] {userId, targetId};
+        Map<String, Integer> participantIndex = new HashMap<>();
+        List<HistoryParticipant> participants = new ArrayList<>();
+        Map<String, Integer> mimeIndex = new HashMap<>();
+        List<String> mimeTypes = new ArrayList<>();
+        HistoryRow[] rows = new HistoryRow[messages.size()];
+        ByteArrayOutputStream deltas = new ByteArrayOutputStream(messages.size() * 4);
+        long firstTimestamp = messages.isEmpty() ? 0 : messages.get(0).getTimestamp();
+        long firstSeq = messages.isEmpty() ? 0 : messages.get(0).getSeq();
+        long timestamp = firstTimestamp;
+        long seq = firstSeq;
+        for (int i = 0; i < rows.length; i++) {
+            MessagePayloadData message = messages.get(i);
+            String from = nonNull(message.getFrom());
+            String fromName = nonNull(message.getFromName());
+            int sender = participantIndex.computeIfAbsent(from + '\n' + fromName, key -> {
+                participants.add(new HistoryParticipant(from, fromName));
+                return participants.size() - 1;
+            });
+            boolean audio = "audio".equals(message.getKind());
+            int mime = -1;
+            if (audio && message.getMediaMime() != null) {
+                mime = mimeIndex.computeIfAbsent(message.getMediaMime(), key -> {
+                    mimeTypes.add(key);
+                    return mimeTypes.size() - 1;
+                });
+            }
+            if (sender > Short.MAX_VALUE || mime > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct senders or mime types for one history page");
+            }
+            rows[i] = new HistoryRow(
+                nonNull(message.getId()),
+                audio ? AUDIO : TEXT,
+                (short) sender,
+                (short) mime,
+                nonNull(audio ? message.getMediaPath() : message.getText())
+            );
+            writeVarLong(deltas, message.getTimestamp() - timestamp);
+            writeVarLong(deltas, message.getSeq() - seq);
+            timestamp = message.getTimestamp();
+            seq = message.getSeq();
+        }
+        return new HistoryPage(
+            group ? GROUP : USER,
+            conversation,
+            participants.toArray(new HistoryParticipant[0]),
+            mimeTypes.toArray(new String[0]),
+            firstTimestamp,
+            firstSeq,
+            deltas.toByteArray(),
+            rows
+        );
+    }
+
+    /**
+     * Expands a page back into full messages, oldest first.
+     */
+    public static List<MessagePayloadData> decode(HistoryPage page) {
+        boolean group = page.targetType == GROUP;
+        String toType = group ? "group" : "user";
+        List<MessagePayloadData> messages = new ArrayList<>(page.rows.length);
+        int[] position = {0};
+        long timestamp = page.firstTimestamp;
+        long seq = page.firstSeq;
+        for (HistoryRow row : page.rows) {
+            HistoryParticipant sender = page.participants[row.from];
+            timestamp += readVarLong(page.deltas, position);
+            seq += readVarLong(page.deltas, position);
+            String to;
+            if (group) {
+                to = page.conversation[0];
+            } else {
+                to = Objects.equals(sender.id, page.conversation[0]) ? page.conversation[1] : page.conversation[0];
+            }
+            boolean audio = row.kind == AUDIO;
+            messages.add(new MessagePayloadData(
+                row.id,
+                sender.id,
+                sender.name,
+                to,
+                toType,
+                audio ? "audio" : "text",
+                audio ? "" : row.body,
+                audio ? row.body : "",
+                row.mimeType >= 0 ? page.mimeTypes[row.mimeType] : "",
+                timestamp,
+                seq
+            ));
+        }
+        return messages;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.write((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    private static long readVarLong(byte[] in, int[] position) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in[position[0]++];
+            zigzag |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,94 @@
+package com.chat.rpc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * One class of push traffic with its own bounded queue, its own dispatcher thread and a cap
+ * on invocations in flight, so a backlog in one lane never delays deliveries in another.
+ */
+final class PushLane {
+    private final String name;
+    private final BlockingQueue<Supplier<CompletableFuture<?>>> queue;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Thread dispatcher;
+    private final LongAdder sent;
+    private final LongAdder dropped;
+    private final LongAdder failed;
+    private volatile boolean running = true;
+
+    PushLane(String name, int queueSize, int maxInFlight, int threadPriority, ChatMetrics metrics) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        String label = "{lane=\"" + name + "\"}";
+        this.sent = metrics.counter("chat_push_sent_total" + label);
+        this.dropped = metrics.counter("chat_push_dropped_total" + label);
+        this.failed = metrics.counter("chat_push_failed_total" + label);
+        metrics.gauge("chat_push_queue_depth" + label, queue::size);
+        metrics.gauge("chat_push_in_flight" + label, () -> this.maxInFlight - inFlight.availablePermits());
+
+        this.dispatcher = new Thread(this::drain, "push-" + name);
+        dispatcher.setDaemon(true);
+        dispatcher.setPriority(threadPriority);
+        dispatcher.start();
+    }
+
+    /**
+     * Queues an invocation; returns {@code false} and counts a drop when the lane is saturated.
+     */
+    boolean offer(Supplier<CompletableFuture<?>> invocation) {
+        if (queue.offer(invocation)) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    private void drain() {
+        while (running) {
+            try {
+                Supplier<CompletableFuture<?>> invocation = queue.take();
+                inFlight.acquire();
+                dispatch(invocation);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void dispatch(Supplier<CompletableFuture<?>> invocation) {
+        CompletableFuture<?> future;
+        try {
+            future = invocation.get();
+        } catch (RuntimeException ex) {
+            inFlight.release();
+            failed.increment();
+            return;
+        }
+        future.whenComplete((result, error) -> {
+            inFlight.release();
+            if (error != null) {
+                failed.increment();
+            } else {
+                sent.increment();
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.chat.rpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket expressed in its GCRA form: the whole bucket state is the
+ * "theoretical arrival time" of the next request, so admitting a call is a single CAS.
+ */
+final class RateLimiter {
+    private static final long RETIRED = Long.MAX_VALUE;
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    RateLimiter(double permitsPerSecond, int burst) {
+        this.intervalNanos = (long) (1_000_000_000L / Math.max(permitsPerSecond, 0.001));
+        this.toleranceNanos = intervalNanos * Math.max(burst - 1, 0);
+    }
+
+    AtomicLong newBucket() {
+        return new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * A full bucket behaves exactly like a new one, so it can be dropped and recreated later. This
+     * seals it first so no call can take a token from it meanwhile; fails, changing nothing, when
+     * the bucket is not full.
+     */
+    boolean retire(AtomicLong bucket, long now) {
+        long tat = bucket.get();
+        return (tat == Long.MIN_VALUE || tat <= now) && bucket.compareAndSet(tat, RETIRED);
+    }
+
+    /**
+     * Undoes {@link #retire} for a bucket that is being kept after all.
+     */
+    void restore(AtomicLong bucket) {
+        bucket.compareAndSet(RETIRED, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return 0 when the call is admitted, a negative value when the bucket was retired and must be
+     * looked up again, otherwise the nanoseconds until a token is available.
+     */
+    long tryAcquire(AtomicLong bucket, long now) {
+        while (true) {
+            long tat = bucket.get();
+            if (tat == RETIRED) {
+                return -1;
+            }
+            long start = tat == Long.MIN_VALUE ? now : Math.max(tat, now);
+            long wait = start - now - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(tat, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -1,72 +1,408 @@
 package com.chat.rpc;
 
 import Chat.CallEvent;
+import Chat.CallSignal;
+import Chat.EphemeralBatch;
+import Chat.GroupInfo;
 import Chat.MessagePayload;
+import Chat.ReadReceipt;
 import Chat.RealtimePushPrx;
 import com.chat.rpc.dto.CallEventData;
+import com.chat.rpc.dto.CallSignalData;
+import com.chat.rpc.dto.EphemeralBatchData;
 import com.chat.rpc.dto.GroupInfoData;
 import com.chat.rpc.dto.MessagePayloadData;
+import com.chat.rpc.dto.ReadReceiptData;
+import com.zeroc.Ice.Properties;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Fans push events out to subscribed clients through prioritized lanes: call signaling,
+ * chat messages, typing/presence and group/metadata events. Each lane queues and dispatches
+ * independently so a busy group cannot delay a ringing phone. Recipients connected to
+ * another cluster node are handed to the configured {@link RemoteDelivery}.
+ *
+ * <p>Messages, read receipts and group events are delivered at least once: each carries a
+ * per-subscriber delivery sequence number and is retransmitted from a {@link DeliveryWindow}
+ * until the client acks it. Call events and typing/presence batches stay fire-and-forget; a
+ * late offer, candidate or "typing..." is worse than a lost one.
+ */
 public class RealtimePushManager {
+    /**
+     * Delivers events to recipients that are not subscribed on this node.
+     */
+    public interface RemoteDelivery {
+        void message(Collection<String> recipients, MessagePayload payload);
+
+        void callEvent(Collection<String> recipients, CallEvent event);
+
+        void callSignal(Collection<String> recipients, CallSignal signal);
+
+        void groupCreated(GroupInfo group);
+
+        void readReceipt(Collection<String> recipients, ReadReceipt receipt);
+
+        void ephemeral(Collection<String> recipients, EphemeralBatch batch);
+    }
+
+    /**
+     * Told when a user gains or loses their push subscription on this node.
+     */
+    public interface PresenceListener {
+        void onPresence(String userId, boolean online);
+    }
+
+    private static final RemoteDelivery LOCAL_ONLY = new RemoteDelivery() {
+        @Override
+        public void message(Collection<String> recipients, MessagePayload payload) {
+        }
+
+        @Override
+        public void callEvent(Collection<String> recipients, CallEvent event) {
+        }
+
+        @Override
+        public void callSignal(Collection<String> recipients, CallSignal signal) {
+        }
+
+        @Override
+        public void groupCreated(GroupInfo group) {
+        }
+
+        @Override
+        public void readReceipt(Collection<String> recipients, ReadReceipt receipt) {
+        }
+
+        @Override
+        public void ephemeral(Collection<String> recipients, EphemeralBatch batch) {
+        }
+    };
+
     private final Map<String, RealtimePushPrx> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, DeliveryWindow> windows = new ConcurrentHashMap<>();
+    private final PushLane callLane;
+    private final PushLane messageLane;
+    private final PushLane groupLane;
+    private final PushLane ephemeralLane;
+    private final int windowSize;
+    private final long retransmitMs;
+    private final long windowTtlMs;
+    private final LongAdder retransmits;
+    private final LongAdder overflowed;
+    private final LongAdder expired;
+    private final ScheduledExecutorService retransmitter;
+    private volatile RemoteDelivery remote = LOCAL_ONLY;
+    private volatile PresenceListener presenceListener = (userId, online) -> { };
+
+    public RealtimePushManager(Properties properties, ChatMetrics metrics) {
+        this.callLane = newLane("call", properties, 1024, 64, Thread.MAX_PRIORITY, metrics);
+        this.messageLane = newLane("message", properties, 8192, 256, Thread.NORM_PRIORITY, metrics);
+        this.groupLane = newLane("group", properties, 1024, 32, Thread.MIN_PRIORITY, metrics);
+        this.ephemeralLane = newLane("ephemeral", properties, 4096, 128, Thread.NORM_PRIORITY - 1, metrics);
+        this.windowSize = properties.getPropertyAsIntWithDefault("Chat.Push.Window", 512);
+        this.retransmitMs = Math.max(100, properties.getPropertyAsIntWithDefault("Chat.Push.RetransmitMs", 2000));
+        this.windowTtlMs = 1000L * Math.max(1, properties.getPropertyAsIntWithDefault("Chat.Push.WindowTtlSec", 300));
+        this.retransmits = metrics.counter("chat_push_retransmits_total");
+        this.overflowed = metrics.counter("chat_push_window_overflow_total");
+        this.expired = metrics.counter("chat_push_window_expired_total");
+        metrics.gauge("chat_push_subscribers", subscribers::size);
+        metrics.gauge("chat_push_unacked", this::unackedCount);
+
+        this.retransmitter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "push-retransmit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tickMs = Math.max(50, retransmitMs / 2);
+        retransmitter.scheduleWithFixedDelay(this::retransmitDue, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
 
-    public void subscribe(String userId, RealtimePushPrx client) {
-        subscribers.put(userId, client);
+    /**
+     * Attaches the client's push proxy. A user who reconnects within {@code Chat.Push.WindowTtlSec}
+     * keeps their delivery window, so everything they have not acked yet is sent again to the new
+     * proxy; after that the window is gone and numbering restarts.
+     *
+     * @return the delivery sequence number the client is acknowledged up to
+     */
+    public long subscribe(String userId, RealtimePushPrx client) {
+        if (subscribers.put(userId, client) == null) {
+            presenceListener.onPresence(userId, true);
+        }
+        DeliveryWindow window = windows.computeIfAbsent(userId, key -> newWindow());
+        window.attach();
+        long ackedUpTo = window.ackedUpTo();
+        for (DeliveryWindow.Pending pending : window.replay()) {
+            transmit(userId, pending);
+        }
+        return ackedUpTo;
     }
 
     public void unsubscribe(String userId) {
-        subscribers.remove(userId);
+        windows.remove(userId);
+        if (subscribers.remove(userId) != null) {
+            presenceListener.onPresence(userId, false);
+        }
+    }
+
+    /**
+     * The connection behind {@code client} closed without an unsubscribe. The delivery window is
+     * kept for {@code Chat.Push.WindowTtlSec} so a quick reconnect still gets its replay. Returns
+     * {@code false} when the user has already subscribed again from another connection.
+     */
+    public boolean disconnected(String userId, RealtimePushPrx client) {
+        if (subscribers.remove(userId, client)) {
+            presenceListener.onPresence(userId, false);
+            return true;
+        }
+        return false;
+    }
+
+    public void setPresenceListener(PresenceListener presenceListener) {
+        this.presenceListener = presenceListener;
+    }
+
+    /**
+     * Drops every reliable push up to {@code upToSeq}; acks are cumulative.
+     */
+    public void ack(String userId, long upToSeq) {
+        DeliveryWindow window = windows.get(userId);
+        if (window != null) {
+            window.ack(upToSeq);
+        }
+    }
+
+    public void setRemoteDelivery(RemoteDelivery remote) {
+        this.remote = remote;
+    }
+
+    public Collection<String> localSubscribers() {
+        return subscribers.keySet();
     }
 
     public void emitMessage(MessagePayloadData payload, Collection<String> recipients) {
-        MessagePayload slicePayload = toSliceMessage(payload);
+        MessagePayload slicePayload = payload.toSlice();
+        List<String> elsewhere = deliverMessage(recipients, slicePayload);
+        if (!elsewhere.isEmpty()) {
+            remote.message(elsewhere, slicePayload);
+        }
+    }
+
+    public void emitGroupCreated(GroupInfoData group) {
+        GroupInfo sliceGroup = group.toSlice();
+        deliverGroupCreated(sliceGroup);
+        remote.groupCreated(sliceGroup);
+    }
+
+    /**
+     * Read receipts share the message lane so they never overtake the messages they acknowledge.
+     */
+    public void emitReadReceipt(ReadReceiptData data, Collection<String> recipients) {
+        ReadReceipt receipt = data.toSlice();
+        List<String> elsewhere = deliverReadReceipt(recipients, receipt);
+        if (!elsewhere.isEmpty()) {
+            remote.readReceipt(elsewhere, receipt);
+        }
+    }
+
+    /**
+     * Typing and presence for one recipient, oneway on their own lane: never persisted, never
+     * retransmitted and never queued behind durable messages.
+     */
+    public void emitEphemeral(String recipient, EphemeralBatchData data) {
+        EphemeralBatch batch = data.toSlice();
+        List<String> elsewhere = deliverEphemeral(Collections.singletonList(recipient), batch);
+        if (!elsewhere.isEmpty()) {
+            remote.ephemeral(elsewhere, batch);
+        }
+    }
+
+    /**
+     * Call signaling goes oneway on the highest priority lane: the caller already has the
+     * event as the RPC result, so waiting for a reply from each callee buys nothing.
+     */
+    public void emitCallEvent(CallEventData data, Collection<String> recipients) {
+        CallEvent event = data.toSlice();
+        List<String> elsewhere = deliverCallEvent(recipients, event);
+        if (!elsewhere.isEmpty()) {
+            remote.callEvent(elsewhere, event);
+        }
+    }
+
+    /**
+     * Relays WebRTC offers, answers and ICE candidates on the call lane, oneway.
+     */
+    public void emitCallSignal(CallSignalData data, Collection<String> recipients) {
+        CallSignal signal = data.toSlice();
+        List<String> elsewhere = deliverCallSignal(recipients, signal);
+        if (!elsewhere.isEmpty()) {
+            remote.callSignal(elsewhere, signal);
+        }
+    }
+
+    /**
+     * Pushes to the recipients subscribed on this node and returns the ones that are not.
+     */
+    public List<String> deliverMessage(Collection<String> recipients, MessagePayload payload) {
+        List<String> elsewhere = new ArrayList<>();
+        for (String recipient : recipients) {
+            if (subscribers.containsKey(recipient)) {
+                reliable(recipient, messageLane, seq -> client -> client.onIncomingMessageAsync(payload, seq));
+            } else {
+                elsewhere.add(recipient);
+            }
+        }
+        return elsewhere;
+    }
+
+    public List<String> deliverReadReceipt(Collection<String> recipients, ReadReceipt receipt) {
+        List<String> elsewhere = new ArrayList<>();
+        for (String recipient : recipients) {
+            if (subscribers.containsKey(recipient)) {
+                reliable(recipient, messageLane, seq -> client -> client.onReadReceiptAsync(receipt, seq));
+            } else {
+                elsewhere.add(recipient);
+            }
+        }
+        return elsewhere;
+    }
+
+    public List<String> deliverEphemeral(Collection<String> recipients, EphemeralBatch batch) {
+        List<String> elsewhere = new ArrayList<>();
         for (String recipient : recipients) {
             RealtimePushPrx client = subscribers.get(recipient);
             if (client != null) {
-                CompletableFuture
-                    .runAsync(() -> client.onIncomingMessage(slicePayload))
-                    .exceptionally(ex -> null);
+                RealtimePushPrx oneway = client.ice_oneway();
+                ephemeralLane.offer(() -> oneway.onEphemeralBatchAsync(batch));
+            } else {
+                elsewhere.add(recipient);
             }
         }
+        return elsewhere;
     }
 
-    public void emitGroupCreated(GroupInfoData group) {
-        for (RealtimePushPrx client : subscribers.values()) {
-            CompletableFuture
-                .runAsync(() -> client.onGroupCreated(group.toSlice()))
-                .exceptionally(ex -> null);
+    public void deliverGroupCreated(GroupInfo group) {
+        for (String userId : subscribers.keySet()) {
+            reliable(userId, groupLane, seq -> client -> client.onGroupCreatedAsync(group, seq));
         }
     }
 
-    public void emitCallEvent(CallEventData data, Collection<String> recipients) {
-        CallEvent event = new CallEvent(data.getType(), data.getFrom(), data.getFromName(), data.getTargetId(), data.getTargetType());
+    public List<String> deliverCallEvent(Collection<String> recipients, CallEvent event) {
+        List<String> elsewhere = new ArrayList<>();
         for (String recipient : recipients) {
             RealtimePushPrx client = subscribers.get(recipient);
             if (client != null) {
-                CompletableFuture
-                    .runAsync(() -> client.onCallEvent(event))
-                    .exceptionally(ex -> null);
+                RealtimePushPrx oneway = client.ice_oneway();
+                callLane.offer(() -> oneway.onCallEventAsync(event));
+            } else {
+                elsewhere.add(recipient);
             }
         }
+        return elsewhere;
     }
 
-    private MessagePayload toSliceMessage(MessagePayloadData payload) {
-        return new MessagePayload(
-            payload.getId(),
-            payload.getFrom(),
-            payload.getFromName(),
-            payload.getTo(),
-            payload.getToType(),
-            payload.getKind(),
-            payload.getText(),
-            payload.getMediaPath(),
-            payload.getMediaMime(),
-            payload.getTimestamp()
+    public List<String> deliverCallSignal(Collection<String> recipients, CallSignal signal) {
+        List<String> elsewhere = new ArrayList<>();
+        for (String recipient : recipients) {
+            RealtimePushPrx client = subscribers.get(recipient);
+            if (client != null) {
+                RealtimePushPrx oneway = client.ice_oneway();
+                callLane.offer(() -> oneway.onCallSignalAsync(signal));
+            } else {
+                elsewhere.add(recipient);
+            }
+        }
+        return elsewhere;
+    }
+
+    public void shutdown() {
+        retransmitter.shutdownNow();
+        callLane.shutdown();
+        messageLane.shutdown();
+        groupLane.shutdown();
+        ephemeralLane.shutdown();
+    }
+
+    private void reliable(String userId, PushLane lane, DeliveryWindow.Event event) {
+        DeliveryWindow window = windows.computeIfAbsent(userId, key -> newWindow());
+        transmit(userId, window.append(lane, event));
+    }
+
+    private void transmit(String userId, DeliveryWindow.Pending pending) {
+        pending.lane.offer(() -> {
+            RealtimePushPrx client = subscribers.get(userId);
+            if (client == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return pending.send.apply(client);
+        });
+    }
+
+    /**
+     * Windows without a subscriber are not retransmitted: the lanes would only carry no-ops that
+     * crowd out live pushes. They wait for a resubscribe and are dropped after the TTL.
+     */
+    private void retransmitDue() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, DeliveryWindow> entry : windows.entrySet()) {
+            if (!subscribers.containsKey(entry.getKey())) {
+                // Re-checked under the map's lock so a concurrent subscribe keeps its window.
+                windows.computeIfPresent(entry.getKey(), (userId, window) -> {
+                    if (subscribers.containsKey(userId)) {
+                        return window;
+                    }
+                    window.detach(now);
+                    if (!window.expired(now, windowTtlMs)) {
+                        return window;
+                    }
+                    expired.increment();
+                    return null;
+                });
+                continue;
+            }
+            for (DeliveryWindow.Pending pending : entry.getValue().due(now)) {
+                retransmits.increment();
+                transmit(entry.getKey(), pending);
+            }
+        }
+    }
+
+    private DeliveryWindow newWindow() {
+        return new DeliveryWindow(windowSize, retransmitMs, overflowed);
+    }
+
+    private long unackedCount() {
+        long count = 0;
+        for (DeliveryWindow window : windows.values()) {
+            count += window.size();
+        }
+        return count;
+    }
+
+    private static PushLane newLane(
+        String name,
+        Properties properties,
+        int defaultQueueSize,
+        int defaultInFlight,
+        int threadPriority,
+        ChatMetrics metrics
+    ) {
+        String prefix = "Chat.Push." + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        return new PushLane(
+            name,
+            properties.getPropertyAsIntWithDefault(prefix + ".QueueSize", defaultQueueSize),
+            properties.getPropertyAsIntWithDefault(prefix + ".MaxInFlight", defaultInFlight),
+            threadPriority,
+            metrics
         );
     }
 }
-
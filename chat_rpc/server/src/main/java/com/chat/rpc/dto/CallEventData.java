@@ -1,13 +1,24 @@
 package com.chat.rpc.dto;
 
+import Chat.CallEvent;
+
 public class CallEventData {
+    private final String callId;
     private final String type;
     private final String from;
     private final String fromName;
     private final String targetId;
     private final String targetType;
 
-    public CallEventData(String type, String from, String fromName, String targetId, String targetType) {
+    public CallEventData(
+        String callId,
+        String type,
+        String from,
+        String fromName,
+        String targetId,
+        String targetType
+    ) {
+        this.callId = callId;
         this.type = type;
         this.from = from;
         this.fromName = fromName;
@@ -15,6 +26,10 @@ public class CallEventData {
         this.targetType = targetType;
     }
 
+    public String getCallId() {
+        return callId;
+    }
+
     public String getType() {
         return type;
     }
@@ -34,5 +49,8 @@ public class CallEventData {
     public String getTargetType() {
         return targetType;
     }
-}
 
+    public CallEvent toSlice() {
+        return new CallEvent(callId, type, from, fromName, targetId, targetType);
+    }
+}
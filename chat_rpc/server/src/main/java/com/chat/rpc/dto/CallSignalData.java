@@ -0,0 +1,37 @@
+package com.chat.rpc.dto;
+
+import Chat.CallSignal;
+
+public class CallSignalData {
+    private final String callId;
+    private final String from;
+    private final String kind;
+    private final String payload;
+
+    public CallSignalData(String callId, String from, String kind, String payload) {
+        this.callId = callId;
+        this.from = from;
+        this.kind = kind;
+        this.payload = payload;
+    }
+
+    public String getCallId() {
+        return callId;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public CallSignal toSlice() {
+        return new CallSignal(callId, from, kind, payload);
+    }
+}
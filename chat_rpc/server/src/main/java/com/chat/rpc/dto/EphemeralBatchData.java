@@ -0,0 +1,43 @@
+package com.chat.rpc.dto;
+
+import Chat.EphemeralBatch;
+import Chat.PresenceUpdate;
+import Chat.TypingUpdate;
+import java.util.List;
+
+/**
+ * Presence and typing changes for one recipient, collected over one coalescing tick.
+ */
+public class EphemeralBatchData {
+    private final List<PresenceUpdateData> presence;
+    private final List<TypingUpdateData> typing;
+
+    public EphemeralBatchData(List<PresenceUpdateData> presence, List<TypingUpdateData> typing) {
+        this.presence = presence;
+        this.typing = typing;
+    }
+
+    public List<PresenceUpdateData> getPresence() {
+        return presence;
+    }
+
+    public List<TypingUpdateData> getTyping() {
+        return typing;
+    }
+
+    public int size() {
+        return presence.size() + typing.size();
+    }
+
+    public EphemeralBatch toSlice() {
+        PresenceUpdate[] presenceUpdates = new PresenceUpdate[presence.size()];
+        for (int i = 0; i < presenceUpdates.length; i++) {
+            presenceUpdates[i] = presence.get(i).toSlice();
+        }
+        TypingUpdate[] typingUpdates = new TypingUpdate[typing.size()];
+        for (int i = 0; i < typingUpdates.length; i++) {
+            typingUpdates[i] = typing.get(i).toSlice();
+        }
+        return new EphemeralBatch(presenceUpdates, typingUpdates);
+    }
+}
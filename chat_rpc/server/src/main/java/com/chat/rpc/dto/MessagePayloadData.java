@@ -1,5 +1,6 @@
 package com.chat.rpc.dto;
 
+import Chat.MessagePayload;
 import com.chat.domain.Message;
 
 public class MessagePayloadData {
@@ -13,6 +14,7 @@ public class MessagePayloadData {
     private final String mediaPath;
     private final String mediaMime;
     private final long timestamp;
+    private final long seq;
 
     public MessagePayloadData(
         String id,
@@ -24,7 +26,8 @@ public class MessagePayloadData {
         String text,
         String mediaPath,
         String mediaMime,
-        long timestamp
+        long timestamp,
+        long seq
     ) {
         this.id = id;
         this.from = from;
@@ -36,6 +39,7 @@ public class MessagePayloadData {
         this.mediaPath = mediaPath;
         this.mediaMime = mediaMime;
         this.timestamp = timestamp;
+        this.seq = seq;
     }
 
     public static MessagePayloadData from(Message message) {
@@ -49,7 +53,8 @@ public class MessagePayloadData {
             message.getText(),
             message.getMediaPath(),
             message.getMediaMime(),
-            message.getTimestamp()
+            message.getTimestamp(),
+            message.getSeq()
         );
     }
 
@@ -92,5 +97,12 @@ public class MessagePayloadData {
     public long getTimestamp() {
         return timestamp;
     }
-}
 
+    public long getSeq() {
+        return seq;
+    }
+
+    public MessagePayload toSlice() {
+        return new MessagePayload(id, from, fromName, to, toType, kind, text, mediaPath, mediaMime, timestamp, seq);
+    }
+}
@@ -0,0 +1,34 @@
+package com.chat.rpc.dto;
+
+import Chat.PresenceUpdate;
+
+/**
+ * A user came online or went offline at {@code at} (epoch millis).
+ */
+public class PresenceUpdateData {
+    private final String userId;
+    private final boolean online;
+    private final long at;
+
+    public PresenceUpdateData(String userId, boolean online, long at) {
+        this.userId = userId;
+        this.online = online;
+        this.at = at;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public long getAt() {
+        return at;
+    }
+
+    public PresenceUpdate toSlice() {
+        return new PresenceUpdate(userId, online, at);
+    }
+}
@@ -0,0 +1,42 @@
+package com.chat.rpc.dto;
+
+import Chat.ReadReceipt;
+
+/**
+ * "{@code readerId} has read the conversation up to {@code upToSeq}". For a direct conversation
+ * {@code targetId} is the reader (the conversation as the recipient sees it); for a group it is
+ * the group id.
+ */
+public class ReadReceiptData {
+    private final String readerId;
+    private final String targetId;
+    private final String targetType;
+    private final long upToSeq;
+
+    public ReadReceiptData(String readerId, String targetId, String targetType, long upToSeq) {
+        this.readerId = readerId;
+        this.targetId = targetId;
+        this.targetType = targetType;
+        this.upToSeq = upToSeq;
+    }
+
+    public String getReaderId() {
+        return readerId;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    public long getUpToSeq() {
+        return upToSeq;
+    }
+
+    public ReadReceipt toSlice() {
+        return new ReadReceipt(readerId, targetId, targetType, upToSeq);
+    }
+}
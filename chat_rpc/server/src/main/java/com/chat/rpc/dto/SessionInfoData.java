@@ -0,0 +1,26 @@
+package com.chat.rpc.dto;
+
+import Chat.SessionInfo;
+import Chat.UserInfo;
+
+public class SessionInfoData {
+    private final UserInfoData user;
+    private final String token;
+
+    public SessionInfoData(UserInfoData user, String token) {
+        this.user = user;
+        this.token = token;
+    }
+
+    public UserInfoData getUser() {
+        return user;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public SessionInfo toSlice() {
+        return new SessionInfo(new UserInfo(user.getId(), user.getDisplayName()), token);
+    }
+}
@@ -0,0 +1,41 @@
+package com.chat.rpc.dto;
+
+import Chat.TypingUpdate;
+
+/**
+ * "{@code userId} started or stopped typing". As with {@link ReadReceiptData}, {@code targetId}
+ * is the conversation as the recipient sees it: the typer for a direct chat, the group id otherwise.
+ */
+public class TypingUpdateData {
+    private final String userId;
+    private final String targetId;
+    private final String targetType;
+    private final boolean typing;
+
+    public TypingUpdateData(String userId, String targetId, String targetType, boolean typing) {
+        this.userId = userId;
+        this.targetId = targetId;
+        this.targetType = targetType;
+        this.typing = typing;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    public boolean isTyping() {
+        return typing;
+    }
+
+    public TypingUpdate toSlice() {
+        return new TypingUpdate(userId, targetId, targetType, typing);
+    }
+}
@@ -0,0 +1,41 @@
+package com.chat.rpc.dto;
+
+import Chat.UnreadEntry;
+
+public class UnreadEntryData {
+    private final String targetId;
+    private final String targetType;
+    private final long lastSeq;
+    private final long readSeq;
+
+    public UnreadEntryData(String targetId, String targetType, long lastSeq, long readSeq) {
+        this.targetId = targetId;
+        this.targetType = targetType;
+        this.lastSeq = lastSeq;
+        this.readSeq = readSeq;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public long getReadSeq() {
+        return readSeq;
+    }
+
+    public int getUnread() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, lastSeq - readSeq));
+    }
+
+    public UnreadEntry toSlice() {
+        return new UnreadEntry(targetId, targetType, lastSeq, readSeq, getUnread());
+    }
+}
@@ -0,0 +1,262 @@
+package com.chat.tools;
+
+import com.chat.core.CallRegistry;
+import com.chat.core.ChatRepository;
+import com.chat.core.ChatServiceDelegate;
+import com.chat.core.ClientIdCache;
+import com.chat.core.EphemeralCoalescer;
+import com.chat.core.ReadTracker;
+import com.chat.core.TimerWheel;
+import com.chat.domain.Group;
+import com.chat.domain.Message;
+import com.chat.rpc.AdmissionController;
+import com.chat.rpc.ChatMetrics;
+import com.chat.rpc.ChatSessionI;
+import com.chat.rpc.DispatchExecutor;
+import com.chat.rpc.RealtimePushManager;
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.Properties;
+import com.zeroc.Ice.Util;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Runs the same load against a real {@link ChatSessionI} twice over: dispatched on a fixed pool
+ * the size of {@code Ice.ThreadPool.Server.Size} (one row per size) and on
+ * {@link DispatchExecutor}. Each client issues texts, history pages and voice notes one after
+ * another and waits for each reply. Calls are handed to the executor in process, the way Ice
+ * hands them over once a request is unmarshalled, so sockets do not blur the comparison.
+ *
+ * <p>While it runs, JFR {@code jdk.VirtualThreadPinned} events are collected: a virtual thread
+ * that blocks while holding a monitor shows up there with the frame that pinned it. The event
+ * exists from JDK 21 on; on older JDKs the column stays at zero and {@code virtual} falls back
+ * to platform threads.
+ *
+ * <pre>DispatchBenchmark [--poolSizes 1,8] [--clients 64] [--calls 200] [--backend log] [--audioKiB 16]</pre>
+ */
+public final class DispatchBenchmark {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private DispatchBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> poolSizes = Arrays.asList(1, 8);
+        int clients = 64;
+        int calls = 200;
+        String backend = "log";
+        int audioKiB = 16;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--poolSizes":
+                    poolSizes = new ArrayList<>();
+                    for (String size : args[i + 1].split(",")) {
+                        poolSizes.add(Integer.parseInt(size.trim()));
+                    }
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--calls":
+                    calls = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--backend":
+                    backend = args[i + 1];
+                    break;
+                case "--audioKiB":
+                    audioKiB = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Map<String, LongAdder> pinnedFrames = new ConcurrentHashMap<>();
+        LongAdder pinned = new LongAdder();
+        try (RecordingStream jfr = new RecordingStream()) {
+            jfr.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            jfr.onEvent(PINNED_EVENT, event -> {
+                pinned.increment();
+                pinnedFrames.computeIfAbsent(firstAppFrame(event.getStackTrace()), key -> new LongAdder()).increment();
+            });
+            jfr.startAsync();
+
+            System.out.printf("clients=%d calls/client=%d backend=%s audio=%d KiB java=%s%n%n",
+                clients, calls, backend, audioKiB, System.getProperty("java.version"));
+            System.out.printf("%-16s %10s %10s %10s %10s %8s %8s%n",
+                "dispatch", "calls/s", "p50 ms", "p99 ms", "max ms", "errors", "pinned");
+            for (int size : poolSizes) {
+                ExecutorService pool = Executors.newFixedThreadPool(size);
+                try {
+                    run("pool(" + size + ")", pool, clients, calls, backend, audioKiB, pinned);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            DispatchExecutor dispatcher = DispatchExecutor.create("bench-dispatch-");
+            try {
+                String label = dispatcher.isVirtual() ? "virtual" : "cached(no VT)";
+                run(label, call -> dispatcher.accept(call, null), clients, calls, backend, audioKiB, pinned);
+            } finally {
+                dispatcher.close();
+            }
+        }
+        if (!pinnedFrames.isEmpty()) {
+            System.out.println();
+            System.out.println("pinned at:");
+            pinnedFrames.forEach((frame, count) -> System.out.printf("  %6d  %s%n", count.sum(), frame));
+        }
+    }
+
+    private static void run(
+        String label,
+        Executor executor,
+        int clients,
+        int calls,
+        String backend,
+        int audioKiB,
+        LongAdder pinned
+    ) throws Exception {
+        Path dir = Files.createTempDirectory("chat-dispatch-");
+        Properties properties = Util.createProperties();
+        for (String op : new String[] {"Message", "Audio", "History", "Group", "Call", "Read", "Typing"}) {
+            properties.setProperty("Chat.Limits." + op + ".Rate", "1000000");
+            properties.setProperty("Chat.Limits." + op + ".Burst", "1000000");
+        }
+        properties.setProperty("Chat.Limits.Expensive.MaxConcurrent", "1024");
+        properties.setProperty("Chat.Limits.Expensive.WaitMs", "1000");
+
+        ChatMetrics metrics = new ChatMetrics();
+        RealtimePushManager pushManager = new RealtimePushManager(properties, metrics);
+        TimerWheel timers = new TimerWheel("bench-timers", 100, 512);
+        EphemeralCoalescer ephemeral = new EphemeralCoalescer(250, 6000, System::currentTimeMillis);
+        long pinnedBefore = pinned.sum();
+        try (ChatRepository repository = ChatRepository.open(backend, dir, null)) {
+            ReadTracker reads = new ReadTracker(
+                dir.resolve("reads.log"),
+                (userId, targetId, targetType) -> {
+                    List<Message> newest = repository.getHistoryPage(userId, targetId, targetType, 0, "", 1);
+                    return newest.isEmpty() ? 0 : newest.get(0).getSeq();
+                },
+                groupId -> {
+                    Group group = repository.findGroup(groupId);
+                    return group != null ? group.getMembers() : Collections.emptyList();
+                }
+            );
+            try {
+                ChatServiceDelegate delegate = new ChatServiceDelegate(
+                    repository,
+                    new CallRegistry(timers, 30000, 20000, 60000),
+                    reads,
+                    new ClientIdCache(100000, 600000, new LongAdder())
+                );
+                ChatSessionI session = new ChatSessionI(
+                    delegate, pushManager, new AdmissionController(properties, metrics), ephemeral);
+                Current current = new Current();
+
+                String[] users = new String[clients];
+                for (int i = 0; i < clients; i++) {
+                    users[i] = session.registerUser("bench-" + i, current).user.id;
+                }
+                byte[] audio = new byte[audioKiB * 1024];
+                long[][] latencies = new long[clients][calls];
+                AtomicLong errors = new AtomicLong();
+                CountDownLatch go = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<>();
+                for (int c = 0; c < clients; c++) {
+                    int index = c;
+                    Thread thread = new Thread(() -> {
+                        String self = users[index];
+                        String peer = users[(index + 1) % users.length];
+                        try {
+                            go.await();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                        for (int k = 0; k < calls; k++) {
+                            int call = k;
+                            FutureTask<Void> dispatch = new FutureTask<>(() -> {
+                                if (call % 10 == 9) {
+                                    session.sendAudio(self, peer, "user", audio, "audio/webm", self + "-" + call, current);
+                                } else if (call % 4 == 3) {
+                                    session.getHistoryPage(self, peer, "user", 0, "", 50, current);
+                                } else {
+                                    session.sendText(self, peer, "user", "message " + call, self + "-" + call, current);
+                                }
+                                return null;
+                            });
+                            long began = System.nanoTime();
+                            executor.execute(dispatch);
+                            try {
+                                dispatch.get();
+                            } catch (ExecutionException ex) {
+                                errors.incrementAndGet();
+                            } catch (InterruptedException ex) {
+                                return;
+                            }
+                            latencies[index][k] = System.nanoTime() - began;
+                        }
+                    }, "bench-client-" + c);
+                    threads.add(thread);
+                    thread.start();
+                }
+                long start = System.nanoTime();
+                go.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long elapsed = System.nanoTime() - start;
+
+                long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+                // JFR hands events to the stream about a second after they happen.
+                Thread.sleep(1500);
+                System.out.printf("%-16s %10.0f %10.2f %10.2f %10.2f %8d %8d%n",
+                    label,
+                    all.length / (elapsed / 1e9),
+                    all[all.length / 2] / 1e6,
+                    all[all.length * 99 / 100] / 1e6,
+                    all[all.length - 1] / 1e6,
+                    errors.get(),
+                    pinned.sum() - pinnedBefore);
+            } finally {
+                reads.stop();
+            }
+        } finally {
+            ephemeral.stop();
+            timers.stop();
+            pushManager.shutdown();
+            StorageConformance.delete(dir);
+        }
+    }
+
+    private static String firstAppFrame(RecordedStackTrace stack) {
+        if (stack == null) {
+            return "?";
+        }
+        for (RecordedFrame frame : stack.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith("com.chat.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return stack.getFrames().isEmpty() ? "?" : stack.getFrames().get(0).getMethod().getName();
+    }
+}
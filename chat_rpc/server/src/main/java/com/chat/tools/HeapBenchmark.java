@@ -0,0 +1,168 @@
+package com.chat.tools;
+
+import com.chat.core.ChatRepository;
+import com.chat.domain.Message;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Loads the same history into each backend and reports what it costs the heap: the live heap
+ * after a full collection, how long that full collection takes, and the GC pauses seen while
+ * history pages are read at random. Every backend runs in a JVM of its own with the same
+ * {@code -Xmx}, so one backend's leftovers do not inflate the next one's numbers.
+ *
+ * <pre>HeapBenchmark [--backends log,mmap] [--messages 1000000] [--conversations 10000] [--reads 20000] [--heap 2g]</pre>
+ */
+public final class HeapBenchmark {
+    private static final String PADDING = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod";
+
+    private HeapBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> backends = Arrays.asList("log", "mmap");
+        String child = null;
+        int messages = 1000000;
+        int conversations = 10000;
+        int reads = 20000;
+        String heap = "2g";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--backends":
+                    backends = Arrays.asList(args[i + 1].split(","));
+                    break;
+                case "--child":
+                    child = args[i + 1];
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--conversations":
+                    conversations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--reads":
+                    reads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--heap":
+                    heap = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (child != null) {
+            run(child, messages, conversations, reads);
+            return;
+        }
+
+        System.out.printf("messages=%d conversations=%d reads=%d heap=%s java=%s%n%n",
+            messages, conversations, reads, heap, System.getProperty("java.version"));
+        System.out.printf("%-8s %10s %10s %10s %12s %6s %12s %10s %12s%n",
+            "backend", "write/s", "reopen ms", "heap MiB", "full GC ms", "GCs", "GC total ms", "GC max ms", "read p99 us");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for (String backend : backends) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                java, "-Xmx" + heap, "-cp", System.getProperty("java.class.path"), HeapBenchmark.class.getName(),
+                "--child", backend,
+                "--messages", Integer.toString(messages),
+                "--conversations", Integer.toString(conversations),
+                "--reads", Integer.toString(reads)));
+            int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (status != 0) {
+                System.out.printf("%-8s failed (exit %d)%n", backend, status);
+            }
+        }
+    }
+
+    /**
+     * One backend, inside the child JVM; prints its row of the table.
+     */
+    private static void run(String backend, int messages, int conversations, int reads) throws Exception {
+        Path dir = Files.createTempDirectory("chat-heap-");
+        try {
+            long start = System.nanoTime();
+            try (ChatRepository repository = ChatRepository.open(backend, dir, null)) {
+                long[] seqs = new long[conversations];
+                for (int i = 0; i < messages; i++) {
+                    int c = i % conversations;
+                    repository.persistMessage(Message.text(
+                        "m" + i, "u" + c, "User " + c, "v" + c, "user", "message " + i + " " + PADDING, i
+                    ).withSeq(++seqs[c]));
+                }
+            }
+            double writeRate = messages / ((System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            try (ChatRepository repository = ChatRepository.open(backend, dir, null)) {
+                long reopenMs = (System.nanoTime() - start) / 1000000;
+
+                start = System.nanoTime();
+                System.gc();
+                long fullGcMs = (System.nanoTime() - start) / 1000000;
+                System.gc();
+                long heapMiB = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+
+                LongAdder pauses = new LongAdder();
+                AtomicLong pauseTotal = new AtomicLong();
+                AtomicLong pauseMax = new AtomicLong();
+                for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    if (gc.getName().contains("Concurrent")) {
+                        continue;
+                    }
+                    ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                            return;
+                        }
+                        long duration = GarbageCollectionNotificationInfo
+                            .from((CompositeData) notification.getUserData()).getGcInfo().getDuration();
+                        pauses.increment();
+                        pauseTotal.addAndGet(duration);
+                        pauseMax.accumulateAndGet(duration, Math::max);
+                    }, null, null);
+                }
+
+                Random random = new Random(42);
+                long[] latencies = new long[reads];
+                for (int i = 0; i < reads; i++) {
+                    int c = random.nextInt(conversations);
+                    long began = System.nanoTime();
+                    List<Message> page = repository.getHistoryPage("u" + c, "v" + c, "user", 0, "", 50);
+                    for (Message message : page) {
+                        if (message.getText() == null) {
+                            throw new IllegalStateException("Unreadable message " + message.getId());
+                        }
+                    }
+                    latencies[i] = System.nanoTime() - began;
+                }
+                Arrays.sort(latencies);
+                // GC notifications are delivered asynchronously.
+                Thread.sleep(500);
+
+                System.out.printf("%-8s %10.0f %10d %10d %12d %6d %12d %10d %12.0f%n",
+                    backend,
+                    writeRate,
+                    reopenMs,
+                    heapMiB,
+                    fullGcMs,
+                    pauses.sum(),
+                    pauseTotal.get(),
+                    pauseMax.get(),
+                    reads == 0 ? 0.0 : latencies[reads * 99 / 100] / 1e3);
+            }
+        } finally {
+            StorageConformance.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.chat.tools;
+
+import Chat.HistoryPage;
+import Chat.MessagePayload;
+import Chat.MessagePayloadSeqHelper;
+import com.chat.core.ChatRepository;
+import com.chat.domain.Group;
+import com.chat.domain.Message;
+import com.chat.domain.UserProfile;
+import com.chat.rpc.HistoryPageCodec;
+import com.chat.rpc.dto.MessagePayloadData;
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.InputStream;
+import com.zeroc.Ice.OutputStream;
+import com.zeroc.Ice.Util;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Bytes per message of a history page on the wire, as {@code MessagePayloadSeq} and as the
+ * compact {@code HistoryPage}, over every conversation of a data directory. The directory is
+ * copied (without {@code audio/}) before it is opened, so real data is never touched. Each page
+ * is decoded back and compared with the original, and decoding time per message is reported for
+ * both forms. Without any history in the directory a synthetic one is generated instead.
+ *
+ * <pre>HistoryWireBenchmark [--dataDir server/data] [--backend json] [--pageSize 50] [--members 8] [--messages 2000]</pre>
+ */
+public final class HistoryWireBenchmark {
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int TIMED_ROUNDS = 20;
+    private static final String[] WORDS = {
+        "hola", "ya", "llego", "manana", "reunion", "ok", "gracias", "listo", "proyecto", "entrega", "nos", "vemos"
+    };
+
+    private HistoryWireBenchmark() {
+    }
+
+    private static final class Totals {
+        final String label;
+        long conversations;
+        long messages;
+        long legacyBytes;
+        long compactBytes;
+        long legacyDecodeNanos;
+        long compactDecodeNanos;
+        long mismatches;
+        final List<byte[][]> pages = new ArrayList<>();
+
+        Totals(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final class Conversation {
+        final String userId;
+        final String targetId;
+        final String targetType;
+        final List<Message> history;
+
+        Conversation(String userId, String targetId, String targetType, List<Message> history) {
+            this.userId = userId;
+            this.targetId = targetId;
+            this.targetType = targetType;
+            this.history = history;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dataDir = ChatRepository.DEFAULT_DATA_DIR;
+        String backend = ChatRepository.DEFAULT_BACKEND;
+        int pageSize = 50;
+        int members = 8;
+        int messages = 2000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--dataDir":
+                    dataDir = Paths.get(args[i + 1]);
+                    break;
+                case "--backend":
+                    backend = args[i + 1];
+                    break;
+                case "--pageSize":
+                    pageSize = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--members":
+                    members = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Path copy = Files.createTempDirectory("chat-wire-");
+        try (Communicator communicator = Util.initialize()) {
+            String source = dataDir.toString();
+            if (Files.isDirectory(dataDir)) {
+                copyWithoutAudio(dataDir, copy);
+            }
+            List<Conversation> conversations = new ArrayList<>();
+            try (ChatRepository repository = ChatRepository.open(backend, copy, null)) {
+                collect(repository, conversations::add);
+                if (conversations.isEmpty()) {
+                    source = "synthetic (" + members + " members, " + messages + " messages)";
+                    generate(repository, members, messages);
+                    collect(repository, conversations::add);
+                }
+            }
+
+            Totals direct = new Totals("direct");
+            Totals group = new Totals("group");
+            Totals all = new Totals("all");
+            for (Conversation conversation : conversations) {
+                Totals totals = "group".equals(conversation.targetType) ? group : direct;
+                totals.conversations++;
+                all.conversations++;
+                List<Message> history = conversation.history;
+                for (int from = 0; from < history.size(); from += pageSize) {
+                    List<MessagePayloadData> page = new ArrayList<>();
+                    for (Message message : history.subList(from, Math.min(history.size(), from + pageSize))) {
+                        page.add(MessagePayloadData.from(message));
+                    }
+                    for (Totals t : new Totals[] {totals, all}) {
+                        measure(communicator, conversation, page, t);
+                    }
+                }
+            }
+
+            for (Totals t : new Totals[] {direct, group, all}) {
+                time(communicator, t);
+            }
+            System.out.printf("history=%s backend=%s pageSize=%d%n%n", source, backend, pageSize);
+            System.out.printf("%-8s %6s %9s %12s %12s %8s %14s %14s %10s%n",
+                "chats", "convs", "messages", "legacy B/msg", "compact B/msg", "saved", "legacy ns/msg",
+                "compact ns/msg", "mismatch");
+            for (Totals t : new Totals[] {direct, group, all}) {
+                if (t.messages == 0) {
+                    continue;
+                }
+                System.out.printf("%-8s %6d %9d %12.1f %12.1f %7.1f%% %14.0f %14.0f %10d%n",
+                    t.label,
+                    t.conversations,
+                    t.messages,
+                    t.legacyBytes / (double) t.messages,
+                    t.compactBytes / (double) t.messages,
+                    100.0 * (t.legacyBytes - t.compactBytes) / t.legacyBytes,
+                    t.legacyDecodeNanos / (double) t.messages,
+                    t.compactDecodeNanos / (double) t.messages,
+                    t.mismatches);
+            }
+        } finally {
+            StorageConformance.delete(copy);
+        }
+    }
+
+    private static void measure(Communicator communicator, Conversation conversation, List<MessagePayloadData> page, Totals totals) {
+        MessagePayload[] payloads = new MessagePayload[page.size()];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = page.get(i).toSlice();
+        }
+        OutputStream legacy = new OutputStream(communicator);
+        legacy.startEncapsulation();
+        MessagePayloadSeqHelper.write(legacy, payloads);
+        legacy.endEncapsulation();
+        byte[] legacyBytes = legacy.finished();
+
+        HistoryPage compactPage = HistoryPageCodec.encode(
+            page, conversation.userId, conversation.targetId, conversation.targetType);
+        OutputStream compact = new OutputStream(communicator);
+        compact.startEncapsulation();
+        HistoryPage.ice_write(compact, compactPage);
+        compact.endEncapsulation();
+        byte[] compactBytes = compact.finished();
+
+        InputStream in = new InputStream(communicator, compactBytes);
+        in.startEncapsulation();
+        List<MessagePayloadData> decoded = HistoryPageCodec.decode(HistoryPage.ice_read(in));
+        in.endEncapsulation();
+        totals.pages.add(new byte[][] {legacyBytes, compactBytes});
+        totals.messages += page.size();
+        totals.legacyBytes += legacyBytes.length;
+        totals.compactBytes += compactBytes.length;
+        for (int i = 0; i < page.size(); i++) {
+            if (!sameOnWire(page.get(i), decoded.get(i))) {
+                totals.mismatches++;
+            }
+        }
+    }
+
+    /**
+     * Decoding time as the client pays it: unmarshal, plus expansion for the compact form. The
+     * pages are decoded a few times first so that both paths are compiled before timing.
+     */
+    private static void time(Communicator communicator, Totals totals) {
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            long legacyNanos = 0;
+            long compactNanos = 0;
+            for (byte[][] page : totals.pages) {
+                long start = System.nanoTime();
+                InputStream in = new InputStream(communicator, page[0]);
+                in.startEncapsulation();
+                MessagePayloadSeqHelper.read(in);
+                in.endEncapsulation();
+                legacyNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                in = new InputStream(communicator, page[1]);
+                in.startEncapsulation();
+                HistoryPageCodec.decode(HistoryPage.ice_read(in));
+                in.endEncapsulation();
+                compactNanos += System.nanoTime() - start;
+            }
+            if (round >= WARMUP_ROUNDS) {
+                totals.legacyDecodeNanos += legacyNanos / TIMED_ROUNDS;
+                totals.compactDecodeNanos += compactNanos / TIMED_ROUNDS;
+            }
+        }
+    }
+
+    /**
+     * Equal as a client sees them: Ice sends a null string as "".
+     */
+    private static boolean sameOnWire(MessagePayloadData a, MessagePayloadData b) {
+        return wire(a.getId()).equals(wire(b.getId()))
+            && wire(a.getFrom()).equals(wire(b.getFrom()))
+            && wire(a.getFromName()).equals(wire(b.getFromName()))
+            && wire(a.getTo()).equals(wire(b.getTo()))
+            && wire(a.getToType()).equals(wire(b.getToType()))
+            && wire(a.getKind()).equals(wire(b.getKind()))
+            && wire(a.getText()).equals(wire(b.getText()))
+            && wire(a.getMediaPath()).equals(wire(b.getMediaPath()))
+            && wire(a.getMediaMime()).equals(wire(b.getMediaMime()))
+            && a.getTimestamp() == b.getTimestamp()
+            && a.getSeq() == b.getSeq();
+    }
+
+    private static String wire(String value) {
+        return Objects.toString(value, "");
+    }
+
+    /**
+     * Every group conversation, and every direct conversation between two known users.
+     */
+    private static void collect(ChatRepository repository, Consumer<Conversation> sink) throws IOException {
+        for (Group group : repository.getGroups().values()) {
+            if (group.getMembers().isEmpty()) {
+                continue;
+            }
+            String member = group.getMembers().get(0);
+            List<Message> history = repository.getHistory(member, group.getId(), "group");
+            if (!history.isEmpty()) {
+                sink.accept(new Conversation(member, group.getId(), "group", history));
+            }
+        }
+        List<UserProfile> users = repository.loadUsers();
+        for (int i = 0; i < users.size(); i++) {
+            for (int j = i; j < users.size(); j++) {
+                String a = users.get(i).getId();
+                String b = users.get(j).getId();
+                List<Message> history = repository.getHistory(a, b, "user");
+                if (!history.isEmpty()) {
+                    sink.accept(new Conversation(a, b, "user", history));
+                }
+            }
+        }
+    }
+
+    /**
+     * One group with every member plus a direct chat between neighbours; one in ten messages is a
+     * voice note.
+     */
+    private static void generate(ChatRepository repository, int members, int messages) throws IOException {
+        Random random = new Random(42);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            UserProfile profile = new UserProfile(
+                UUID.nameUUIDFromBytes(("member-" + i).getBytes()).toString(), "Miembro " + i, UserProfile.hashToken("token-" + i), 0);
+            repository.saveUser(profile);
+            ids.add(profile.getId());
+        }
+        Group group = new Group(UUID.nameUUIDFromBytes("group".getBytes()).toString(), "Equipo", ids);
+        repository.saveGroup(group);
+        long now = 1700000000000L;
+        Map<String, Long> seqs = new HashMap<>();
+        for (int i = 0; i < messages; i++) {
+            int sender = random.nextInt(members);
+            boolean inGroup = random.nextInt(3) > 0;
+            String to = inGroup ? group.getId() : ids.get((sender + 1) % members);
+            String conversation = inGroup ? to : Math.min(sender, (sender + 1) % members) + "-" + Math.max(sender, (sender + 1) % members);
+            now += 1000 + random.nextInt(120000);
+            String id = UUID.nameUUIDFromBytes(("message-" + i).getBytes()).toString();
+            Message message;
+            if (i % 10 == 9) {
+                message = Message.audio(id, ids.get(sender), "Miembro " + sender, to, inGroup ? "group" : "user",
+                    "audio/" + id + ".webm", "audio/webm", now);
+            } else {
+                StringBuilder text = new StringBuilder();
+                for (int w = 1 + random.nextInt(12); w > 0; w--) {
+                    text.append(WORDS[random.nextInt(WORDS.length)]).append(w > 1 ? " " : "");
+                }
+                message = Message.text(id, ids.get(sender), "Miembro " + sender, to, inGroup ? "group" : "user",
+                    text.toString(), now);
+            }
+            repository.persistMessage(message.withSeq(seqs.merge(conversation, 1L, Long::sum)));
+        }
+    }
+
+    private static void copyWithoutAudio(Path from, Path to) throws IOException {
+        Path audio = from.resolve("audio");
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.startsWith(audio)) {
+                    continue;
+                }
+                Path target = to.resolve(from.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
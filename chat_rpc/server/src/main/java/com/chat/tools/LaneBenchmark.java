@@ -0,0 +1,228 @@
+package com.chat.tools;
+
+import Chat.CallEvent;
+import Chat.CallSignal;
+import Chat.EphemeralBatch;
+import Chat.GroupInfo;
+import Chat.MessagePayload;
+import Chat.ReadReceipt;
+import Chat.RealtimePush;
+import Chat.RealtimePushPrx;
+import com.chat.rpc.ChatMetrics;
+import com.chat.rpc.RealtimePushManager;
+import com.chat.rpc.dto.CallEventData;
+import com.chat.rpc.dto.MessagePayloadData;
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.InitializationData;
+import com.zeroc.Ice.ObjectAdapter;
+import com.zeroc.Ice.Util;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how long call events take to reach a client while the message lane is saturated. A
+ * real {@link RealtimePushManager} pushes over TCP to {@code RealtimePush} servants in the same
+ * process. Every message delivery holds its dispatch for {@code --messageDelayMs}, the way a slow
+ * client does, so the message lane uses up its in-flight budget and then its queue. Call events
+ * are emitted at a fixed interval throughout and timed from emit to dispatch on the callee. The
+ * first row runs without message traffic as the reference.
+ *
+ * <pre>LaneBenchmark [--recipients 50] [--messages 20000] [--messageDelayMs 5] [--callEvents 200] [--callIntervalMs 10]</pre>
+ */
+public final class LaneBenchmark {
+    private static final String CALLEE = "callee";
+    private static final long CALL_WAIT_MS = 30000;
+
+    private LaneBenchmark() {
+    }
+
+    /**
+     * One client's push servant: slow on messages, timestamps call events on arrival.
+     */
+    private static final class Receiver implements RealtimePush {
+        private final RealtimePushManager pushManager;
+        private final long messageDelayMs;
+        private final AtomicLongArray callLatencies;
+        private final CountDownLatch callsArrived;
+
+        Receiver(RealtimePushManager pushManager, long messageDelayMs, AtomicLongArray callLatencies,
+                 CountDownLatch callsArrived) {
+            this.pushManager = pushManager;
+            this.messageDelayMs = messageDelayMs;
+            this.callLatencies = callLatencies;
+            this.callsArrived = callsArrived;
+        }
+
+        @Override
+        public void onIncomingMessage(MessagePayload payload, long deliverySeq, Current current) {
+            try {
+                Thread.sleep(messageDelayMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pushManager.ack(current.id.name, deliverySeq);
+        }
+
+        @Override
+        public void onCallEvent(CallEvent event, Current current) {
+            long now = System.nanoTime();
+            int split = event.callId.indexOf(':');
+            int index = Integer.parseInt(event.callId.substring(0, split));
+            if (callLatencies.compareAndSet(index, -1, now - Long.parseLong(event.callId.substring(split + 1)))) {
+                callsArrived.countDown();
+            }
+        }
+
+        @Override
+        public void onGroupCreated(GroupInfo group, long deliverySeq, Current current) {
+            pushManager.ack(current.id.name, deliverySeq);
+        }
+
+        @Override
+        public void onCallSignal(CallSignal signal, Current current) {
+        }
+
+        @Override
+        public void onReadReceipt(ReadReceipt receipt, long deliverySeq, Current current) {
+            pushManager.ack(current.id.name, deliverySeq);
+        }
+
+        @Override
+        public void onEphemeralBatch(EphemeralBatch batch, Current current) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int recipients = 50;
+        int messages = 20000;
+        long messageDelayMs = 5;
+        int callEvents = 200;
+        long callIntervalMs = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--recipients":
+                    recipients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--messageDelayMs":
+                    messageDelayMs = Long.parseLong(args[i + 1]);
+                    break;
+                case "--callEvents":
+                    callEvents = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--callIntervalMs":
+                    callIntervalMs = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        System.out.printf("recipients=%d messages=%d messageDelayMs=%d callEvents=%d callIntervalMs=%d%n%n",
+            recipients, messages, messageDelayMs, callEvents, callIntervalMs);
+        System.out.printf("%-10s %12s %12s %12s %12s %12s %10s%n",
+            "traffic", "msg pushes", "msg dropped", "call p50 ms", "call p99 ms", "call max ms", "call lost");
+        run("idle", recipients, 0, messageDelayMs, callEvents, callIntervalMs);
+        run("flooded", recipients, messages, messageDelayMs, callEvents, callIntervalMs);
+    }
+
+    private static void run(
+        String label,
+        int recipients,
+        int messages,
+        long messageDelayMs,
+        int callEvents,
+        long callIntervalMs
+    ) throws Exception {
+        // The client side gets enough dispatch threads to stay ahead of every lane's in-flight
+        // budget, so what is measured is queueing on the server, not on the client.
+        InitializationData clientInit = new InitializationData();
+        clientInit.properties = Util.createProperties();
+        clientInit.properties.setProperty("LaneBench.Endpoints", "tcp -h 127.0.0.1");
+        clientInit.properties.setProperty("LaneBench.ThreadPool.Size", "32");
+        clientInit.properties.setProperty("LaneBench.ThreadPool.SizeMax", "512");
+
+        ChatMetrics metrics = new ChatMetrics();
+        RealtimePushManager pushManager = new RealtimePushManager(Util.createProperties(), metrics);
+        AtomicLongArray callLatencies = new AtomicLongArray(callEvents);
+        for (int i = 0; i < callEvents; i++) {
+            callLatencies.set(i, -1);
+        }
+        CountDownLatch callsArrived = new CountDownLatch(callEvents);
+
+        try (Communicator client = Util.initialize(clientInit); Communicator server = Util.initialize()) {
+            ObjectAdapter adapter = client.createObjectAdapter("LaneBench");
+            adapter.addDefaultServant(new Receiver(pushManager, messageDelayMs, callLatencies, callsArrived), "");
+            adapter.activate();
+
+            List<String> users = new ArrayList<>();
+            users.add(CALLEE);
+            for (int i = 1; i < recipients; i++) {
+                users.add("user-" + i);
+            }
+            for (String user : users) {
+                String proxy = client.proxyToString(adapter.createProxy(Util.stringToIdentity(user)));
+                pushManager.subscribe(user, RealtimePushPrx.uncheckedCast(server.stringToProxy(proxy)));
+            }
+
+            Thread flood = new Thread(() -> {
+                for (int i = 0; i < messages && !Thread.currentThread().isInterrupted(); i++) {
+                    pushManager.emitMessage(new MessagePayloadData(
+                        "m" + i, "sender", "Sender", "g", "group", "text", "message " + i, "", "",
+                        System.currentTimeMillis(), i), users);
+                }
+            }, "lane-flood");
+            flood.start();
+            if (messages > 0) {
+                // Let the message lane fill before the first call event goes out.
+                Thread.sleep(200);
+            }
+
+            for (int i = 0; i < callEvents; i++) {
+                CallEventData event = new CallEventData(
+                    i + ":" + System.nanoTime(), "ringing", "caller", "Caller", CALLEE, "user");
+                pushManager.emitCallEvent(event, Collections.singletonList(CALLEE));
+                Thread.sleep(callIntervalMs);
+            }
+            callsArrived.await(CALL_WAIT_MS, TimeUnit.MILLISECONDS);
+
+            long[] arrived = new long[callEvents];
+            int count = 0;
+            for (int i = 0; i < callEvents; i++) {
+                long latency = callLatencies.get(i);
+                if (latency >= 0) {
+                    arrived[count++] = latency;
+                }
+            }
+            long[] sorted = Arrays.copyOf(arrived, count);
+            Arrays.sort(sorted);
+            System.out.printf("%-10s %12d %12d %12.2f %12.2f %12.2f %10d%n",
+                label,
+                metrics.counter("chat_push_sent_total{lane=\"message\"}").sum(),
+                metrics.counter("chat_push_dropped_total{lane=\"message\"}").sum(),
+                percentile(sorted, 50) / 1e6,
+                percentile(sorted, 99) / 1e6,
+                percentile(sorted, 100) / 1e6,
+                callEvents - count);
+            flood.interrupt();
+            flood.join();
+        } finally {
+            pushManager.shutdown();
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+}
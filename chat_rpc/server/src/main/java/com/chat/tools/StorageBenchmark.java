@@ -0,0 +1,138 @@
+package com.chat.tools;
+
+import com.chat.core.ChatRepository;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares storage backends on the local machine. Each backend must first pass
+ * {@link StorageConformance}; then it is timed on writes (one and several threads),
+ * history reads, restart and disk footprint.
+ *
+ * <pre>StorageBenchmark [--backends json,log,mmap] [--messages 2000] [--conversations 50] [--threads 4]</pre>
+ */
+public final class StorageBenchmark {
+    private StorageBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> backends = Arrays.asList("json", "log", "mmap");
+        int messages = 2000;
+        int conversations = 50;
+        int threads = 4;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--backends":
+                    backends = Arrays.asList(args[i + 1].split(","));
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--conversations":
+                    conversations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        System.out.printf("messages=%d conversations=%d threads=%d%n%n", messages, conversations, threads);
+        System.out.printf("%-8s %12s %12s %12s %12s %10s %12s%n",
+            "backend", "write/s", "write/s(mt)", "hist p50 us", "hist p99 us", "reopen ms", "disk KiB");
+        boolean ok = true;
+        for (String backend : backends) {
+            List<String> failures = StorageConformance.run(backend);
+            if (!failures.isEmpty()) {
+                System.out.printf("%-8s fails conformance: %s%n", backend, failures);
+                ok = false;
+                continue;
+            }
+            run(backend, messages, conversations, threads);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void run(String backend, int messages, int conversations, int threads) throws Exception {
+        Path dir = Files.createTempDirectory("chat-bench-");
+        try {
+            double singleRate;
+            double concurrentRate;
+            long[] latencies;
+            try (ChatRepository repo = ChatRepository.open(backend, dir, null)) {
+                long start = System.nanoTime();
+                for (int i = 0; i < messages; i++) {
+                    repo.persistMessage(StorageConformance.text("s" + i, "sender", "g" + (i % conversations), "group", i));
+                }
+                singleRate = messages / seconds(System.nanoTime() - start);
+
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                int perThread = Math.max(1, messages / threads);
+                List<Future<?>> tasks = new ArrayList<>();
+                start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    String sender = "writer" + t;
+                    tasks.add(pool.submit(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            repo.persistMessage(StorageConformance.text(
+                                sender + "-" + i, sender, "g" + (i % conversations), "group", i));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+                concurrentRate = perThread * threads / seconds(System.nanoTime() - start);
+                pool.shutdown();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+
+                int queries = Math.max(200, conversations * 4);
+                latencies = new long[queries];
+                for (int q = 0; q < queries; q++) {
+                    long began = System.nanoTime();
+                    repo.getHistory("sender", "g" + (q % conversations), "group");
+                    latencies[q] = System.nanoTime() - began;
+                }
+                Arrays.sort(latencies);
+            }
+
+            long began = System.nanoTime();
+            try (ChatRepository repo = ChatRepository.open(backend, dir, null)) {
+                repo.getHistory("sender", "g0", "group");
+            }
+            long reopenMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began);
+
+            System.out.printf("%-8s %12.0f %12.0f %12d %12d %10d %12d%n",
+                backend,
+                singleRate,
+                concurrentRate,
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length * 99 / 100]),
+                reopenMs,
+                diskBytes(dir) / 1024);
+        } finally {
+            StorageConformance.delete(dir);
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return Math.max(nanos, 1) / 1e9;
+    }
+
+    private static long diskBytes(Path dir) throws Exception {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.chat.tools;
+
+import com.chat.core.ChatRepository;
+import com.chat.core.CompactionResult;
+import com.chat.core.RetentionPolicy;
+import com.chat.core.StorageReport;
+import com.chat.domain.Group;
+import com.chat.domain.Message;
+import com.chat.domain.UserProfile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Behaviour every {@link ChatRepository} backend must share. Run it against one or more
+ * backends with {@code StorageConformance json log mmap}; the exit status is non-zero on failure.
+ */
+public final class StorageConformance {
+    private static final String AUDIO_URL = "http://localhost:10080/audio/";
+
+    private final String backend;
+    private final List<String> failures = new ArrayList<>();
+
+    private StorageConformance(String backend) {
+        this.backend = backend;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> backends = args.length > 0 ? Arrays.asList(args) : Arrays.asList("json", "log", "mmap");
+        boolean ok = true;
+        for (String backend : backends) {
+            List<String> failures = run(backend);
+            System.out.printf("%-6s %s%n", backend, failures.isEmpty() ? "PASS" : "FAIL");
+            for (String failure : failures) {
+                System.out.println("       - " + failure);
+            }
+            ok &= failures.isEmpty();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Runs every check in a scratch directory and returns the failed ones.
+     */
+    public static List<String> run(String backend) throws Exception {
+        StorageConformance suite = new StorageConformance(backend);
+        suite.directHistory();
+        suite.groupHistory();
+        suite.historyPaging();
+        suite.survivesReopen();
+        suite.groupsAndUsers();
+        suite.audio();
+        suite.concurrentWriters();
+        suite.retention();
+        return suite.failures;
+    }
+
+    private void directHistory() throws Exception {
+        withRepository(null, repo -> {
+            repo.persistMessage(text("m1", "alice", "bob", "user", 1));
+            repo.persistMessage(text("m2", "bob", "alice", "user", 2));
+            repo.persistMessage(text("m3", "alice", "carol", "user", 3));
+            repo.persistMessage(text("m4", "alice", "g1", "group", 4));
+            check(ids(repo.getHistory("alice", "bob", "user")).equals(List.of("m1", "m2")),
+                "direct history holds both directions in order");
+            check(ids(repo.getHistory("bob", "alice", "user")).equals(List.of("m1", "m2")),
+                "direct history is the same from either side");
+            check(ids(repo.getHistory("alice", "dave", "user")).isEmpty(), "unknown conversation is empty");
+            check(ids(repo.getHistory("alice", "bob", "channel")).isEmpty(), "unknown target type is empty");
+        });
+    }
+
+    private void groupHistory() throws Exception {
+        withRepository(null, repo -> {
+            repo.persistMessage(text("m1", "alice", "g1", "group", 1));
+            repo.persistMessage(text("m2", "bob", "g2", "group", 2));
+            repo.persistMessage(text("m3", "carol", "g1", "group", 3));
+            repo.persistMessage(text("m4", "alice", "g1", "user", 4));
+            check(ids(repo.getHistory("bob", "g1", "group")).equals(List.of("m1", "m3")),
+                "group history only holds that group's messages");
+        });
+    }
+
+    private void historyPaging() throws Exception {
+        withRepository(null, repo -> {
+            for (int i = 1; i <= 5; i++) {
+                repo.persistMessage(text("m" + i, "alice", "bob", "user", i < 5 ? 7 : 8));
+            }
+            check(ids(repo.getHistoryPage("alice", "bob", "user", 0, "", 2)).equals(List.of("m4", "m5")),
+                "the first page holds the newest messages");
+            check(ids(repo.getHistoryPage("alice", "bob", "user", 7, "m4", 2)).equals(List.of("m2", "m3")),
+                "paging resumes inside a millisecond shared with the cursor");
+            check(ids(repo.getHistoryPage("alice", "bob", "user", 7, "m2", 2)).equals(List.of("m1")),
+                "the last page ends at the oldest message");
+            check(ids(repo.getHistoryPage("alice", "bob", "user", 8, "", 10)).equals(List.of("m1", "m2", "m3", "m4")),
+                "without an id the cursor is strictly before beforeTs");
+        });
+    }
+
+    private void survivesReopen() throws Exception {
+        Path dir = Files.createTempDirectory("chat-conformance-");
+        try {
+            try (ChatRepository repo = ChatRepository.open(backend, dir, AUDIO_URL)) {
+                repo.persistMessage(text("m1", "alice", "bob", "user", 1));
+                String media = repo.saveAudio(new byte[] {1, 2, 3}, "audio/webm;codecs=opus");
+                repo.persistMessage(Message.audio("m2", "bob", "Bob", "alice", "user", media, "audio/webm", 2));
+                repo.saveGroup(new Group("g1", "Team", List.of("alice", "bob")));
+            }
+            try (ChatRepository repo = ChatRepository.open(backend, dir, AUDIO_URL)) {
+                List<Message> history = repo.getHistory("alice", "bob", "user");
+                check(ids(history).equals(List.of("m1", "m2")), "messages survive a restart");
+                check(history.size() == 2 && history.get(1).getMediaPath() != null
+                    && history.get(1).getMediaPath().startsWith(AUDIO_URL), "audio references survive a restart");
+                check(repo.findGroup("g1") != null && repo.findGroup("g1").getMembers().contains("bob"),
+                    "groups survive a restart");
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private void groupsAndUsers() throws Exception {
+        Path dir = Files.createTempDirectory("chat-conformance-");
+        try {
+            try (ChatRepository repo = ChatRepository.open(backend, dir, null)) {
+                repo.saveGroup(new Group("g1", "Old", List.of("alice")));
+                repo.saveGroup(new Group("g1", "New", List.of("alice", "bob")));
+                repo.saveGroup(new Group("g2", "Other", List.of("carol")));
+                check(repo.getGroups().size() == 2, "getGroups lists every group once");
+                repo.saveUser(new UserProfile("u1", "Alice", "t1", 1));
+                repo.saveUser(new UserProfile("u1", "Alice", "t2", 1));
+                repo.saveUser(new UserProfile("u2", "Bob", "t3", 2));
+            }
+            try (ChatRepository repo = ChatRepository.open(backend, dir, null)) {
+                check("New".equals(repo.findGroup("g1").getName()), "the last saved group version wins");
+                List<UserProfile> users = repo.loadUsers();
+                check(users.size() == 2, "loadUsers returns one profile per id");
+                check(users.stream().anyMatch(u -> u.getId().equals("u1") && u.getTokenHash().equals("t2")),
+                    "the last saved user version wins");
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private void audio() throws Exception {
+        withRepository(null, repo -> {
+            String inline = repo.saveAudio(new byte[] {9, 9}, "audio/ogg");
+            check(inline.startsWith("data:audio/ogg;base64,"), "without a media URL audio is a data URI");
+            try (Stream<Path> files = Files.list(repo.getAudioDir())) {
+                check(files.anyMatch(f -> f.getFileName().toString().endsWith(".ogg")), "audio is written to getAudioDir");
+            }
+        });
+        withRepository(AUDIO_URL, repo -> {
+            String url = repo.saveAudio(new byte[] {9, 9}, "audio/webm;codecs=opus");
+            check(url.startsWith(AUDIO_URL) && url.endsWith(".webm"), "with a media URL audio is a short URL");
+        });
+    }
+
+    private void concurrentWriters() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+        Path dir = Files.createTempDirectory("chat-conformance-");
+        try {
+            try (ChatRepository repo = ChatRepository.open(backend, dir, null)) {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                List<Future<?>> tasks = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    String sender = "user" + t;
+                    tasks.add(pool.submit(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            repo.persistMessage(text(sender + "-" + i, sender, "g1", "group", i));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+                pool.shutdown();
+                check(repo.getHistory("user0", "g1", "group").size() == threads * perThread,
+                    "concurrent writers lose no messages");
+            }
+            try (ChatRepository repo = ChatRepository.open(backend, dir, null)) {
+                List<Message> history = repo.getHistory("user0", "g1", "group");
+                check(history.size() == threads * perThread, "concurrent writes survive a restart");
+                boolean ordered = true;
+                for (int t = 0; t < threads && ordered; t++) {
+                    String sender = "user" + t;
+                    long last = -1;
+                    for (Message message : history) {
+                        if (message.getFrom().equals(sender)) {
+                            ordered &= message.getTimestamp() > last;
+                            last = message.getTimestamp();
+                        }
+                    }
+                }
+                check(ordered, "each writer's messages keep their order");
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private void retention() throws Exception {
+        long day = TimeUnit.DAYS.toMillis(1);
+        long now = System.currentTimeMillis();
+        RetentionPolicy policy = new RetentionPolicy(
+            2 * day, new RetentionPolicy.Limits(7 * day, 0), new RetentionPolicy.Limits(0, 3));
+        Path dir = Files.createTempDirectory("chat-conformance-");
+        try {
+            try (ChatRepository repo = ChatRepository.open(backend, dir, AUDIO_URL)) {
+                String media = repo.saveAudio(new byte[] {1, 2, 3}, "audio/webm");
+                repo.persistMessage(Message.audio("m1", "alice", "Alice", "bob", "user", media, "audio/webm", now - 10 * day));
+                repo.persistMessage(text("m2", "bob", "alice", "user", now - 5 * day));
+                repo.persistMessage(text("m3", "alice", "bob", "user", now - 1000));
+                for (int i = 1; i <= 5; i++) {
+                    repo.persistMessage(text("g" + i, "alice", "g1", "group", now - (6 - i) * 1000));
+                }
+
+                CompactionResult result = repo.compact(policy, now);
+                check(result.getArchived() == 1 && result.getExpired() == 3,
+                    "compaction archives past the hot horizon and expires past the limits (" + result + ")");
+                check(result.getAudioFilesDeleted() == 1, "expired voice notes are deleted from disk");
+                check(ids(repo.getHistory("alice", "bob", "user")).equals(List.of("m3")), "getHistory only serves the hot tier");
+                check(ids(repo.getHistoryPage("alice", "bob", "user", 0, "", 10)).equals(List.of("m2", "m3")),
+                    "history pages merge hot and archived messages");
+                check(ids(repo.getHistoryPage("alice", "bob", "user", now - 1000, "", 10)).equals(List.of("m2")),
+                    "history pages only return messages before beforeTs");
+                check(ids(repo.getHistoryPage("alice", "g1", "group", 0, "", 2)).equals(List.of("g4", "g5")),
+                    "history pages return the newest messages up to the limit");
+                check(ids(repo.getHistory("alice", "g1", "group")).equals(List.of("g3", "g4", "g5")),
+                    "count limits keep the newest messages");
+
+                CompactionResult again = repo.compact(policy, now);
+                check(again.getArchived() == 0 && again.getExpired() == 0, "compaction is idempotent");
+                StorageReport report = repo.storageReport();
+                check(report.getTiers().stream().anyMatch(t -> t.getName().equals("archive") && t.getMessages() == 1),
+                    "the storage report counts archived messages");
+            }
+            try (ChatRepository repo = ChatRepository.open(backend, dir, AUDIO_URL)) {
+                check(ids(repo.getHistoryPage("alice", "bob", "user", 0, "", 10)).equals(List.of("m2", "m3")),
+                    "the archive survives a restart");
+                check(ids(repo.getHistory("alice", "g1", "group")).equals(List.of("g3", "g4", "g5")),
+                    "compacted hot storage survives a restart");
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private interface RepositoryCheck {
+        void run(ChatRepository repository) throws Exception;
+    }
+
+    private void withRepository(String audioUrl, RepositoryCheck body) throws Exception {
+        Path dir = Files.createTempDirectory("chat-conformance-");
+        try (ChatRepository repo = ChatRepository.open(backend, dir, audioUrl)) {
+            body.run(repo);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private void check(boolean condition, String description) {
+        if (!condition) {
+            failures.add(description);
+        }
+    }
+
+    static Message text(String id, String from, String to, String toType, long timestamp) {
+        return Message.text(id, from, from, to, toType, "hello from " + from, timestamp);
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (Files.notExists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = new ArrayList<>(walk.toList());
+        }
+        Collections.sort(paths, Comparator.reverseOrder());
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.chat.tools;
+
+import com.chat.rpc.CaptureFile;
+import com.zeroc.Ice.Blobject;
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.ObjectAdapter;
+import com.zeroc.Ice.ObjectPrx;
+import com.zeroc.Ice.OperationMode;
+import com.zeroc.Ice.OutputStream;
+import com.zeroc.Ice.Util;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture recorded with {@code Chat.Capture.File} against a running server, usually a
+ * local {@code ChatServerApp} started on a copy of the data directory taken when the capture
+ * began. Every captured connection gets a connection of its own, and its calls go out in the
+ * recorded order at the recorded pace ({@code --speed 1}), faster ({@code --speed 10}) or as fast
+ * as possible ({@code --speed 0}). Ids minted during the capture (users, session token
+ * placeholders, groups, calls) are mapped to the ones the replay server hands out, and a call that
+ * names such an id also waits for the call that minted it. A {@code resumeSession} for a session
+ * opened before the capture carries a placeholder nothing maps, so it fails. Pushes are accepted
+ * and discarded.
+ *
+ * <p>Latencies are reported per operation and can be written with {@code --out} and compared
+ * against another build's run with {@code --baseline}.
+ *
+ * <pre>TrafficReplay --capture capture.bin [--proxy "ChatSession:ws -h localhost -p 10000"] [--speed 1] [--out replay.tsv] [--baseline previous.tsv]</pre>
+ */
+public final class TrafficReplay {
+    private TrafficReplay() {
+    }
+
+    private static final class Stats {
+        final List<Long> latencies = new ArrayList<>();
+        final List<Long> recorded = new ArrayList<>();
+        long errors;
+        long recordedErrors;
+
+        synchronized void add(long latency, boolean ok, CaptureFile.Record record) {
+            latencies.add(latency);
+            recorded.add(record.durationNanos);
+            if (!ok) {
+                errors++;
+            }
+            if (record.outcome != CaptureFile.OK) {
+                recordedErrors++;
+            }
+        }
+    }
+
+    /**
+     * Stands in for every client's {@code RealtimePush} servant.
+     */
+    private static final class DiscardPush implements Blobject {
+        private final byte[] emptyReply;
+
+        DiscardPush(Communicator communicator) {
+            OutputStream out = new OutputStream(communicator);
+            out.startEncapsulation();
+            out.endEncapsulation();
+            this.emptyReply = out.finished();
+        }
+
+        @Override
+        public com.zeroc.Ice.Object.Ice_invokeResult ice_invoke(byte[] inParams, Current current) {
+            return new com.zeroc.Ice.Object.Ice_invokeResult(true, emptyReply);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path capture = null;
+        String proxy = "ChatSession:ws -h localhost -p 10000";
+        double speed = 1;
+        Path out = null;
+        Path baseline = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--capture":
+                    capture = Paths.get(args[i + 1]);
+                    break;
+                case "--proxy":
+                    proxy = args[i + 1];
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (capture == null) {
+            throw new IllegalArgumentException("--capture is required");
+        }
+
+        List<CaptureFile.Record> records = CaptureFile.read(capture);
+        Map<String, Stats> stats = new ConcurrentHashMap<>();
+        long elapsed;
+        try (Communicator communicator = Util.initialize()) {
+            ObjectAdapter pushAdapter = communicator.createObjectAdapter("");
+            pushAdapter.addDefaultServant(new DiscardPush(communicator), "");
+            pushAdapter.activate();
+            ObjectPrx base = communicator.stringToProxy(proxy);
+
+            Map<String, String> ids = new ConcurrentHashMap<>();
+            Set<Integer> idLengths = ConcurrentHashMap.newKeySet();
+            Map<Integer, ObjectPrx> clients = new HashMap<>();
+            Map<Integer, CompletableFuture<Void>> tails = new HashMap<>();
+            Map<String, CompletableFuture<Void>> mintedBy = new HashMap<>();
+            Set<Integer> mintedLengths = new HashSet<>();
+            long first = records.isEmpty() ? 0 : records.get(0).startNanos;
+            long start = System.nanoTime();
+            for (CaptureFile.Record record : records) {
+                if (speed > 0) {
+                    long due = start + (long) ((record.startNanos - first) / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                ObjectPrx client = clients.computeIfAbsent(record.client, number -> {
+                    ObjectPrx prx = base.ice_connectionId("replay-" + number);
+                    prx.ice_getConnection().setAdapter(pushAdapter);
+                    return prx;
+                });
+                // Calls of one client wait for the previous one, as they did in the capture, and for
+                // the calls that minted the ids they name.
+                List<CompletableFuture<Void>> after = new ArrayList<>();
+                after.add(tails.getOrDefault(record.client, CompletableFuture.completedFuture(null)));
+                for (String id : referencedIds(record.params, mintedBy.keySet(), mintedLengths)) {
+                    after.add(mintedBy.get(id));
+                }
+                CompletableFuture<Void> previous = CompletableFuture.allOf(after.toArray(new CompletableFuture<?>[0]));
+                CompletableFuture<Void> call = previous.thenCompose(ignored -> {
+                    byte[] params = record.audioBytes >= 0
+                        ? CaptureFile.withAudio(communicator, record.params, record.audioBytes)
+                        : record.params;
+                    params = remap(params, ids, idLengths);
+                    long began = System.nanoTime();
+                    return client.ice_invokeAsync(record.operation, OperationMode.valueOf(record.mode), params)
+                        .handle((result, error) -> {
+                            boolean ok = error == null && result.returnValue;
+                            stats.computeIfAbsent(record.operation, op -> new Stats())
+                                .add(System.nanoTime() - began, ok, record);
+                            if (ok) {
+                                learnIds(
+                                    CaptureFile.mintedIds(communicator, record.operation, record.reply),
+                                    CaptureFile.mintedIds(communicator, record.operation, result.outParams),
+                                    ids,
+                                    idLengths);
+                            }
+                            return null;
+                        });
+                });
+                tails.put(record.client, call);
+                for (String id : CaptureFile.mintedIds(communicator, record.operation, record.reply)) {
+                    mintedBy.put(id, call);
+                    mintedLengths.add(id.getBytes(StandardCharsets.UTF_8).length);
+                }
+            }
+            CompletableFuture.allOf(tails.values().toArray(new CompletableFuture<?>[0])).join();
+            elapsed = System.nanoTime() - start;
+        }
+
+        Map<String, double[]> previous = baseline != null ? readReport(baseline) : new HashMap<>();
+        System.out.printf("capture=%s records=%d clients=%d speed=%s elapsed=%.1fs%n%n",
+            capture, records.size(), records.stream().mapToInt(r -> r.client).distinct().count(),
+            speed > 0 ? speed + "x" : "max", elapsed / 1e9);
+        System.out.printf("%-18s %8s %8s %8s %10s %10s %10s %10s %10s %9s %9s%n",
+            "operation", "calls", "rec err", "errors", "cap p50 ms", "p50 ms", "p99 ms",
+            "base p50", "base p99", "d p50 %", "d p99 %");
+        Map<String, double[]> report = new TreeMap<>();
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet()) {
+            Stats s = entry.getValue();
+            long[] latencies = s.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            long[] recorded = s.recorded.stream().mapToLong(Long::longValue).sorted().toArray();
+            double p50 = latencies[latencies.length / 2] / 1e6;
+            double p99 = latencies[latencies.length * 99 / 100] / 1e6;
+            report.put(entry.getKey(), new double[] {latencies.length, p50, p99});
+            double[] base = previous.get(entry.getKey());
+            System.out.printf("%-18s %8d %8d %8d %10.2f %10.2f %10.2f %10s %10s %9s %9s%n",
+                entry.getKey(),
+                latencies.length,
+                s.recordedErrors,
+                s.errors,
+                recorded[recorded.length / 2] / 1e6,
+                p50,
+                p99,
+                base != null ? String.format("%.2f", base[1]) : "-",
+                base != null ? String.format("%.2f", base[2]) : "-",
+                base != null ? String.format("%+.1f", 100 * (p50 - base[1]) / base[1]) : "-",
+                base != null ? String.format("%+.1f", 100 * (p99 - base[2]) / base[2]) : "-");
+        }
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+                writer.println("operation\tcalls\tp50_ms\tp99_ms");
+                report.forEach((operation, row) ->
+                    writer.printf("%s\t%d\t%.4f\t%.4f%n", operation, (long) row[0], row[1], row[2]));
+            }
+        }
+    }
+
+    private static void learnIds(List<String> recorded, List<String> replayed, Map<String, String> ids, Set<Integer> idLengths) {
+        for (int i = 0; i < Math.min(recorded.size(), replayed.size()); i++) {
+            if (!recorded.get(i).equals(replayed.get(i))) {
+                ids.put(recorded.get(i), replayed.get(i));
+                idLengths.add(recorded.get(i).getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+    }
+
+    /**
+     * Replaces every encoded string equal to a captured id with the id the replay server minted,
+     * whatever the operation. Ids are short, so only strings with a one-byte size are checked.
+     */
+    static byte[] remap(byte[] encaps, Map<String, String> ids, Set<Integer> idLengths) {
+        if (ids.isEmpty()) {
+            return encaps;
+        }
+        // Encapsulation header: int size (little endian) and the encoding version.
+        int header = 6;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encaps.length + 16);
+        out.write(encaps, 0, header);
+        int i = header;
+        boolean changed = false;
+        while (i < encaps.length) {
+            int length = encaps[i] & 0xff;
+            if (length < 255 && idLengths.contains(length) && i + 1 + length <= encaps.length) {
+                String replacement = ids.get(new String(encaps, i + 1, length, StandardCharsets.UTF_8));
+                byte[] bytes = replacement != null ? replacement.getBytes(StandardCharsets.UTF_8) : null;
+                if (bytes != null && bytes.length < 255) {
+                    out.write(bytes.length);
+                    out.write(bytes, 0, bytes.length);
+                    i += 1 + length;
+                    changed = true;
+                    continue;
+                }
+            }
+            out.write(encaps[i++]);
+        }
+        if (!changed) {
+            return encaps;
+        }
+        byte[] result = out.toByteArray();
+        int size = result.length;
+        result[0] = (byte) size;
+        result[1] = (byte) (size >>> 8);
+        result[2] = (byte) (size >>> 16);
+        result[3] = (byte) (size >>> 24);
+        return result;
+    }
+
+    /**
+     * The captured ids among the strings of {@code encaps}.
+     */
+    static List<String> referencedIds(byte[] encaps, Set<String> ids, Set<Integer> idLengths) {
+        List<String> found = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return found;
+        }
+        int i = 6;
+        while (i < encaps.length) {
+            int length = encaps[i] & 0xff;
+            if (length < 255 && idLengths.contains(length) && i + 1 + length <= encaps.length) {
+                String candidate = new String(encaps, i + 1, length, StandardCharsets.UTF_8);
+                if (ids.contains(candidate)) {
+                    found.add(candidate);
+                    i += 1 + length;
+                    continue;
+                }
+            }
+            i++;
+        }
+        return found;
+    }
+
+    private static Map<String, double[]> readReport(Path file) throws Exception {
+        Map<String, double[]> report = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length < 4 || "operation".equals(fields[0])) {
+                continue;
+            }
+            report.put(fields[0], new double[] {
+                Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3])
+            });
+        }
+        return report;
+    }
+}
@@ -0,0 +1,229 @@
+package com.chat.tools;
+
+import com.chat.core.EphemeralCoalescer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Counts the pushes that "typing..." costs in one large group, on a simulated clock. Each typer
+ * alternates bursts of keystrokes with pauses and sends a message at the end of every burst.
+ * The same keystrokes are pushed four ways: one push per keystroke, a client throttle with an
+ * immediate fan-out, and both of those through {@link EphemeralCoalescer}.
+ *
+ * <pre>TypingBenchmark [--members 500] [--typers 50] [--seconds 60] [--keystrokeMs 150] [--tickMs 250]</pre>
+ */
+public final class TypingBenchmark {
+    private static final long BURST_MS = 5000;
+    private static final long PAUSE_MS = 5000;
+    private static final long TYPING_REFRESH_MS = 3000;
+    private static final long TYPING_IDLE_MS = 4000;
+    private static final long TYPING_TIMEOUT_MS = 6000;
+
+    private TypingBenchmark() {
+    }
+
+    private interface Sink {
+        void typing(String userId, boolean typing, long now);
+    }
+
+    /**
+     * The throttle the web client applies: "true" at most every refresh interval, "false"
+     * when the user goes idle or sends the message.
+     */
+    private static final class ClientThrottle {
+        final String userId;
+        final Sink sink;
+        boolean typing;
+        long sentAt;
+        long lastKeystroke;
+
+        ClientThrottle(String userId, Sink sink) {
+            this.userId = userId;
+            this.sink = sink;
+        }
+
+        void keystroke(long now) {
+            if (!typing || now - sentAt >= TYPING_REFRESH_MS) {
+                typing = true;
+                sentAt = now;
+                sink.typing(userId, true, now);
+            }
+            lastKeystroke = now;
+        }
+
+        void idle(long now) {
+            if (typing && now - lastKeystroke >= TYPING_IDLE_MS) {
+                stop(now);
+            }
+        }
+
+        void stop(long now) {
+            if (typing) {
+                typing = false;
+                sink.typing(userId, false, now);
+            }
+        }
+    }
+
+    private static final class Result {
+        final String strategy;
+        long calls;
+        long pushes;
+        long updates;
+
+        Result(String strategy) {
+            this.strategy = strategy;
+        }
+    }
+
+    public static void main(String[] args) {
+        int members = 500;
+        int typers = 50;
+        int seconds = 60;
+        long keystrokeMs = 150;
+        long tickMs = 250;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--members":
+                    members = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--typers":
+                    typers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--keystrokeMs":
+                    keystrokeMs = Long.parseLong(args[i + 1]);
+                    break;
+                case "--tickMs":
+                    tickMs = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        typers = Math.min(typers, members);
+
+        List<String> group = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            group.add("m" + i);
+        }
+        long[] offsets = new long[typers];
+        Random random = new Random(42);
+        for (int i = 0; i < typers; i++) {
+            offsets[i] = (long) (random.nextDouble() * (BURST_MS + PAUSE_MS));
+        }
+        long durationMs = seconds * 1000L;
+        int fanOut = members - 1;
+
+        Result naive = new Result("per-keystroke");
+        run(typers, offsets, durationMs, keystrokeMs, false, (userId, typing, now) -> {
+            naive.calls++;
+            naive.pushes += fanOut;
+            naive.updates += fanOut;
+        }, now -> { });
+
+        Result throttled = new Result("throttled");
+        run(typers, offsets, durationMs, keystrokeMs, true, (userId, typing, now) -> {
+            throttled.calls++;
+            throttled.pushes += fanOut;
+            throttled.updates += fanOut;
+        }, now -> { });
+
+        Result coalescedRaw = coalesced("coalesced", group, typers, offsets, durationMs, keystrokeMs, tickMs, false);
+        Result coalescedThrottled = coalesced(
+            "throttled+coalesced", group, typers, offsets, durationMs, keystrokeMs, tickMs, true);
+
+        System.out.printf("members=%d typers=%d seconds=%d keystrokeMs=%d tickMs=%d%n%n",
+            members, typers, seconds, keystrokeMs, tickMs);
+        System.out.printf("%-20s %12s %12s %12s %16s%n",
+            "strategy", "server calls", "pushes", "updates", "pushes/s/member");
+        for (Result result : List.of(naive, throttled, coalescedRaw, coalescedThrottled)) {
+            System.out.printf("%-20s %12d %12d %12d %16.2f%n",
+                result.strategy,
+                result.calls,
+                result.pushes,
+                result.updates,
+                result.pushes / (double) members / seconds);
+        }
+    }
+
+    private static Result coalesced(
+        String strategy,
+        List<String> group,
+        int typers,
+        long[] offsets,
+        long durationMs,
+        long keystrokeMs,
+        long tickMs,
+        boolean throttle
+    ) {
+        AtomicLong clock = new AtomicLong();
+        EphemeralCoalescer coalescer = new EphemeralCoalescer(tickMs, TYPING_TIMEOUT_MS, clock::get);
+        Result result = new Result(strategy);
+        try {
+            run(typers, offsets, durationMs, keystrokeMs, throttle, (userId, typing, now) -> {
+                clock.set(now);
+                result.calls++;
+                coalescer.typing(userId, "g", "group", typing, group);
+            }, now -> {
+                if (now % tickMs == 0) {
+                    clock.set(now);
+                    coalescer.tick();
+                }
+            });
+            clock.addAndGet(TYPING_TIMEOUT_MS);
+            coalescer.tick();
+            result.pushes = coalescer.batches();
+            result.updates = coalescer.updates();
+            return result;
+        } finally {
+            coalescer.stop();
+        }
+    }
+
+    /**
+     * Replays the same keystrokes millisecond by millisecond. Without a throttle every keystroke
+     * reaches the sink, followed by one "false" when the message is sent.
+     */
+    private static void run(
+        int typers,
+        long[] offsets,
+        long durationMs,
+        long keystrokeMs,
+        boolean throttle,
+        Sink sink,
+        LongConsumer everyMs
+    ) {
+        long cycle = BURST_MS + PAUSE_MS;
+        ClientThrottle[] clients = new ClientThrottle[typers];
+        for (int i = 0; i < typers; i++) {
+            clients[i] = new ClientThrottle("m" + i, sink);
+        }
+        for (long now = 0; now < durationMs; now++) {
+            for (int i = 0; i < typers; i++) {
+                long phase = (now + offsets[i]) % cycle;
+                boolean keystroke = phase < BURST_MS && phase % keystrokeMs == 0;
+                boolean sent = phase == BURST_MS;
+                if (throttle) {
+                    if (keystroke) {
+                        clients[i].keystroke(now);
+                    } else if (sent) {
+                        clients[i].stop(now);
+                    } else {
+                        clients[i].idle(now);
+                    }
+                } else if (keystroke) {
+                    sink.typing(clients[i].userId, true, now);
+                } else if (sent) {
+                    sink.typing(clients[i].userId, false, now);
+                }
+            }
+            everyMs.accept(now);
+        }
+    }
+}
@@ -54,6 +54,36 @@
 
     Slice.defineStruct(Chat.UserInfo, true, true);
 
+    Slice.defineSequence(Chat, "UserInfoSeqHelper", "Chat.UserInfo", false);
+
+    Chat.SessionInfo = class
+    {
+        constructor(user = new Chat.UserInfo(), token = "")
+        {
+            this.user = user;
+            this.token = token;
+        }
+
+        _write(ostr)
+        {
+            Chat.UserInfo.write(ostr, this.user);
+            ostr.writeString(this.token);
+        }
+
+        _read(istr)
+        {
+            this.user = Chat.UserInfo.read(istr, this.user);
+            this.token = istr.readString();
+        }
+
+        static get minWireSize()
+        {
+            return  3;
+        }
+    };
+
+    Slice.defineStruct(Chat.SessionInfo, true, true);
+
     Chat.GroupInfo = class
     {
         constructor(id = "", name = "", members = null)
@@ -87,7 +117,7 @@
 
     Chat.MessagePayload = class
     {
-        constructor(id = "", from = "", fromName = "", to = "", toType = "", kind = "", text = "", mediaPath = "", mimeType = "", timestamp = new Ice.Long(0, 0))
+        constructor(id = "", from = "", fromName = "", to = "", toType = "", kind = "", text = "", mediaPath = "", mimeType = "", timestamp = new Ice.Long(0, 0), seq = new Ice.Long(0, 0))
         {
             this.id = id;
             this.from = from;
@@ -99,6 +129,7 @@
             this.mediaPath = mediaPath;
             this.mimeType = mimeType;
             this.timestamp = timestamp;
+            this.seq = seq;
         }
 
         _write(ostr)
@@ -113,6 +144,7 @@
             ostr.writeString(this.mediaPath);
             ostr.writeString(this.mimeType);
             ostr.writeLong(this.timestamp);
+            ostr.writeLong(this.seq);
         }
 
         _read(istr)
@@ -127,11 +159,12 @@
             this.mediaPath = istr.readString();
             this.mimeType = istr.readString();
             this.timestamp = istr.readLong();
+            this.seq = istr.readLong();
         }
 
         static get minWireSize()
         {
-            return  17;
+            return  25;
         }
     };
 
@@ -139,10 +172,126 @@
 
     Slice.defineSequence(Chat, "MessagePayloadSeqHelper", "Chat.MessagePayload", false);
 
+    Chat.HistoryParticipant = class
+    {
+        constructor(id = "", name = "")
+        {
+            this.id = id;
+            this.name = name;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.id);
+            ostr.writeString(this.name);
+        }
+
+        _read(istr)
+        {
+            this.id = istr.readString();
+            this.name = istr.readString();
+        }
+
+        static get minWireSize()
+        {
+            return  2;
+        }
+    };
+
+    Slice.defineStruct(Chat.HistoryParticipant, true, true);
+
+    Slice.defineSequence(Chat, "HistoryParticipantSeqHelper", "Chat.HistoryParticipant", false);
+
+    Chat.HistoryRow = class
+    {
+        constructor(id = "", kind = 0, from = 0, mimeType = 0, body = "")
+        {
+            this.id = id;
+            this.kind = kind;
+            this.from = from;
+            this.mimeType = mimeType;
+            this.body = body;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.id);
+            ostr.writeByte(this.kind);
+            ostr.writeShort(this.from);
+            ostr.writeShort(this.mimeType);
+            ostr.writeString(this.body);
+        }
+
+        _read(istr)
+        {
+            this.id = istr.readString();
+            this.kind = istr.readByte();
+            this.from = istr.readShort();
+            this.mimeType = istr.readShort();
+            this.body = istr.readString();
+        }
+
+        static get minWireSize()
+        {
+            return  7;
+        }
+    };
+
+    Slice.defineStruct(Chat.HistoryRow, true, true);
+
+    Slice.defineSequence(Chat, "HistoryRowSeqHelper", "Chat.HistoryRow", false);
+
+    Chat.HistoryPage = class
+    {
+        constructor(targetType = 0, conversation = null, participants = null, mimeTypes = null, firstTimestamp = new Ice.Long(0, 0), firstSeq = new Ice.Long(0, 0), deltas = null, rows = null)
+        {
+            this.targetType = targetType;
+            this.conversation = conversation;
+            this.participants = participants;
+            this.mimeTypes = mimeTypes;
+            this.firstTimestamp = firstTimestamp;
+            this.firstSeq = firstSeq;
+            this.deltas = deltas;
+            this.rows = rows;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeByte(this.targetType);
+            Chat.StringSeqHelper.write(ostr, this.conversation);
+            Chat.HistoryParticipantSeqHelper.write(ostr, this.participants);
+            Chat.StringSeqHelper.write(ostr, this.mimeTypes);
+            ostr.writeLong(this.firstTimestamp);
+            ostr.writeLong(this.firstSeq);
+            Ice.ByteSeqHelper.write(ostr, this.deltas);
+            Chat.HistoryRowSeqHelper.write(ostr, this.rows);
+        }
+
+        _read(istr)
+        {
+            this.targetType = istr.readByte();
+            this.conversation = Chat.StringSeqHelper.read(istr);
+            this.participants = Chat.HistoryParticipantSeqHelper.read(istr);
+            this.mimeTypes = Chat.StringSeqHelper.read(istr);
+            this.firstTimestamp = istr.readLong();
+            this.firstSeq = istr.readLong();
+            this.deltas = Ice.ByteSeqHelper.read(istr);
+            this.rows = Chat.HistoryRowSeqHelper.read(istr);
+        }
+
+        static get minWireSize()
+        {
+            return  22;
+        }
+    };
+
+    Slice.defineStruct(Chat.HistoryPage, false, true);
+
     Chat.CallEvent = class
     {
-        constructor(type = "", from = "", fromName = "", targetId = "", targetType = "")
+        constructor(callId = "", type = "", from = "", fromName = "", targetId = "", targetType = "")
         {
+            this.callId = callId;
             this.type = type;
             this.from = from;
             this.fromName = fromName;
@@ -152,6 +301,7 @@
 
         _write(ostr)
         {
+            ostr.writeString(this.callId);
             ostr.writeString(this.type);
             ostr.writeString(this.from);
             ostr.writeString(this.fromName);
@@ -161,6 +311,7 @@
 
         _read(istr)
         {
+            this.callId = istr.readString();
             this.type = istr.readString();
             this.from = istr.readString();
             this.fromName = istr.readString();
@@ -170,12 +321,290 @@
 
         static get minWireSize()
         {
-            return  5;
+            return  6;
         }
     };
 
     Slice.defineStruct(Chat.CallEvent, true, true);
 
+    Chat.CallSignal = class
+    {
+        constructor(callId = "", from = "", kind = "", payload = "")
+        {
+            this.callId = callId;
+            this.from = from;
+            this.kind = kind;
+            this.payload = payload;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.callId);
+            ostr.writeString(this.from);
+            ostr.writeString(this.kind);
+            ostr.writeString(this.payload);
+        }
+
+        _read(istr)
+        {
+            this.callId = istr.readString();
+            this.from = istr.readString();
+            this.kind = istr.readString();
+            this.payload = istr.readString();
+        }
+
+        static get minWireSize()
+        {
+            return  4;
+        }
+    };
+
+    Slice.defineStruct(Chat.CallSignal, true, true);
+
+    Chat.ReadReceipt = class
+    {
+        constructor(readerId = "", targetId = "", targetType = "", upToSeq = new Ice.Long(0, 0))
+        {
+            this.readerId = readerId;
+            this.targetId = targetId;
+            this.targetType = targetType;
+            this.upToSeq = upToSeq;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.readerId);
+            ostr.writeString(this.targetId);
+            ostr.writeString(this.targetType);
+            ostr.writeLong(this.upToSeq);
+        }
+
+        _read(istr)
+        {
+            this.readerId = istr.readString();
+            this.targetId = istr.readString();
+            this.targetType = istr.readString();
+            this.upToSeq = istr.readLong();
+        }
+
+        static get minWireSize()
+        {
+            return  11;
+        }
+    };
+
+    Slice.defineStruct(Chat.ReadReceipt, true, true);
+
+    Chat.UnreadEntry = class
+    {
+        constructor(targetId = "", targetType = "", lastSeq = new Ice.Long(0, 0), readSeq = new Ice.Long(0, 0), unread = 0)
+        {
+            this.targetId = targetId;
+            this.targetType = targetType;
+            this.lastSeq = lastSeq;
+            this.readSeq = readSeq;
+            this.unread = unread;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.targetId);
+            ostr.writeString(this.targetType);
+            ostr.writeLong(this.lastSeq);
+            ostr.writeLong(this.readSeq);
+            ostr.writeInt(this.unread);
+        }
+
+        _read(istr)
+        {
+            this.targetId = istr.readString();
+            this.targetType = istr.readString();
+            this.lastSeq = istr.readLong();
+            this.readSeq = istr.readLong();
+            this.unread = istr.readInt();
+        }
+
+        static get minWireSize()
+        {
+            return  22;
+        }
+    };
+
+    Slice.defineStruct(Chat.UnreadEntry, true, true);
+
+    Slice.defineSequence(Chat, "UnreadEntrySeqHelper", "Chat.UnreadEntry", false);
+
+    Chat.PresenceUpdate = class
+    {
+        constructor(userId = "", online = false, at = new Ice.Long(0, 0))
+        {
+            this.userId = userId;
+            this.online = online;
+            this.at = at;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.userId);
+            ostr.writeBool(this.online);
+            ostr.writeLong(this.at);
+        }
+
+        _read(istr)
+        {
+            this.userId = istr.readString();
+            this.online = istr.readBool();
+            this.at = istr.readLong();
+        }
+
+        static get minWireSize()
+        {
+            return  10;
+        }
+    };
+
+    Slice.defineStruct(Chat.PresenceUpdate, true, true);
+
+    Slice.defineSequence(Chat, "PresenceUpdateSeqHelper", "Chat.PresenceUpdate", false);
+
+    Chat.TypingUpdate = class
+    {
+        constructor(userId = "", targetId = "", targetType = "", typing = false)
+        {
+            this.userId = userId;
+            this.targetId = targetId;
+            this.targetType = targetType;
+            this.typing = typing;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.userId);
+            ostr.writeString(this.targetId);
+            ostr.writeString(this.targetType);
+            ostr.writeBool(this.typing);
+        }
+
+        _read(istr)
+        {
+            this.userId = istr.readString();
+            this.targetId = istr.readString();
+            this.targetType = istr.readString();
+            this.typing = istr.readBool();
+        }
+
+        static get minWireSize()
+        {
+            return  4;
+        }
+    };
+
+    Slice.defineStruct(Chat.TypingUpdate, true, true);
+
+    Slice.defineSequence(Chat, "TypingUpdateSeqHelper", "Chat.TypingUpdate", false);
+
+    Chat.EphemeralBatch = class
+    {
+        constructor(presence = null, typing = null)
+        {
+            this.presence = presence;
+            this.typing = typing;
+        }
+
+        _write(ostr)
+        {
+            Chat.PresenceUpdateSeqHelper.write(ostr, this.presence);
+            Chat.TypingUpdateSeqHelper.write(ostr, this.typing);
+        }
+
+        _read(istr)
+        {
+            this.presence = Chat.PresenceUpdateSeqHelper.read(istr);
+            this.typing = Chat.TypingUpdateSeqHelper.read(istr);
+        }
+
+        static get minWireSize()
+        {
+            return  2;
+        }
+    };
+
+    Slice.defineStruct(Chat.EphemeralBatch, false, true);
+
+    Chat.CallRejectedException = class extends Ice.UserException
+    {
+        constructor(reason = "", _cause = "")
+        {
+            super(_cause);
+            this.reason = reason;
+        }
+
+        static get _parent()
+        {
+            return Ice.UserException;
+        }
+
+        static get _id()
+        {
+            return "::Chat::CallRejectedException";
+        }
+
+        _mostDerivedType()
+        {
+            return Chat.CallRejectedException;
+        }
+
+        _writeMemberImpl(ostr)
+        {
+            ostr.writeString(this.reason);
+        }
+
+        _readMemberImpl(istr)
+        {
+            this.reason = istr.readString();
+        }
+    };
+
+    Chat.OverloadedException = class extends Ice.UserException
+    {
+        constructor(operation = "", reason = "", retryAfterMs = 0, _cause = "")
+        {
+            super(_cause);
+            this.operation = operation;
+            this.reason = reason;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        static get _parent()
+        {
+            return Ice.UserException;
+        }
+
+        static get _id()
+        {
+            return "::Chat::OverloadedException";
+        }
+
+        _mostDerivedType()
+        {
+            return Chat.OverloadedException;
+        }
+
+        _writeMemberImpl(ostr)
+        {
+            ostr.writeString(this.operation);
+            ostr.writeString(this.reason);
+            ostr.writeInt(this.retryAfterMs);
+        }
+
+        _readMemberImpl(istr)
+        {
+            this.operation = istr.readString();
+            this.reason = istr.readString();
+            this.retryAfterMs = istr.readInt();
+        }
+    };
+
     const iceC_Chat_RealtimePush_ids = [
         "::Chat::RealtimePush",
         "::Ice::Object"
@@ -191,9 +620,266 @@
 
     Slice.defineOperations(Chat.RealtimePush, Chat.RealtimePushPrx, iceC_Chat_RealtimePush_ids, 0,
     {
-        "onIncomingMessage": [, , , , , [[Chat.MessagePayload]], , , , ],
-        "onGroupCreated": [, , , , , [[Chat.GroupInfo]], , , , ],
-        "onCallEvent": [, , , , , [[Chat.CallEvent]], , , , ]
+        "onIncomingMessage": [, , , , , [[Chat.MessagePayload], [4]], , , , ],
+        "onGroupCreated": [, , , , , [[Chat.GroupInfo], [4]], , , , ],
+        "onCallEvent": [, , , , , [[Chat.CallEvent]], , , , ],
+        "onCallSignal": [, , , , , [[Chat.CallSignal]], , , , ],
+        "onReadReceipt": [, , , , , [[Chat.ReadReceipt], [4]], , , , ],
+        "onEphemeralBatch": [, , , , , [[Chat.EphemeralBatch]], , , , ]
+    });
+
+    Slice.defineSequence(Chat, "GroupInfoSeqHelper", "Chat.GroupInfo", false);
+
+    Chat.RoutedMessage = class
+    {
+        constructor(recipients = null, payload = new Chat.MessagePayload())
+        {
+            this.recipients = recipients;
+            this.payload = payload;
+        }
+
+        _write(ostr)
+        {
+            Chat.StringSeqHelper.write(ostr, this.recipients);
+            Chat.MessagePayload.write(ostr, this.payload);
+        }
+
+        _read(istr)
+        {
+            this.recipients = Chat.StringSeqHelper.read(istr);
+            this.payload = Chat.MessagePayload.read(istr, this.payload);
+        }
+
+        static get minWireSize()
+        {
+            return  18;
+        }
+    };
+
+    Slice.defineStruct(Chat.RoutedMessage, false, true);
+
+    Slice.defineSequence(Chat, "RoutedMessageSeqHelper", "Chat.RoutedMessage", false);
+
+    Chat.RoutedCallEvent = class
+    {
+        constructor(recipients = null, event = new Chat.CallEvent())
+        {
+            this.recipients = recipients;
+            this.event = event;
+        }
+
+        _write(ostr)
+        {
+            Chat.StringSeqHelper.write(ostr, this.recipients);
+            Chat.CallEvent.write(ostr, this.event);
+        }
+
+        _read(istr)
+        {
+            this.recipients = Chat.StringSeqHelper.read(istr);
+            this.event = Chat.CallEvent.read(istr, this.event);
+        }
+
+        static get minWireSize()
+        {
+            return  7;
+        }
+    };
+
+    Slice.defineStruct(Chat.RoutedCallEvent, false, true);
+
+    Slice.defineSequence(Chat, "RoutedCallEventSeqHelper", "Chat.RoutedCallEvent", false);
+
+    Chat.RoutedCallSignal = class
+    {
+        constructor(recipients = null, signal = new Chat.CallSignal())
+        {
+            this.recipients = recipients;
+            this.signal = signal;
+        }
+
+        _write(ostr)
+        {
+            Chat.StringSeqHelper.write(ostr, this.recipients);
+            Chat.CallSignal.write(ostr, this.signal);
+        }
+
+        _read(istr)
+        {
+            this.recipients = Chat.StringSeqHelper.read(istr);
+            this.signal = Chat.CallSignal.read(istr, this.signal);
+        }
+
+        static get minWireSize()
+        {
+            return  5;
+        }
+    };
+
+    Slice.defineStruct(Chat.RoutedCallSignal, false, true);
+
+    Slice.defineSequence(Chat, "RoutedCallSignalSeqHelper", "Chat.RoutedCallSignal", false);
+
+    Chat.RoutedReadReceipt = class
+    {
+        constructor(recipients = null, receipt = new Chat.ReadReceipt())
+        {
+            this.recipients = recipients;
+            this.receipt = receipt;
+        }
+
+        _write(ostr)
+        {
+            Chat.StringSeqHelper.write(ostr, this.recipients);
+            Chat.ReadReceipt.write(ostr, this.receipt);
+        }
+
+        _read(istr)
+        {
+            this.recipients = Chat.StringSeqHelper.read(istr);
+            this.receipt = Chat.ReadReceipt.read(istr, this.receipt);
+        }
+
+        static get minWireSize()
+        {
+            return  12;
+        }
+    };
+
+    Slice.defineStruct(Chat.RoutedReadReceipt, false, true);
+
+    Slice.defineSequence(Chat, "RoutedReadReceiptSeqHelper", "Chat.RoutedReadReceipt", false);
+
+    Chat.RoutedEphemeral = class
+    {
+        constructor(recipients = null, batch = new Chat.EphemeralBatch())
+        {
+            this.recipients = recipients;
+            this.batch = batch;
+        }
+
+        _write(ostr)
+        {
+            Chat.StringSeqHelper.write(ostr, this.recipients);
+            Chat.EphemeralBatch.write(ostr, this.batch);
+        }
+
+        _read(istr)
+        {
+            this.recipients = Chat.StringSeqHelper.read(istr);
+            this.batch = Chat.EphemeralBatch.read(istr, this.batch);
+        }
+
+        static get minWireSize()
+        {
+            return  3;
+        }
+    };
+
+    Slice.defineStruct(Chat.RoutedEphemeral, false, true);
+
+    Slice.defineSequence(Chat, "RoutedEphemeralSeqHelper", "Chat.RoutedEphemeral", false);
+
+    Chat.SubscriberLocation = class
+    {
+        constructor(userId = "", nodeId = "", online = false)
+        {
+            this.userId = userId;
+            this.nodeId = nodeId;
+            this.online = online;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.userId);
+            ostr.writeString(this.nodeId);
+            ostr.writeBool(this.online);
+        }
+
+        _read(istr)
+        {
+            this.userId = istr.readString();
+            this.nodeId = istr.readString();
+            this.online = istr.readBool();
+        }
+
+        static get minWireSize()
+        {
+            return  3;
+        }
+    };
+
+    Slice.defineStruct(Chat.SubscriberLocation, true, true);
+
+    Slice.defineSequence(Chat, "SubscriberLocationSeqHelper", "Chat.SubscriberLocation", false);
+
+    Chat.ClusterBatch = class
+    {
+        constructor(fromNode = "", locations = null, messages = null, callEvents = null, callSignals = null, groups = null, readReceipts = null, ephemeral = null)
+        {
+            this.fromNode = fromNode;
+            this.locations = locations;
+            this.messages = messages;
+            this.callEvents = callEvents;
+            this.callSignals = callSignals;
+            this.groups = groups;
+            this.readReceipts = readReceipts;
+            this.ephemeral = ephemeral;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.fromNode);
+            Chat.SubscriberLocationSeqHelper.write(ostr, this.locations);
+            Chat.RoutedMessageSeqHelper.write(ostr, this.messages);
+            Chat.RoutedCallEventSeqHelper.write(ostr, this.callEvents);
+            Chat.RoutedCallSignalSeqHelper.write(ostr, this.callSignals);
+            Chat.GroupInfoSeqHelper.write(ostr, this.groups);
+            Chat.RoutedReadReceiptSeqHelper.write(ostr, this.readReceipts);
+            Chat.RoutedEphemeralSeqHelper.write(ostr, this.ephemeral);
+        }
+
+        _read(istr)
+        {
+            this.fromNode = istr.readString();
+            this.locations = Chat.SubscriberLocationSeqHelper.read(istr);
+            this.messages = Chat.RoutedMessageSeqHelper.read(istr);
+            this.callEvents = Chat.RoutedCallEventSeqHelper.read(istr);
+            this.callSignals = Chat.RoutedCallSignalSeqHelper.read(istr);
+            this.groups = Chat.GroupInfoSeqHelper.read(istr);
+            this.readReceipts = Chat.RoutedReadReceiptSeqHelper.read(istr);
+            this.ephemeral = Chat.RoutedEphemeralSeqHelper.read(istr);
+        }
+
+        static get minWireSize()
+        {
+            return  8;
+        }
+    };
+
+    Slice.defineStruct(Chat.ClusterBatch, false, true);
+
+    const iceC_Chat_ClusterNode_ids = [
+        "::Chat::ClusterNode",
+        "::Ice::Object"
+    ];
+
+    Chat.ClusterNode = class extends Ice.Object
+    {
+    };
+
+    Chat.ClusterNodePrx = class extends Ice.ObjectPrx
+    {
+    };
+
+    Slice.defineOperations(Chat.ClusterNode, Chat.ClusterNodePrx, iceC_Chat_ClusterNode_ids, 0,
+    {
+        "deliver": [, , , , , [[Chat.ClusterBatch]], , , , ],
+        "lookupUser": [, 2, 2, , [Chat.UserInfo], [[7]], , , , ],
+        "localSubscribers": [, 2, 2, , ["Chat.SubscriberLocationSeqHelper"], , , , , ],
+        "claimCall": [, 2, 2, , [1], [[7], [7]], , , , ],
+        "renewCall": [, 2, 2, , , [[7], [7]], , , , ],
+        "releaseCall": [, 2, 2, , , [[7], [7]], , , , ]
     });
 
     const iceC_Chat_ChatSession_ids = [
@@ -211,15 +897,92 @@
 
     Slice.defineOperations(Chat.ChatSession, Chat.ChatSessionPrx, iceC_Chat_ChatSession_ids, 0,
     {
-        "registerUser": [, 2, 2, , [Chat.UserInfo], [[7]], , , , ],
-        "createGroup": [, , , , [Chat.GroupInfo], [[7], [7], ["Chat.StringSeqHelper"]], , , , ],
-        "sendText": [, , , , , [[7], [7], [7], [7]], , , , ],
-        "sendAudio": [, , , , , [[7], [7], [7], ["Ice.ByteSeqHelper"], [7]], , , , ],
-        "getHistory": [, , , , ["Chat.MessagePayloadSeqHelper"], [[7], [7], [7]], , , , ],
-        "subscribePush": [, , , , , [[7], ["Chat.RealtimePushPrx"]], , , , ],
+        "registerUser": [, , , , [Chat.SessionInfo], [[7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "resumeSession": [, 2, 2, , [Chat.SessionInfo], [[7], [7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "findUsersByName": [, 2, 2, , ["Chat.UserInfoSeqHelper"], [[7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "createGroup": [, , , , [Chat.GroupInfo], [[7], [7], ["Chat.StringSeqHelper"]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "sendText": [, 2, 2, , , [[7], [7], [7], [7], [7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "sendAudio": [, 2, 2, , , [[7], [7], [7], ["Ice.ByteSeqHelper"], [7], [7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "getHistory": [, , , , ["Chat.MessagePayloadSeqHelper"], [[7], [7], [7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "getHistoryPage": [, 2, 2, , ["Chat.MessagePayloadSeqHelper"], [[7], [7], [7], [4], [7], [3]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "getHistoryCompact": [, 2, 2, , [Chat.HistoryPage], [[7], [7], [7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "getHistoryPageCompact": [, 2, 2, , [Chat.HistoryPage], [[7], [7], [7], [4], [7], [3]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "markRead": [, 2, 2, , , [[7], [7], [7], [4]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "getUnreadSummary": [, 2, 2, , ["Chat.UnreadEntrySeqHelper"], [[7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "setTyping": [, 2, 2, , , [[7], [7], [7], [1]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "subscribePush": [, , , , [4], [[7], ["Chat.RealtimePushPrx"]], , , , ],
         "unsubscribePush": [, , , , , [[7], ["Chat.RealtimePushPrx"]], , , , ],
-        "startCall": [, , , , [Chat.CallEvent], [[7], [7], [7]], , , , ],
-        "endCall": [, , , , [Chat.CallEvent], [[7], [7], [7]], , , , ]
+        "ackPush": [, 2, 2, , , [[7], [4]], , , , ],
+        "startCall": [, , , , [Chat.CallEvent], [[7], [7], [7]], ,
+        [
+            Chat.CallRejectedException,
+            Chat.OverloadedException
+        ], , ],
+        "acceptCall": [, , , , [Chat.CallEvent], [[7], [7]], ,
+        [
+            Chat.CallRejectedException,
+            Chat.OverloadedException
+        ], , ],
+        "rejectCall": [, , , , [Chat.CallEvent], [[7], [7]], ,
+        [
+            Chat.CallRejectedException,
+            Chat.OverloadedException
+        ], , ],
+        "endCall": [, , , , [Chat.CallEvent], [[7], [7], [7]], ,
+        [
+            Chat.OverloadedException
+        ], , ],
+        "sendOffer": [, , , , , [[7], [7], [7]], ,
+        [
+            Chat.CallRejectedException
+        ], , ],
+        "sendAnswer": [, , , , , [[7], [7], [7]], ,
+        [
+            Chat.CallRejectedException
+        ], , ],
+        "sendCandidate": [, , , , , [[7], [7], [7]], ,
+        [
+            Chat.CallRejectedException
+        ], , ]
     });
     exports.Chat = Chat;
     if (typeof window !== "undefined") {
@@ -25,7 +25,9 @@ export class ChatPanel {
                 <input id="targetId" type="text" placeholder="ID de destino" />
             </div>
             <button id="loadHistoryBtn">Ver historial</button>
+            <button id="loadOlderBtn">Cargar anteriores</button>
             <div class="history" id="history"></div>
+            <div class="typing-indicator" id="typingIndicator"></div>
             <textarea id="messageInput" rows="3" placeholder="Escribe un mensaje..."></textarea>
             <button id="sendTextBtn">Enviar texto</button>
             <div class="audio-controls">
@@ -45,7 +47,9 @@ export class ChatPanel {
         this.dom.targetType = container.querySelector('#targetType');
         this.dom.targetId = container.querySelector('#targetId');
         this.dom.loadHistoryBtn = container.querySelector('#loadHistoryBtn');
+        this.dom.loadOlderBtn = container.querySelector('#loadOlderBtn');
         this.dom.history = container.querySelector('#history');
+        this.dom.typingIndicator = container.querySelector('#typingIndicator');
         this.dom.messageInput = container.querySelector('#messageInput');
         this.dom.sendTextBtn = container.querySelector('#sendTextBtn');
         this.dom.recordBtn = container.querySelector('#recordBtn');
@@ -64,7 +68,9 @@ export class ChatPanel {
      */
     bindEvents() {
         this.dom.loadHistoryBtn.addEventListener('click', () => this.handleLoadHistory());
+        this.dom.loadOlderBtn.addEventListener('click', () => this.handleLoadOlder());
         this.dom.sendTextBtn.addEventListener('click', () => this.handleSendText());
+        this.dom.messageInput.addEventListener('input', () => this.handleTypingInput());
         this.dom.recordBtn.addEventListener('click', () => this.handleStartRecording());
         this.dom.stopRecordBtn.addEventListener('click', () => this.handleStopRecording());
         this.dom.audioFileInput.addEventListener('change', (evt) => this.handleAudioFileSelected(evt));
@@ -133,6 +139,8 @@ export class ChatPanel {
                 console.log('Campos del primer mensaje:', Object.keys(messages[0] || {}));
             }
             this.renderHistory();
+            this.renderTypingIndicator();
+            this.markCurrentRead(id, type);
         } catch (error) {
             console.error('Error al cargar historial:', error);
             console.error('Stack:', error.stack);
@@ -140,6 +148,25 @@ export class ChatPanel {
         }
     }
 
+    /**
+     * Carga la página anterior del historial, aunque ya esté archivada en el servidor
+     */
+    async handleLoadOlder() {
+        if (!this.ensureTargetReady()) return;
+        try {
+            const { id, type } = this.getTarget();
+            const loaded = await this.chatService.loadOlderHistory(id, type);
+            if (loaded === 0) {
+                this.notificationCenter.push('No hay mensajes más antiguos');
+                return;
+            }
+            this.renderHistory();
+            this.dom.history.scrollTop = 0;
+        } catch (error) {
+            this.notificationCenter.showError('Error al recuperar historial', error, (e) => this.chatService.formatError(e));
+        }
+    }
+
     /**
      * Renderiza el historial
      */
@@ -351,19 +378,110 @@ export class ChatPanel {
         if (matchesCurrent) {
             this.chatService.addToHistory(payload);
             this.renderHistory();
+            this.markCurrentRead(currentTarget.id, currentTarget.type);
         } else {
             this.notificationCenter.push(`Nuevo mensaje de ${payload.fromName}`, 'info');
         }
     }
 
+    /**
+     * Avisa al servidor de que el historial visible ya fue leído
+     */
+    markCurrentRead(id, type) {
+        this.chatService.markHistoryRead(id, type).catch((error) => {
+            console.warn('No se pudo marcar como leído:', error);
+        });
+    }
+
+    /**
+     * Maneja un acuse de lectura de otro participante de la conversación activa
+     */
+    handleReadReceipt(receipt) {
+        const currentTarget = this.getTarget();
+        if (receipt.targetId === currentTarget.id && receipt.targetType === currentTarget.type) {
+            this.notificationCenter.push(`${receipt.readerId} leyó hasta el mensaje #${receipt.upToSeq}`, 'info');
+        }
+    }
+
+    /**
+     * Avisa que se está escribiendo en la conversación activa (el servicio limita la frecuencia)
+     */
+    handleTypingInput() {
+        const { id, type } = this.getTarget();
+        if (!id || !this.chatService.getUser()) return;
+        if (this.dom.messageInput.value.trim()) {
+            this.chatService.notifyTyping(id, type);
+        } else {
+            this.chatService.stopTyping();
+        }
+    }
+
+    /**
+     * Maneja un cambio de "escribiendo..." de otro participante
+     */
+    handleTyping(update) {
+        const currentTarget = this.getTarget();
+        if (update.targetId === currentTarget.id && update.targetType === currentTarget.type) {
+            this.renderTypingIndicator();
+        }
+    }
+
+    /**
+     * Maneja un cambio de presencia: solo se muestra el del chat directo activo
+     */
+    handlePresence(update) {
+        const currentTarget = this.getTarget();
+        if (currentTarget.type === 'user' && update.userId === currentTarget.id) {
+            this.renderTypingIndicator();
+        }
+    }
+
+    /**
+     * Muestra quién escribe en la conversación activa o, en un chat directo, si el otro está conectado
+     */
+    renderTypingIndicator() {
+        const { id, type } = this.getTarget();
+        const typers = this.chatService.getTypers(id, type);
+        let text = '';
+        if (typers.length === 1) {
+            text = `${typers[0]} está escribiendo...`;
+        } else if (typers.length > 1) {
+            text = `${typers.length} personas están escribiendo...`;
+        } else if (type === 'user') {
+            const online = this.chatService.isOnline(id);
+            text = online === undefined ? '' : (online ? 'En línea' : 'Desconectado');
+        }
+        this.dom.typingIndicator.textContent = text;
+    }
+
+    /**
+     * Se perdieron eventos en tiempo real: recarga el historial de la conversación activa
+     */
+    handleDeliveryGap() {
+        if (this.getTarget().id) {
+            this.handleLoadHistory();
+        }
+    }
+
     /**
      * Maneja un evento de llamada
      */
     handleCallEvent(event) {
-        const text =
-            event.type === 'start'
-                ? `${event.fromName} inició una llamada`
-                : `${event.fromName} finalizó la llamada`;
+        const texts = {
+            start: `${event.fromName} inició una llamada`,
+            accept: `${event.fromName} aceptó la llamada`,
+            reject: `${event.fromName} rechazó la llamada`,
+            leave: `${event.fromName} salió de la llamada`,
+            disconnect: `${event.fromName} se desconectó de la llamada`,
+            lost: 'La llamada se cortó por falta de señal',
+            missed: 'Llamada perdida',
+            timeout: 'La llamada no se pudo establecer'
+        };
+        const text = texts[event.type] || `${event.fromName} finalizó la llamada`;
+        if (event.type !== 'start' && event.type !== 'accept' && event.type !== 'leave') {
+            this.dom.startCallBtn.disabled = false;
+            this.dom.endCallBtn.disabled = true;
+        }
         this.notificationCenter.push(text, 'info');
     }
 }
@@ -39,11 +39,25 @@ export class HomePage {
         try {
             const status = await this.service.bootstrapIce();
             this.sessionPanel.updateStatus(status);
+            const resumed = await this.service.resumeStoredSession();
+            if (resumed) {
+                this.sessionPanel.updateStatus(`Conectado como ${resumed.displayName}`);
+                this.notifications.push(`Sesión retomada: ${resumed.displayName}`, 'info');
+                await this.showUnreadSummary();
+            }
         } catch (error) {
             this.notifications.showError('Error inicializando Ice', error, (e) => this.service.formatError(e));
         }
     }
 
+    async showUnreadSummary() {
+        const pending = (await this.service.getUnreadSummary()).filter(entry => entry.unread > 0);
+        if (pending.length > 0) {
+            const total = pending.reduce((sum, entry) => sum + entry.unread, 0);
+            this.notifications.push(`Tienes ${total} mensajes sin leer en ${pending.length} conversaciones`, 'info');
+        }
+    }
+
     setupCallbacks() {
         // Configurar callbacks del servicio
         this.service.onPushEvent({
@@ -52,7 +66,11 @@ export class HomePage {
                 this.sessionPanel.onGroupCreated(group);
                 this.notifications.push(`Se creó el grupo ${group.name}`, 'info');
             },
-            onCallEvent: (event) => this.chatPanel.handleCallEvent(event)
+            onCallEvent: (event) => this.chatPanel.handleCallEvent(event),
+            onReadReceipt: (receipt) => this.chatPanel.handleReadReceipt(receipt),
+            onPresence: (update) => this.chatPanel.handlePresence(update),
+            onTyping: (update) => this.chatPanel.handleTyping(update),
+            onDeliveryGap: () => this.chatPanel.handleDeliveryGap()
         });
 
         // Configurar callbacks del panel de sesión
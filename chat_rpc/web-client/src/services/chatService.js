@@ -1,3 +1,13 @@
+import { decodeHistoryPage } from './historyPage.js';
+
+const SESSION_STORAGE_KEY = 'chat.session';
+const ACK_DELAY_MS = 200;
+const CALL_KEEPALIVE_MS = 15000;
+const DELIVERY_GAP_TIMEOUT_MS = 10000;
+const SEND_ATTEMPTS = 3;
+const TYPING_REFRESH_MS = 3000;
+const TYPING_IDLE_MS = 4000;
+
 /**
  * Servicio que maneja toda la conexión Ice y las llamadas RPC
  */
@@ -14,6 +24,15 @@ export class ChatService {
         this.audioChunks = [];
         this.pendingAudioFile = null;
         this.pushListeners = [];
+        this.activeCallId = null;
+        this.callKeepalive = null;
+        this.deliveredUpTo = 0;
+        this.deliveredAhead = new Set();
+        this.ackTimer = null;
+        this.gapTimer = null;
+        this.presence = new Map();
+        this.typingIn = new Map();
+        this.ownTyping = null;
     }
 
     /**
@@ -34,7 +53,9 @@ export class ChatService {
             'Ice.Default.Protocol=ws'
         ]);
 
-        const base = this.communicator.stringToProxy('ChatSession:ws -h localhost -p 10000');
+        // En un clúster cada nodo escucha en su propio puerto: ?port=10001 conecta con otro nodo.
+        const port = new URLSearchParams(window.location.search).get('port') || '10000';
+        const base = this.communicator.stringToProxy(`ChatSession:ws -h localhost -p ${port}`);
         this.chatPrx = await Chat.ChatSessionPrx.checkedCast(base);
         this.adapter = await this.communicator.createObjectAdapter('');
         if (typeof this.adapter.activate === 'function') {
@@ -50,10 +71,53 @@ export class ChatService {
         if (!this.chatPrx) {
             throw new Error('La conexión con Ice no está lista todavía.');
         }
-        const user = await this.chatPrx.registerUser(desiredName);
-        this.user = user;
+        const session = await this.chatPrx.registerUser(desiredName);
+        this.storeSession(session);
+        this.user = session.user;
         await this.subscribePush();
-        return user;
+        return this.user;
+    }
+
+    /**
+     * Retoma la sesión guardada en el navegador (tras recargar o reiniciar el servidor)
+     */
+    async resumeStoredSession() {
+        const stored = this.loadStoredSession();
+        if (!stored || !this.chatPrx) {
+            return null;
+        }
+        try {
+            const session = await this.chatPrx.resumeSession(stored.userId, stored.token);
+            this.user = session.user;
+            await this.subscribePush();
+            return this.user;
+        } catch (error) {
+            localStorage.removeItem(SESSION_STORAGE_KEY);
+            return null;
+        }
+    }
+
+    /**
+     * Busca usuarios por nombre visible
+     */
+    async findUsersByName(displayName) {
+        const users = await this.chatPrx.findUsersByName(displayName);
+        return Array.from(users || []);
+    }
+
+    storeSession(session) {
+        localStorage.setItem(
+            SESSION_STORAGE_KEY,
+            JSON.stringify({ userId: session.user.id, token: session.token })
+        );
+    }
+
+    loadStoredSession() {
+        try {
+            return JSON.parse(localStorage.getItem(SESSION_STORAGE_KEY));
+        } catch (error) {
+            return null;
+        }
     }
 
     /**
@@ -68,17 +132,35 @@ export class ChatService {
                 this.service = service;
             }
 
-            async onIncomingMessage(payload) {
-                this.service.notifyIncomingMessage(payload);
+            async onIncomingMessage(payload, deliverySeq) {
+                if (this.service.acceptDelivery(deliverySeq)) {
+                    this.service.notifyIncomingMessage(payload);
+                }
             }
 
-            async onGroupCreated(group) {
-                this.service.notifyGroupCreated(group);
+            async onGroupCreated(group, deliverySeq) {
+                if (this.service.acceptDelivery(deliverySeq)) {
+                    this.service.notifyGroupCreated(group);
+                }
             }
 
             async onCallEvent(event) {
                 this.service.notifyCallEvent(event);
             }
+
+            async onCallSignal(signal) {
+                this.service.notifyCallSignal(signal);
+            }
+
+            async onReadReceipt(receipt, deliverySeq) {
+                if (this.service.acceptDelivery(deliverySeq)) {
+                    this.service.notifyReadReceipt(receipt);
+                }
+            }
+
+            async onEphemeralBatch(batch) {
+                this.service.notifyEphemeral(batch);
+            }
         }
 
         const randomFromBrowser =
@@ -88,8 +170,88 @@ export class ChatService {
         const servant = new PushListener(this);
         this.adapter.add(servant, identity);
         const prx = Chat.RealtimePushPrx.uncheckedCast(this.adapter.createProxy(identity));
-        await this.chatPrx.subscribePush(this.user.id, prx);
+        const previousUpTo = this.deliveredUpTo;
+        this.deliveredUpTo = 0;
+        this.deliveredAhead.clear();
+        const ackedUpTo = await this.chatPrx.subscribePush(this.user.id, prx);
         this.pushProxy = prx;
+        this.advanceDeliveredTo(ackedUpTo.toNumber());
+        if (previousUpTo > 0 && ackedUpTo.toNumber() === 0) {
+            // El servidor descartó la ventana de entrega (pasó Chat.Push.WindowTtlSec sin conexión
+            // o se reinició): lo pendiente se perdió y hay que recargar el historial.
+            this.notifyDeliveryGap();
+        }
+    }
+
+    /**
+     * Registra un push confiable por su deliverySeq. Devuelve false si ya se había procesado
+     * (reenvío del servidor) y programa el ack acumulado en ambos casos.
+     */
+    acceptDelivery(deliverySeq) {
+        const seq = deliverySeq.toNumber();
+        const fresh = seq > this.deliveredUpTo && !this.deliveredAhead.has(seq);
+        if (fresh) {
+            this.deliveredAhead.add(seq);
+            this.advanceDeliveredTo(this.deliveredUpTo);
+        }
+        this.scheduleAck();
+        return fresh;
+    }
+
+    /**
+     * Avanza el último seq contiguo recibido. Si queda un hueco (el servidor descartó eventos
+     * por desbordar su ventana) se espera un rato y luego se avisa para recargar el historial.
+     */
+    advanceDeliveredTo(seq) {
+        this.deliveredUpTo = Math.max(this.deliveredUpTo, seq);
+        for (const pending of this.deliveredAhead) {
+            if (pending <= this.deliveredUpTo) {
+                this.deliveredAhead.delete(pending);
+            }
+        }
+        while (this.deliveredAhead.delete(this.deliveredUpTo + 1)) {
+            this.deliveredUpTo++;
+        }
+        if (this.deliveredAhead.size === 0) {
+            clearTimeout(this.gapTimer);
+            this.gapTimer = null;
+        } else if (!this.gapTimer) {
+            const stuckAt = this.deliveredUpTo;
+            this.gapTimer = setTimeout(() => {
+                this.gapTimer = null;
+                if (this.deliveredUpTo === stuckAt && this.deliveredAhead.size > 0) {
+                    this.advanceDeliveredTo(Math.min(...this.deliveredAhead) - 1);
+                    this.scheduleAck();
+                    this.notifyDeliveryGap();
+                } else {
+                    this.advanceDeliveredTo(this.deliveredUpTo);
+                }
+            }, DELIVERY_GAP_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Agrupa los acks: un solo ackPush acumulado cada ACK_DELAY_MS
+     */
+    scheduleAck() {
+        if (this.ackTimer || !this.user) return;
+        this.ackTimer = setTimeout(() => {
+            this.ackTimer = null;
+            const upTo = this.deliveredUpTo;
+            this.chatPrx.ackPush(this.user.id, new Ice.Long(Math.floor(upTo / 0x100000000), upTo >>> 0))
+                .catch(error => console.warn('No se pudo confirmar la entrega de eventos:', error));
+        }, ACK_DELAY_MS);
+    }
+
+    /**
+     * Notifica a los listeners que se perdieron eventos y conviene recargar el historial
+     */
+    notifyDeliveryGap() {
+        this.pushListeners.forEach(listener => {
+            if (listener.onDeliveryGap) {
+                listener.onDeliveryGap();
+            }
+        });
     }
 
     /**
@@ -126,6 +288,12 @@ export class ChatService {
      * Notifica a los listeners sobre un evento de llamada
      */
     notifyCallEvent(event) {
+        if (event.type === 'start' || event.type === 'accept') {
+            this.activeCallId = event.callId;
+        } else if (event.callId === this.activeCallId && event.type !== 'leave') {
+            this.activeCallId = null;
+        }
+        this.updateCallKeepalive(event);
         this.pushListeners.forEach(listener => {
             if (listener.onCallEvent) {
                 listener.onCallEvent(event);
@@ -133,6 +301,132 @@ export class ChatService {
         });
     }
 
+    /**
+     * Mientras la llamada está aceptada envía un candidate vacío cada CALL_KEEPALIVE_MS para que
+     * el servidor no la corte por inactividad; el servidor no lo reenvía a nadie
+     */
+    updateCallKeepalive(event) {
+        if (event.type === 'accept' && event.callId === this.activeCallId && !this.callKeepalive) {
+            this.callKeepalive = setInterval(() => {
+                this.sendCandidate('').catch(error => console.warn('No se pudo renovar la llamada:', error));
+            }, CALL_KEEPALIVE_MS);
+        } else if (!this.activeCallId && this.callKeepalive) {
+            clearInterval(this.callKeepalive);
+            this.callKeepalive = null;
+        }
+    }
+
+    /**
+     * Notifica a los listeners sobre una señal WebRTC (offer/answer/candidate) reenviada por el servidor
+     */
+    notifyCallSignal(signal) {
+        this.pushListeners.forEach(listener => {
+            if (listener.onCallSignal) {
+                listener.onCallSignal(signal);
+            }
+        });
+    }
+
+    /**
+     * Notifica a los listeners que otro participante leyó la conversación hasta cierto seq
+     */
+    notifyReadReceipt(receipt) {
+        this.pushListeners.forEach(listener => {
+            if (listener.onReadReceipt) {
+                listener.onReadReceipt(receipt);
+            }
+        });
+    }
+
+    /**
+     * Aplica un lote de presencia y "escribiendo..." y avisa a los listeners. No llevan
+     * deliverySeq ni ack: si se pierde uno, el siguiente estado lo corrige.
+     */
+    notifyEphemeral(batch) {
+        for (const update of batch.presence || []) {
+            this.presence.set(update.userId, update.online);
+            this.pushListeners.forEach(listener => {
+                if (listener.onPresence) {
+                    listener.onPresence(update);
+                }
+            });
+        }
+        for (const update of batch.typing || []) {
+            const key = `${update.targetType}:${update.targetId}`;
+            const typers = this.typingIn.get(key) || new Set();
+            if (update.typing) {
+                typers.add(update.userId);
+            } else {
+                typers.delete(update.userId);
+            }
+            if (typers.size > 0) {
+                this.typingIn.set(key, typers);
+            } else {
+                this.typingIn.delete(key);
+            }
+            this.pushListeners.forEach(listener => {
+                if (listener.onTyping) {
+                    listener.onTyping(update);
+                }
+            });
+        }
+    }
+
+    /**
+     * Devuelve true/false si se conoce la presencia del usuario, o undefined si no
+     */
+    isOnline(userId) {
+        return this.presence.get(userId);
+    }
+
+    /**
+     * Usuarios que están escribiendo en una conversación. En un chat directo el servidor
+     * identifica la conversación por el id de quien escribe.
+     */
+    getTypers(targetId, targetType) {
+        return Array.from(this.typingIn.get(`${targetType}:${targetId}`) || []);
+    }
+
+    /**
+     * Avisa que el usuario está escribiendo. Se envía como mucho cada TYPING_REFRESH_MS
+     * y se apaga solo tras TYPING_IDLE_MS sin teclear.
+     */
+    notifyTyping(targetId, targetType) {
+        if (!this.user || !targetId) return;
+        const now = Date.now();
+        const current = this.ownTyping;
+        if (current && (current.targetId !== targetId || current.targetType !== targetType)) {
+            this.stopTyping();
+        }
+        if (!this.ownTyping) {
+            this.ownTyping = { targetId, targetType, sentAt: 0, idleTimer: null };
+        }
+        const typing = this.ownTyping;
+        if (now - typing.sentAt >= TYPING_REFRESH_MS) {
+            typing.sentAt = now;
+            this.sendTyping(targetId, targetType, true);
+        }
+        clearTimeout(typing.idleTimer);
+        typing.idleTimer = setTimeout(() => this.stopTyping(), TYPING_IDLE_MS);
+    }
+
+    /**
+     * Apaga el indicador propio si estaba encendido
+     */
+    stopTyping() {
+        const typing = this.ownTyping;
+        if (!typing) return;
+        this.ownTyping = null;
+        clearTimeout(typing.idleTimer);
+        this.sendTyping(typing.targetId, typing.targetType, false);
+    }
+
+    sendTyping(targetId, targetType, typing) {
+        this.chatPrx.setTyping(this.user.id, targetId, targetType, typing).catch((error) => {
+            console.warn('No se pudo enviar el estado de escritura:', error);
+        });
+    }
+
     /**
      * Crea un grupo
      */
@@ -153,7 +447,7 @@ export class ChatService {
             throw new Error('Primero registra un usuario.');
         }
         try {
-            const messages = await this.chatPrx.getHistory(this.user.id, targetId, targetType);
+            const messages = decodeHistoryPage(await this.chatPrx.getHistoryCompact(this.user.id, targetId, targetType));
             console.log('getHistory - Mensajes recibidos del servidor (raw):', messages);
             console.log('getHistory - Tipo de mensajes:', Array.isArray(messages) ? 'Array' : typeof messages);
             console.log('getHistory - Constructor:', messages?.constructor?.name);
@@ -212,6 +506,62 @@ export class ChatService {
         }
     }
 
+    /**
+     * Carga mensajes anteriores al más antiguo del historial actual (incluye los archivados
+     * en frío por el servidor) y los antepone al historial.
+     */
+    async loadOlderHistory(targetId, targetType, pageSize = 50) {
+        if (!this.user) {
+            throw new Error('Primero registra un usuario.');
+        }
+        // El cursor es el mensaje más antiguo (timestamp e id): así no se pierden los
+        // mensajes que comparten su milisegundo.
+        const oldest = this.history.length > 0 ? this.history[0] : null;
+        const beforeTs = oldest ? oldest.timestamp : new Ice.Long(0, 0);
+        const beforeId = oldest ? oldest.id : '';
+        const page = decodeHistoryPage(
+            await this.chatPrx.getHistoryPageCompact(this.user.id, targetId, targetType, beforeTs, beforeId,
+                pageSize));
+        this.history = page.concat(this.history);
+        return page.length;
+    }
+
+    /**
+     * Marca la conversación como leída hasta upToSeq. El servidor agrupa las marcas y envía
+     * un único acuse de lectura por intervalo.
+     */
+    async markRead(targetId, targetType, upToSeq) {
+        if (!this.user) {
+            throw new Error('Primero registra un usuario.');
+        }
+        await this.chatPrx.markRead(this.user.id, targetId, targetType, upToSeq);
+    }
+
+    /**
+     * Marca como leído todo lo cargado en el historial actual
+     */
+    async markHistoryRead(targetId, targetType) {
+        let newest = null;
+        for (const message of this.history) {
+            if (message.seq && (newest === null || message.seq.toNumber() > newest.toNumber())) {
+                newest = message.seq;
+            }
+        }
+        if (newest !== null && newest.toNumber() > 0) {
+            await this.markRead(targetId, targetType, newest);
+        }
+    }
+
+    /**
+     * Devuelve los contadores de no leídos de todas las conversaciones del usuario
+     */
+    async getUnreadSummary() {
+        if (!this.user) {
+            throw new Error('Primero registra un usuario.');
+        }
+        return Array.from(await this.chatPrx.getUnreadSummary(this.user.id) || []);
+    }
+
     /**
      * Envía un mensaje de texto
      */
@@ -219,7 +569,9 @@ export class ChatService {
         if (!this.user) {
             throw new Error('Primero registra un usuario.');
         }
-        await this.chatPrx.sendText(this.user.id, targetId, targetType, text);
+        this.stopTyping();
+        const clientMsgId = this.newClientMsgId();
+        await this.withRetry(() => this.chatPrx.sendText(this.user.id, targetId, targetType, text, clientMsgId));
     }
 
     /**
@@ -229,7 +581,35 @@ export class ChatService {
         if (!this.user) {
             throw new Error('Primero registra un usuario.');
         }
-        await this.chatPrx.sendAudio(this.user.id, targetId, targetType, audioData, mimeType);
+        this.stopTyping();
+        const clientMsgId = this.newClientMsgId();
+        await this.withRetry(() =>
+            this.chatPrx.sendAudio(this.user.id, targetId, targetType, audioData, mimeType, clientMsgId));
+    }
+
+    /**
+     * Id propio del mensaje: los reintentos reutilizan el mismo y el servidor descarta duplicados
+     */
+    newClientMsgId() {
+        return typeof crypto !== 'undefined' && crypto.randomUUID
+            ? crypto.randomUUID()
+            : `${Date.now()}-${Math.random().toString(36).slice(2)}`;
+    }
+
+    /**
+     * Reintenta un envío tras un timeout o una caída de la conexión
+     */
+    async withRetry(send) {
+        for (let attempt = 1; ; attempt++) {
+            try {
+                return await send();
+            } catch (error) {
+                const transient = error instanceof Ice.TimeoutException || error instanceof Ice.ConnectionLostException;
+                if (!transient || attempt >= SEND_ATTEMPTS) {
+                    throw error;
+                }
+            }
+        }
     }
 
     /**
@@ -242,6 +622,35 @@ export class ChatService {
         return await this.chatPrx.startCall(this.user.id, targetId, targetType);
     }
 
+    /**
+     * Acepta la llamada entrante
+     */
+    async acceptCall(callId = this.activeCallId) {
+        return await this.chatPrx.acceptCall(this.user.id, callId);
+    }
+
+    /**
+     * Rechaza la llamada entrante
+     */
+    async rejectCall(callId = this.activeCallId) {
+        return await this.chatPrx.rejectCall(this.user.id, callId);
+    }
+
+    /**
+     * Reenvía la señalización WebRTC a los demás participantes de la llamada
+     */
+    async sendOffer(sdp, callId = this.activeCallId) {
+        await this.chatPrx.sendOffer(this.user.id, callId, sdp);
+    }
+
+    async sendAnswer(sdp, callId = this.activeCallId) {
+        await this.chatPrx.sendAnswer(this.user.id, callId, sdp);
+    }
+
+    async sendCandidate(candidate, callId = this.activeCallId) {
+        await this.chatPrx.sendCandidate(this.user.id, callId, candidate);
+    }
+
     /**
      * Finaliza una llamada
      */
@@ -367,6 +776,12 @@ export class ChatService {
         if (typeof error === 'string') {
             return error;
         }
+        if (window.Chat && error instanceof Chat.CallRejectedException) {
+            return `llamada rechazada: ${error.reason}`;
+        }
+        if (window.Chat && error instanceof Chat.OverloadedException) {
+            return `servidor ocupado (${error.operation}: ${error.reason}), reintenta en ${error.retryAfterMs} ms`;
+        }
         if (error.message) {
             return error.message;
         }
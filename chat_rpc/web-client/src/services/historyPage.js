@@ -0,0 +1,65 @@
+const AUDIO = 1;
+const GROUP = 1;
+const TWO_POW_32 = 0x100000000;
+
+/**
+ * Expande un Chat.HistoryPage (formato compacto de getHistoryCompact/getHistoryPageCompact)
+ * a la lista de Chat.MessagePayload que devolvía getHistory, del más antiguo al más nuevo.
+ * Es el mismo algoritmo que HistoryPageCodec.decode en el servidor: remitentes y tipos mime
+ * por índice, y timestamp/seq como deltas zigzag varint respecto a la fila anterior.
+ */
+export function decodeHistoryPage(page) {
+    const group = page.targetType === GROUP;
+    const toType = group ? 'group' : 'user';
+    const conversation = page.conversation || [];
+    const participants = page.participants || [];
+    const mimeTypes = page.mimeTypes || [];
+    const deltas = page.deltas || new Uint8Array(0);
+    const rows = page.rows || [];
+    const cursor = { position: 0 };
+    let timestamp = page.firstTimestamp.toNumber();
+    let seq = page.firstSeq.toNumber();
+    const messages = new Array(rows.length);
+    for (let i = 0; i < rows.length; i++) {
+        const row = rows[i];
+        const sender = participants[row.from];
+        timestamp += readVarLong(deltas, cursor);
+        seq += readVarLong(deltas, cursor);
+        let to = conversation[0];
+        if (!group && sender.id === conversation[0]) {
+            to = conversation[1];
+        }
+        const audio = row.kind === AUDIO;
+        messages[i] = new Chat.MessagePayload(
+            row.id,
+            sender.id,
+            sender.name,
+            to,
+            toType,
+            audio ? 'audio' : 'text',
+            audio ? '' : row.body,
+            audio ? row.body : '',
+            row.mimeType >= 0 ? mimeTypes[row.mimeType] : '',
+            toLong(timestamp),
+            toLong(seq)
+        );
+    }
+    return messages;
+}
+
+// Aritmética en lugar de operadores de bits: los timestamps en ms no caben en 32 bits.
+function readVarLong(bytes, cursor) {
+    let zigzag = 0;
+    let scale = 1;
+    let b;
+    do {
+        b = bytes[cursor.position++];
+        zigzag += (b & 0x7f) * scale;
+        scale *= 128;
+    } while (b & 0x80);
+    return zigzag % 2 === 0 ? zigzag / 2 : -(zigzag + 1) / 2;
+}
+
+function toLong(value) {
+    return new Ice.Long(Math.floor(value / TWO_POW_32), value >>> 0);
+}